@@ -0,0 +1,80 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.QueueEngineType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of adding a batch of tasks to a queue that already contains the
+ * given number of tasks: by {@link QueueEngine#addNewTasks} versus the same
+ * number of {@link QueueEngine#addNewTask} calls. With {@code tasksPerSecond}
+ * above one the tasks of the batch arrive in bursts that share their enqueue
+ * times, so most of them collide with another task of the same class and
+ * enqueue time.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddNewTasksBenchmark {
+
+    static final int BATCH_SIZE = 10_000;
+
+    @Param({"TREE", "COMPACT", "SKIP_LIST", "HEAP", "KINETIC"})
+    QueueEngineType engine;
+
+    @Param({"0", "10000", "100000"})
+    int size;
+
+    @Param({"1", "1000"})
+    int tasksPerSecond;
+
+    QueueEngine queue;
+    long[] ids;
+    long[] enqueueTimes;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        BenchmarkTasks tasks = new BenchmarkTasks();
+        queue = engine.create(Integer.MAX_VALUE);
+        tasks.fill(queue, size);
+
+        ids = new long[BATCH_SIZE];
+        enqueueTimes = new long[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ids[i] = tasks.nextId();
+            enqueueTimes[i] = tasks.enqueueTime(ids[i], tasksPerSecond);
+        }
+    }
+
+    @Benchmark
+    public QueueEngine.Status[] addNewTasks() {
+        return queue.addNewTasks(ids, enqueueTimes);
+    }
+
+    @Benchmark
+    public QueueEngine.Status addNewTaskOneByOne() {
+        QueueEngine.Status status = null;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            status = queue.addNewTask(ids[i], enqueueTimes[i]);
+        }
+        return status;
+    }
+}
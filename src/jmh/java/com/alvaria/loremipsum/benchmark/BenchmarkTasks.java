@@ -0,0 +1,74 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.QueueEngine;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code BenchmarkTasks} class generates the tasks for the benchmarks.
+ * Every generated task has a unique ID and a pseudo-random age, unique unless
+ * the tasks are asked to share their enqueue times.
+ *
+ * @author Nikita Nikolaev
+ */
+class BenchmarkTasks {
+    // Ages are a permutation of [1, 2^30] seconds; all of them are valid enqueue times
+    private static final long AGE_MASK = (1L << 30) - 1;
+
+    private final long baseTime = Instant.now().getEpochSecond();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Get the ID of the next task
+     * @return unique task ID
+     */
+    long nextId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * Get the enqueue time of the task with the given ID
+     * @param id task ID
+     * @return unique enqueue time
+     */
+    long enqueueTime(long id) {
+        // Multiplication by an odd number is a bijection modulo 2^30
+        return baseTime - ((id * 0x9E3779B1L) & AGE_MASK) - 1;
+    }
+
+    /**
+     * Get the enqueue time of the task with the given ID, shared by the given
+     * number of the consecutive IDs
+     * @param id task ID
+     * @param tasksPerSecond number of the tasks enqueued in the same second
+     * @return enqueue time
+     */
+    long enqueueTime(long id, int tasksPerSecond) {
+        return enqueueTime((id - 1) / tasksPerSecond + 1);
+    }
+
+    /**
+     * Add the next task to the queue
+     * @param queue to add the task to
+     * @return status of the operation
+     */
+    QueueEngine.Status addNext(QueueEngine queue) {
+        long id = nextId();
+        return queue.addNewTask(id, enqueueTime(id));
+    }
+
+    /**
+     * Fill the queue with the given number of tasks; the task IDs start from 1
+     * @param queue to fill
+     * @param size number of tasks to add
+     */
+    void fill(QueueEngine queue, int size) {
+        for (int i = 0; i < size; i++) {
+            QueueEngine.Status status = addNext(queue);
+            if (status != QueueEngine.Status.S_OK) {
+                throw new IllegalStateException("BenchmarkTasks:fill(): Failed to add a task: " + status);
+            }
+        }
+    }
+}
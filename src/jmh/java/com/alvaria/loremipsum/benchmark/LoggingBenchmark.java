@@ -0,0 +1,130 @@
+package com.alvaria.loremipsum.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.QueueEngineType;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the queue operations with the logging of the service enabled.
+ * The log is written to a temporary file either in place (SYNC) or by the
+ * background thread of the async appender the service runs with (ASYNC).
+ * INFO is the production level; DEBUG traces every operation, as the service
+ * used to log at INFO. Run it with several threads to see the contention on
+ * the appender, e.g. {@code -Djmh.benchmarks=LoggingBenchmark -Djmh.args="-t 4"}.
+ * Note that the async appender drops the events while its queue is full, so
+ * its DEBUG results show the cost of the producers only.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggingBenchmark {
+
+    private static final int SIZE = 10_000;
+
+    @Param({"SYNC", "ASYNC"})
+    String appender;
+
+    @Param({"INFO", "DEBUG"})
+    String level;
+
+    QueueEngine queue;
+    BenchmarkTasks tasks;
+
+    Logger logger;
+    FileAppender<ILoggingEvent> fileAppender;
+    Appender<ILoggingEvent> serviceAppender;
+    Path logFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The queue is filled before the logging is enabled
+        queue = QueueEngineType.TREE.create(Integer.MAX_VALUE);
+        tasks = new BenchmarkTasks();
+        tasks.fill(queue, SIZE);
+
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        logFile = Files.createTempFile("lorem-ipsum-", ".log");
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5level [%thread] %logger{39} : %msg%n");
+        encoder.start();
+
+        fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setName("FILE");
+        fileAppender.setFile(logFile.toString());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+        serviceAppender = fileAppender;
+
+        if (appender.equals("ASYNC")) {
+            AsyncAppender asyncAppender = new AsyncAppender();
+            asyncAppender.setContext(context);
+            asyncAppender.setName("ASYNC");
+            asyncAppender.setNeverBlock(true);
+            asyncAppender.addAppender(fileAppender);
+            asyncAppender.start();
+            serviceAppender = asyncAppender;
+        }
+
+        logger = context.getLogger("com.alvaria.loremipsum");
+        logger.setLevel(Level.toLevel(level));
+        logger.setAdditive(false);
+        logger.addAppender(serviceAppender);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        logger.detachAppender(serviceAppender);
+        logger.setLevel(null);
+        logger.setAdditive(true);
+        serviceAppender.stop();
+        fileAppender.stop();
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    public RankedTask addNewTaskAndPoll() {
+        tasks.addNext(queue);
+        return queue.poll();
+    }
+
+    @Benchmark
+    public QueueEngine.Status addNewTaskAndDelete() {
+        long id = tasks.nextId();
+        queue.addNewTask(id, tasks.enqueueTime(id));
+        return queue.deleteTask(id);
+    }
+}
@@ -0,0 +1,79 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.QueueEngineType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the memory footprint of the queue engines: a queue of the given
+ * size is filled once, the heap it occupies is reported per Task as the
+ * {@code bytesPerTask} secondary result (so it is saved along with the time),
+ * and the benchmark measures a full collection with the queue alive, i.e. the
+ * cost of tracing all the objects the queue is built of.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class MemoryFootprintBenchmark {
+
+    @Param({"TREE", "COMPACT", "SKIP_LIST", "HEAP", "KINETIC"})
+    QueueEngineType engine;
+
+    @Param({"1000000", "5000000"})
+    int size;
+
+    QueueEngine queue;
+    double bytesPerTaskShare;
+
+    /**
+     * Heap the queue occupies per Task. JMH sums the event counters over the
+     * measurement iterations, so every iteration reports its share of it
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double bytesPerTask;
+    }
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        long usedBefore = usedHeap();
+        queue = engine.create(Integer.MAX_VALUE);
+        new BenchmarkTasks().fill(queue, size);
+        bytesPerTaskShare = (double) (usedHeap() - usedBefore) / size / params.getMeasurement().getCount();
+    }
+
+    @Benchmark
+    public QueueEngine fullGc(Footprint footprint) {
+        footprint.bytesPerTask = bytesPerTaskShare;
+        System.gc();
+        return queue;
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,82 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.persistence.DurabilityMode;
+import com.alvaria.loremipsum.persistence.WriteAheadLog;
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of the cost of journaling: adding and polling a task with the
+ * write-ahead log in every durability mode ("NONE" runs without the log).
+ * The concurrent operations share the forces of the log, so the throughput
+ * of the durable modes grows with the number of threads ({@code -t N}).
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"NONE", "ASYNC", "BATCHED", "SYNC"})
+    String durability;
+
+    TaskPriorityQueue queue;
+    BenchmarkTasks tasks;
+    Path directory;
+    WriteAheadLog writeAheadLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        queue = new TaskPriorityQueue(Integer.MAX_VALUE);
+        tasks = new BenchmarkTasks();
+        tasks.fill(queue, 10_000);
+
+        directory = Files.createTempDirectory("wal-benchmark");
+        if (!durability.equals("NONE")) {
+            writeAheadLog = new WriteAheadLog(directory, 1L, DurabilityMode.valueOf(durability), 5L);
+            queue.setJournal(writeAheadLog);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public RankedTask addNewTaskAndPoll() {
+        tasks.addNext(queue);
+        return queue.poll();
+    }
+}
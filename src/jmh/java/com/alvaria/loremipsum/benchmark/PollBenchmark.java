@@ -0,0 +1,70 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.metrics.MeteredQueue;
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link TaskPriorityQueue#poll()} alone. Every iteration polls
+ * a fixed batch of tasks; all the tasks for all the iterations are added to
+ * the queue in advance, so the adding contributes neither to the measured
+ * time nor to the allocations (the iteration setup allocations are counted
+ * by the GC profiler). Run it with the GC profiler to check the poll path
+ * allocates nothing:
+ * {@code -Djmh.benchmarks=PollBenchmark -Djmh.args="-prof gc"}
+ *
+ * The same polls are measured through the {@link MeteredQueue} the service
+ * wraps the engine into ({@code metered = true}), so the cost of the meters
+ * is the difference between the two.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = PollBenchmark.ITERATIONS, batchSize = PollBenchmark.BATCH_SIZE)
+@Measurement(iterations = PollBenchmark.ITERATIONS, batchSize = PollBenchmark.BATCH_SIZE)
+@Fork(1)
+public class PollBenchmark {
+
+    static final int BATCH_SIZE = 100_000;
+    static final int ITERATIONS = 10;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean metered;
+
+    QueueEngine queue;
+
+    @Setup
+    public void setUp() {
+        // The queue keeps at least the given number of tasks until the last iteration ends
+        queue = new TaskPriorityQueue(Integer.MAX_VALUE);
+        new BenchmarkTasks().fill(queue, size + 2 * ITERATIONS * BATCH_SIZE);
+        if (metered) {
+            queue = new MeteredQueue(queue, new SimpleMeterRegistry());
+        }
+    }
+
+    @Benchmark
+    public RankedTask poll() {
+        return queue.poll();
+    }
+}
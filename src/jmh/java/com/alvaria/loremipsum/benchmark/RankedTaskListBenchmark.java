@@ -0,0 +1,55 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of building the ranked list of the tasks. The full listing is
+ * the only operation that is linear of the queue size, so it is measured
+ * separately; a page at the top of the queue must not depend on the size.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RankedTaskListBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int size;
+
+    TaskPriorityQueue queue;
+
+    @Setup
+    public void setUp() {
+        queue = new TaskPriorityQueue(size);
+        new BenchmarkTasks().fill(queue, size);
+    }
+
+    @Benchmark
+    public List<RankedTask> getRankedTaskList() {
+        return queue.getRankedTaskList();
+    }
+
+    @Benchmark
+    public List<RankedTask> getRankedTaskListPage() {
+        return queue.getRankedTaskList(0, 100);
+    }
+}
@@ -0,0 +1,79 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.redblacktree.Node;
+import com.alvaria.loremipsum.redblacktree.RedBlackTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the basic {@link RedBlackTree} operations. Every benchmark
+ * keeps the tree size steady, so the insert is always paired with a delete.
+ * The tree is not thread-safe, so every thread has its own one.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedBlackTreeBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int size;
+
+    RedBlackTree<Long> tree;
+    SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        tree = new RedBlackTree<>();
+        random = new SplittableRandom(42);
+
+        // The tree contains the even values; the odd ones are free to insert
+        while (tree.size() < size) {
+            long value = 2L * random.nextInt(4 * size);
+            if (tree.findValue(value) == null) {
+                tree.insertNode(value);
+            }
+        }
+    }
+
+    @Benchmark
+    public Long insertNodeAndDeleteNode() {
+        Long value = 2L * random.nextInt(4 * size) + 1;
+        tree.insertNode(value);
+        tree.deleteNode(value);
+        return value;
+    }
+
+    @Benchmark
+    public Long pollMaximumAndInsertNode() {
+        Long max = tree.pollMaximum();
+        tree.insertNode(max);
+        return max;
+    }
+
+    @Benchmark
+    public Node<Long> findValue() {
+        return tree.findValue(2L * random.nextInt(4 * size));
+    }
+
+    @Benchmark
+    public Long[] toArray() {
+        return tree.toArray(Long[]::new);
+    }
+}
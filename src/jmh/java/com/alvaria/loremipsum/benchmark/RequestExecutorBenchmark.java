@@ -0,0 +1,122 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.QueueEngineType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the request threads with many clients long-polling for work.
+ * Every client request polls the queue until a task is there or the request
+ * times out, then the client sends it again; the dispatcher requests that
+ * add the tasks are run by the same executor, as Tomcat runs all the requests.
+ * The executor is either the fixed pool of 200 platform threads (as Tomcat
+ * has by default) or a virtual thread per request (see the
+ * {@code lorem-ipsum.web.virtual-threads} property). A single shot takes the
+ * time until every client gets a task.
+ *
+ * With the pool the waiting clients hold all the threads, so the dispatcher
+ * requests are only run when the clients ahead of them have timed out; with
+ * the virtual threads they run at once.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class RequestExecutorBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+    private static final int TASKS_PER_REQUEST = 100;
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    String executorType;
+
+    @Param({"10000"})
+    int clients;
+
+    @Param({"50"})
+    long timeoutMillis;
+
+    ExecutorService executor;
+    QueueEngine queue;
+    BenchmarkTasks tasks;
+    CountDownLatch served;
+
+    @Setup(Level.Trial)
+    public void setUpExecutor() throws ReflectiveOperationException {
+        executor = executorType.equals("VIRTUAL") ?
+                   (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null) :
+                   Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        queue = QueueEngineType.TREE.create(clients);
+        tasks = new BenchmarkTasks();
+        served = new CountDownLatch(clients);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void longPoll() throws InterruptedException {
+        for (int i = 0; i < clients; i++) {
+            executor.execute(this::pollRequest);
+        }
+        for (int i = 0; i < clients; i += TASKS_PER_REQUEST) {
+            int count = Math.min(TASKS_PER_REQUEST, clients - i);
+            executor.execute(() -> addRequest(count));
+        }
+        served.await();
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    private void pollRequest() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (queue.poll() == null) {
+            if (System.nanoTime() - deadline > 0) {
+                // Timed out; the client sends the request again
+                executor.execute(this::pollRequest);
+                return;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        served.countDown();
+    }
+
+    private void addRequest(int count) {
+        long[] ids = new long[count];
+        long[] enqueueTimes = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = tasks.nextId();
+            enqueueTimes[i] = tasks.enqueueTime(ids[i]);
+        }
+        queue.addNewTasks(ids, enqueueTimes);
+    }
+}
@@ -0,0 +1,85 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.persistence.Snapshot;
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of writing a snapshot of the queue of the given size and of
+ * restoring the queue from it (reading the snapshot and building the trees
+ * and the ID index), i.e. the restart time of a persistent queue.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class SnapshotBenchmark {
+
+    @Param({"1000000", "5000000"})
+    int size;
+
+    Path directory;
+    List<RankedTask> tasks;
+
+    @Setup
+    public void setUp() throws IOException {
+        TaskPriorityQueue queue = new TaskPriorityQueue(Integer.MAX_VALUE);
+        new BenchmarkTasks().fill(queue, size);
+        tasks = queue.getTaskSnapshot(() -> {});
+
+        directory = Files.createTempDirectory("snapshot-benchmark");
+        Snapshot.write(directory, 1L, tasks);
+    }
+
+    @Setup(Level.Iteration)
+    public void collectGarbage() {
+        // A restarted service starts with a clean heap; the queue restored by the previous shot is dropped
+        System.gc();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        Snapshot.write(directory, 2L, tasks);
+    }
+
+    @Benchmark
+    public TaskPriorityQueue restore() throws IOException {
+        TaskPriorityQueue queue = new TaskPriorityQueue(Integer.MAX_VALUE);
+        queue.restoreTasks(Snapshot.readLatest(directory).tasks());
+        return queue;
+    }
+}
@@ -0,0 +1,98 @@
+package com.alvaria.loremipsum.benchmark;
+
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.QueueEngineType;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link QueueEngine} operations on a queue of the
+ * given size. The queue is shared by all the benchmark threads, so the
+ * contention may be measured by running with {@code -t N}; the "mixed" group
+ * runs a dispatcher that adds and polls the tasks concurrently with the
+ * agents that poll their positions (scale it with {@code -tg 1,N}). Every
+ * {@link QueueEngineType} is measured unless {@code -p engine=...} is given.
+ *
+ * @author Nikita Nikolaev
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskPriorityQueueBenchmark {
+
+    @Param({"TREE", "COMPACT", "SKIP_LIST", "HEAP", "KINETIC"})
+    QueueEngineType engine;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int size;
+
+    QueueEngine queue;
+    BenchmarkTasks tasks;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final SplittableRandom random = new SplittableRandom();
+
+        // One of the IDs the queue was filled with; it may have been polled already
+        long randomId(int size) {
+            return 1 + random.nextInt(size);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // The queue is never full: every benchmark keeps its size steady
+        queue = engine.create(Integer.MAX_VALUE);
+        tasks = new BenchmarkTasks();
+        tasks.fill(queue, size);
+    }
+
+    @Benchmark
+    public RankedTask addNewTaskAndPoll() {
+        tasks.addNext(queue);
+        return queue.poll();
+    }
+
+    @Benchmark
+    public int getTaskPosition(ThreadState state) {
+        return queue.getTaskPosition(state.randomId(size));
+    }
+
+    @Benchmark
+    public Long getExpectedWaitTime() {
+        return queue.getExpectedWaitTime();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public RankedTask mixedDispatcher() {
+        tasks.addNext(queue);
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int mixedAgent(ThreadState state) {
+        return queue.getTaskPosition(state.randomId(size));
+    }
+}
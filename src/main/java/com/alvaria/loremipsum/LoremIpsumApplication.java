@@ -1,7 +1,12 @@
 package com.alvaria.loremipsum;
 
-import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.queue.EncodedWaitTimes;
+import com.alvaria.loremipsum.queue.PendingPoll;
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.RankedSnapshot;
 import com.alvaria.loremipsum.tasks.RankedTask;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.json.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,17 +14,31 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 @SpringBootApplication
 @RestController
 @Slf4j
 public class LoremIpsumApplication extends SpringBootServletInitializer {
-    TaskPriorityQueue queue;
+    // Age in milliseconds of the published snapshot a response was served from
+    static final String SNAPSHOT_AGE_HEADER = "X-Snapshot-Age-Ms";
+    // Percentiles of the wait times reported by GET /ewt for every task class
+    static final double[] WAIT_TIME_PERCENTILES = {50.0, 90.0, 99.0};
+    // Longest time GET /poll?waitMs={waitMs} may wait for a task
+    static final long MAX_POLL_WAIT_MS = 60_000L;
+
+    QueueEngine queue;
+    ObjectMapper objectMapper;
 
     public static void main(String[] args) {
         SpringApplication.run(LoremIpsumApplication.class, args);
@@ -27,30 +46,35 @@ public class LoremIpsumApplication extends SpringBootServletInitializer {
     }
 
     @Autowired
-    public void setQueue(TaskPriorityQueue queue) {
+    public void setQueue(QueueEngine queue) {
         this.queue = queue;
     }
 
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
     @PostMapping(value = "/newtask")
     public @ResponseBody ResponseEntity<?> newTask(@RequestBody String body) {
         String methodName = "newTask";
-        log.info("Body: {}", body);
+        log.debug("Body: {}", body);
         JSONObject jsonBody = new JSONObject(body);
         try {
             long id = jsonBody.getLong("id");
             long enqueueTime = jsonBody.getLong("enqueueTime");
-            TaskPriorityQueue.Status status = queue.addNewTask(id,enqueueTime);
+            QueueEngine.Status status = queue.addNewTask(id,enqueueTime);
 
-            if (status == TaskPriorityQueue.Status.S_OK) {
-                log.info("{}: new task added to the queue", methodName);
+            if (status == QueueEngine.Status.S_OK) {
+                log.debug("{}: new task added to the queue", methodName);
                 return ResponseEntity.status(HttpStatus.OK).build();
-            } else if (status == TaskPriorityQueue.Status.E_QUEUE_FULL) {
-                log.info("{}: Queue is full; status: {}", methodName, status);
+            } else if (status == QueueEngine.Status.E_QUEUE_FULL) {
+                log.debug("{}: Queue is full; status: {}", methodName, status);
                 JSONObject obj = new JSONObject();
                 obj.put("status", status);
                 return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(obj.toString());
             } else {
-                log.info("{}: Failed to add new task: {}", methodName, status);
+                log.debug("{}: Failed to add new task: {}", methodName, status);
                 JSONObject obj = new JSONObject();
                 obj.put("status", status);
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(obj.toString());
@@ -61,57 +85,217 @@ public class LoremIpsumApplication extends SpringBootServletInitializer {
         }
     }
 
+    @PostMapping(value = "/newtasks")
+    public @ResponseBody ResponseEntity<?> newTasks(@RequestBody String body) {
+        String methodName = "newTasks";
+        try {
+            // The body is either a JSON array or a stream of JSON objects, one per line (NDJSON)
+            List<JSONObject> jsonTasks = new ArrayList<>();
+            if (body.stripLeading().startsWith("[")) {
+                JSONArray jsonArray = new JSONArray(body);
+                for (int i = 0; i < jsonArray.length(); i++) {
+                    jsonTasks.add(jsonArray.getJSONObject(i));
+                }
+            } else {
+                for (String line : body.split("\n")) {
+                    if (!line.isBlank()) {
+                        jsonTasks.add(new JSONObject(line));
+                    }
+                }
+            }
+
+            long[] ids = new long[jsonTasks.size()];
+            long[] enqueueTimes = new long[jsonTasks.size()];
+            for (int i = 0; i < jsonTasks.size(); i++) {
+                ids[i] = jsonTasks.get(i).getLong("id");
+                enqueueTimes[i] = jsonTasks.get(i).getLong("enqueueTime");
+            }
+
+            log.debug("{}: Adding {} new tasks", methodName, ids.length);
+            QueueEngine.Status[] statuses = queue.addNewTasks(ids, enqueueTimes);
+
+            JSONArray result = new JSONArray();
+            for (int i = 0; i < ids.length; i++) {
+                JSONObject obj = new JSONObject();
+                obj.put("id", ids[i]);
+                obj.put("status", statuses[i]);
+                result.put(obj);
+            }
+            return ResponseEntity.status(HttpStatus.OK).body(result.toString());
+        } catch (JSONException ex) {
+            log.error("{}: failed to parse the tasks: {}", methodName, ex.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+    }
+
     @GetMapping("/poll")
     public @ResponseBody ResponseEntity<?> poll() {
         String methodName = "poll";
-        log.info("{}: Polling the queue", methodName);
+        log.debug("{}: Polling the queue", methodName);
         RankedTask task = queue.poll();
         if (task != null) {
             return ResponseEntity.status(HttpStatus.OK).body(task);
         } else {
-            log.info("{}: Task not found (empty tree)", methodName);
+            log.debug("{}: Task not found (empty tree)", methodName);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+    }
+
+    @GetMapping(value = "/poll", params = {"waitMs", "!count"})
+    public DeferredResult<ResponseEntity<?>> pollOrWait(@RequestParam long waitMs) {
+        String methodName = "pollOrWait";
+        log.debug("{}: Polling the queue; waiting up to {} ms", methodName, waitMs);
+        if (waitMs <= 0 || waitMs > MAX_POLL_WAIT_MS) {
+            log.debug("{}: Invalid wait time: {}", methodName, waitMs);
+            DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+            return result;
+        }
+
+        // The request holds no thread while waiting; it is completed by the thread that adds the task
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(waitMs);
+        PendingPoll pendingPoll = queue.pollWhenAvailable(task -> {
+            // The request may have ended by another path (e.g. the client disconnected) before the task was polled for it
+            if (!result.setResult(ResponseEntity.status(HttpStatus.OK).body(task))) {
+                putBack(task);
+            }
+        });
+        if (pendingPoll == null) {
+            result.setResult(poll());
+            return result;
+        }
+        result.onTimeout(() -> {
+            if (pendingPoll.cancel()) {
+                log.debug("{}: No task within {} ms", methodName, waitMs);
+                result.setResult(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+            }
+        });
+        // The waiter leaves the queue however the request ends (e.g. the client disconnects)
+        result.onError(ex -> pendingPoll.cancel());
+        result.onCompletion(pendingPoll::cancel);
+        return result;
+    }
+
+    @GetMapping(value = "/poll", params = {"waitMs", "count"})
+    public @ResponseBody ResponseEntity<?> pollBatchOrWait() {
+        String methodName = "pollBatchOrWait";
+        // A waiting poll takes a single task, so the wait time would be silently dropped otherwise
+        log.debug("{}: A batch poll cannot wait", methodName);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    }
+
+    @GetMapping(value = "/poll", params = {"count", "!waitMs"})
+    public @ResponseBody ResponseEntity<?> pollBatch(@RequestParam int count) {
+        String methodName = "pollBatch";
+        log.debug("{}: Polling up to {} tasks from the queue", methodName, count);
+        if (count <= 0) {
+            log.debug("{}: Invalid number of tasks to poll: {}", methodName, count);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        List<RankedTask> tasks = queue.pollBatch(count);
+        if (!tasks.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.OK).body(tasks);
+        } else {
+            log.debug("{}: Task not found (empty tree)", methodName);
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
     }
 
     @GetMapping("/listIds")
-    public @ResponseBody ResponseEntity<?> listIds() {
+    public @ResponseBody ResponseEntity<?> listIds(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         String methodName = "listIds";
-        log.info("{}: Getting the list of tasks in the queue", methodName);
+        log.debug("{}: Getting the list of tasks in the queue", methodName);
+        RankedSnapshot snapshot = queue.getPublishedSnapshot();
+        if (snapshot != null) {
+            // The snapshot is encoded once however many times it is listed, and not sent to the clients that have it
+            if (matchesETag(ifNoneMatch, snapshot.getETag())) {
+                log.debug("{}: The list has not changed", methodName);
+                return withSnapshotAge(ResponseEntity.status(HttpStatus.NOT_MODIFIED), snapshot).eTag(snapshot.getETag()).build();
+            }
+            log.debug("{}: Got the list of size {}", methodName, snapshot.size());
+            return withSnapshotAge(ResponseEntity.status(HttpStatus.OK), snapshot).eTag(snapshot.getETag())
+                    .contentType(MediaType.APPLICATION_JSON).body(snapshot.getEncodedTasks(this::encodeTasks));
+        }
+
+        // The version is tagged before the queue is read, so the list is at least as new as the tag
+        String eTag = queue.getETag();
+        if (matchesETag(ifNoneMatch, eTag)) {
+            log.debug("{}: The list has not changed", methodName);
+            return withETag(ResponseEntity.status(HttpStatus.NOT_MODIFIED), eTag).build();
+        }
         List<RankedTask> rankedTaskList = queue.getRankedTaskList();
         if (rankedTaskList != null) {
-            log.info("{}: Got the list of size {}", methodName, rankedTaskList.size());
-            return ResponseEntity.status(HttpStatus.OK).body(rankedTaskList);
+            log.debug("{}: Got the list of size {}", methodName, rankedTaskList.size());
+            return withETag(ResponseEntity.status(HttpStatus.OK), eTag).body(rankedTaskList);
         } else {
-            log.info("{}: Queue is empty", methodName);
+            log.debug("{}: Queue is empty", methodName);
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
     }
 
+    @GetMapping(value = "/listIds", params = {"offset", "!limit"})
+    public @ResponseBody ResponseEntity<?> listIdsFromOffset() {
+        String methodName = "listIdsFromOffset";
+        // The full list starts from the highest ranked task, so the offset would be silently ignored otherwise
+        log.debug("{}: A page needs the limit", methodName);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    }
+
+    @GetMapping(value = "/listIds", params = "limit")
+    public @ResponseBody ResponseEntity<List<RankedTask>> listIds(@RequestParam(defaultValue = "0") int offset,
+                                                                  @RequestParam int limit,
+                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String methodName = "listIds";
+        log.debug("{}: Getting the page of tasks in the queue: offset = {}, limit = {}", methodName, offset, limit);
+        if (offset < 0 || limit <= 0) {
+            log.debug("{}: Invalid page requested", methodName);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+
+        // The page is taken at once under the queue locks (or from the published snapshot),
+        // so it is serialized after the locks are released
+        RankedSnapshot snapshot = queue.getPublishedSnapshot();
+        String eTag = snapshot != null ? snapshot.getETag() : queue.getETag();
+        if (matchesETag(ifNoneMatch, eTag)) {
+            log.debug("{}: The page has not changed", methodName);
+            return withETag(withSnapshotAge(ResponseEntity.status(HttpStatus.NOT_MODIFIED), snapshot), eTag).build();
+        }
+        List<RankedTask> rankedTaskList = snapshot != null ?
+                                          snapshot.getRankedTaskList(offset, limit) : queue.getRankedTaskList(offset, limit);
+        log.debug("{}: Got the page of size {}", methodName, rankedTaskList.size());
+        return withETag(withSnapshotAge(ResponseEntity.status(HttpStatus.OK), snapshot), eTag).body(rankedTaskList);
+    }
+
     @GetMapping("/position/{id}")
-    public @ResponseBody ResponseEntity<?> getPosition(@PathVariable Long id) {
+    public @ResponseBody ResponseEntity<?> getPosition(@PathVariable Long id,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         String methodName = "getPosition";
-        log.info("{}: Getting the position of task in the queue: {}", methodName, id);
-        Integer pos =  queue.getTaskPosition(id);
+        log.debug("{}: Getting the position of task in the queue: {}", methodName, id);
+        RankedSnapshot snapshot = queue.getPublishedSnapshot();
+        String eTag = snapshot != null ? snapshot.getETag() : queue.getETag();
+        Integer pos = snapshot != null ? snapshot.getTaskPosition(id) : queue.getTaskPosition(id);
         if (pos < 0) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            return withSnapshotAge(ResponseEntity.status(HttpStatus.NOT_FOUND), snapshot).build();
+        } else if (matchesETag(ifNoneMatch, eTag)) {
+            return withETag(withSnapshotAge(ResponseEntity.status(HttpStatus.NOT_MODIFIED), snapshot), eTag).build();
         } else {
             JSONObject obj = new JSONObject();
             obj.put("position", pos);
-            return ResponseEntity.status(HttpStatus.OK).body(obj.toString());
+            return withETag(withSnapshotAge(ResponseEntity.status(HttpStatus.OK), snapshot), eTag).body(obj.toString());
         }
     }
 
     @DeleteMapping("/task/{id}")
     public @ResponseBody ResponseEntity<?> deleteTask(@PathVariable Long id) {
         String methodName = "deleteTask";
-        log.info("{}: Deleting the task from queue: {}", methodName, id);
-        TaskPriorityQueue.Status status = queue.deleteTask(id);
-        if (status == TaskPriorityQueue.Status.S_OK) {
-            log.info("{}: Task {} deleted", methodName, id);
+        log.debug("{}: Deleting the task from queue: {}", methodName, id);
+        QueueEngine.Status status = queue.deleteTask(id);
+        if (status == QueueEngine.Status.S_OK) {
+            log.debug("{}: Task {} deleted", methodName, id);
             return ResponseEntity.status(HttpStatus.OK).build();
         } else {
-            log.info("{}: Task {} not found", methodName, id);
+            log.debug("{}: Task {} not found", methodName, id);
             JSONObject obj = new JSONObject();
             obj.put("status", status);
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(obj.toString());
@@ -119,13 +303,82 @@ public class LoremIpsumApplication extends SpringBootServletInitializer {
     }
 
     @GetMapping("/ewt")
-    public @ResponseBody ResponseEntity<?> getEWT() {
+    public @ResponseBody ResponseEntity<?> getEWT(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         String methodName = "getEWT";
-        log.info("{}: Getting the average waiting time in the queue", methodName);
-        Long ewt = queue.getExpectedWaitTime();
+        log.debug("{}: Getting the average waiting time in the queue", methodName);
+        // The statistics are encoded once per version of the queue, which is their tag as well
+        EncodedWaitTimes waitTimes = queue.getPublishedWaitTimes(LoremIpsumApplication::encodeWaitTimes);
+        if (waitTimes == null) {
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(encodeWaitTimes(queue));
+        } else if (matchesETag(ifNoneMatch, waitTimes.getETag())) {
+            log.debug("{}: The wait times have not changed", methodName);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(waitTimes.getETag()).build();
+        }
+        return ResponseEntity.status(HttpStatus.OK).eTag(waitTimes.getETag()).contentType(MediaType.APPLICATION_JSON).body(waitTimes.getBody());
+    }
+
+    // Put back the task polled for a request that has ended, so it is not lost
+    private void putBack(RankedTask task) {
+        String methodName = "putBack";
+        QueueEngine.Status status = queue.addNewTask(task.getId(), task.getEnqueueTime());
+        if (status == QueueEngine.Status.S_OK) {
+            log.warn("{}: The request ended before task {} was handed to it; the task is put back", methodName, task.getId());
+        } else {
+            log.error("{}: The request ended before task {} was handed to it; failed to put it back: {}", methodName, task.getId(), status);
+        }
+    }
+
+    // Report the age of the snapshot the response is served from; nothing if the queue was read directly
+    private static ResponseEntity.BodyBuilder withSnapshotAge(ResponseEntity.BodyBuilder builder, RankedSnapshot snapshot) {
+        if (snapshot != null) {
+            builder.header(SNAPSHOT_AGE_HEADER, Long.toString(Math.max(System.currentTimeMillis() - snapshot.getTakenAtMillis(), 0L)));
+        }
+        return builder;
+    }
+
+    // Tag the response by the snapshot it is served from or by the version of the queue read; nothing if neither is tagged
+    private static ResponseEntity.BodyBuilder withETag(ResponseEntity.BodyBuilder builder, String eTag) {
+        return eTag != null ? builder.eTag(eTag) : builder;
+    }
+
+    // Check whether the If-None-Match header lists the tag (weak tags match as well)
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(eTag) || (tag.startsWith("W/") && tag.substring(2).equals(eTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] encodeTasks(List<RankedTask> tasks) {
+        try {
+            return objectMapper.writeValueAsBytes(tasks);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] encodeWaitTimes(QueueEngine queue) {
         JSONObject obj = new JSONObject();
-        obj.put("EWT", ewt);
-        return ResponseEntity.status(HttpStatus.OK).body(obj.toString());
+        obj.put("EWT", queue.getExpectedWaitTime());
+
+        // The staff is scheduled by the tail of the wait times, so their percentiles are given per class
+        JSONObject percentiles = new JSONObject();
+        for (RankedTask.TaskClass taskClass : RankedTask.TaskClass.values()) {
+            long[] waitTimes = queue.getWaitTimePercentiles(taskClass, WAIT_TIME_PERCENTILES);
+            JSONObject classPercentiles = new JSONObject();
+            for (int i = 0; i < WAIT_TIME_PERCENTILES.length; i++) {
+                classPercentiles.put("p" + (int) WAIT_TIME_PERCENTILES[i], waitTimes[i]);
+            }
+            percentiles.put(taskClass.name(), classPercentiles);
+        }
+        obj.put("percentiles", percentiles);
+        return obj.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
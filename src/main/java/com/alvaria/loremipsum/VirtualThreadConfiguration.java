@@ -0,0 +1,78 @@
+package com.alvaria.loremipsum;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code VirtualThreadConfiguration} class runs the requests of the
+ * embedded Tomcat, as well as the asynchronous request processing of Spring
+ * MVC (e.g. a {@code Callable} returned by a handler), on virtual threads
+ * instead of the fixed pool of platform threads. So a request waiting for a lock or the journal
+ * holds no pool slot, and the number of the concurrent requests is limited by
+ * {@code server.tomcat.max-connections} only.
+ *
+ * The mode is enabled by {@code lorem-ipsum.web.virtual-threads=true}. The
+ * virtual threads are a preview feature of Java 19, so the service must be run
+ * with {@code --enable-preview} then. The executor is closed when the context
+ * shuts down, after the embedded Tomcat has stopped.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "lorem-ipsum.web", name = "virtual-threads", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Run the requests of the embedded Tomcat on virtual threads
+     * @return the customizer of the Tomcat protocol handler
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        String methodName = "virtualThreadProtocolHandlerCustomizer";
+        log.info("{}: Running the requests on virtual threads", methodName);
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * Run the asynchronous request processing on virtual threads as well
+     * @return the application task executor
+     */
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(executor);
+    }
+
+    /**
+     * Close the executor; it waits for the tasks that are still running
+     */
+    @PreDestroy
+    public void close() {
+        String methodName = "close";
+        log.info("{}: Closing the virtual thread executor", methodName);
+        executor.close();
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // The preview API is called reflectively, so the service is compiled without --enable-preview
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("VirtualThreadConfiguration: virtual threads are not available; run Java 19 with --enable-preview", ex);
+        }
+    }
+}
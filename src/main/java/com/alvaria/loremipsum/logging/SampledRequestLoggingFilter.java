@@ -0,0 +1,58 @@
+package com.alvaria.loremipsum.logging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code SampledRequestLoggingFilter} class logs one of every
+ * {@code lorem-ipsum.logging.request-sample-rate} requests on average at INFO:
+ * the method, the URI, the response status and the time it took. So the
+ * traffic is visible in the production log at a fixed fraction of the cost
+ * of logging every request; the rate 0 disables the request log.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+@Component
+public class SampledRequestLoggingFilter extends OncePerRequestFilter {
+
+    private final int sampleRate;
+
+    /**
+     * Constructor
+     * @param sampleRate one of how many requests is logged; 0 to log none
+     */
+    public SampledRequestLoggingFilter(@Value("${lorem-ipsum.logging.request-sample-rate:1000}") int sampleRate) {
+        if (sampleRate < 0) throw new IllegalArgumentException("SampledRequestLoggingFilter: sample rate must not be negative");
+
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (sampleRate == 0 || !log.isInfoEnabled() || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            log.info("{} {}{} - {} in {} us", request.getMethod(), request.getRequestURI(),
+                     request.getQueryString() != null ? "?" + request.getQueryString() : "",
+                     response.getStatus(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.alvaria.loremipsum.longhashmap;
+
+import java.util.Arrays;
+
+/**
+ * The {@code LongHashMap} class represents a hash map with primitive {@code long}
+ * keys that allows to get/put/remove values with constant average complexity
+ * and without boxing the keys.
+ *
+ * The map uses open addressing with linear probing: the keys and values are
+ * kept in two parallel arrays, so there are no per-entry objects. Removal
+ * shifts the following entries of the probe sequence back instead of leaving
+ * tombstones, so lookups never slow down after many removals.
+ *
+ * The map is not thread-safe. Null values are not supported.
+ *
+ * @author Nikita Nikolaev
+ */
+public class LongHashMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private V[] values; // null marks an empty slot
+    private int mask;
+    private int size;
+
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param expectedSize number of entries the map may hold without resizing
+     */
+    public LongHashMap(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("LongHashMap: expected size must not be negative");
+
+        // Keep the load factor not higher than 1/2
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+        size = 0;
+    }
+
+    /**
+     * Get the value mapped to the given key
+     * @param key to find
+     * @return {@code value} if found;
+     *         {@code null} otherwise
+     */
+    public V get(long key) {
+        int slot = findSlot(key);
+        return values[slot];
+    }
+
+    /**
+     * Map the value to the given key
+     * @param key the key
+     * @param value non-null value to put
+     * @return {@code value} previously mapped to the key if any;
+     *         {@code null} otherwise
+     */
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("LongHashMap:put(): null values are not supported");
+
+        int slot = findSlot(key);
+        V previous = values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (previous == null && ++size > (mask + 1) / 2) {
+            resize((mask + 1) * 2);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Remove the mapping of the given key (if exists)
+     * @param key to remove
+     * @return {@code value} that was mapped to the key if any;
+     *         {@code null} otherwise
+     */
+    public V remove(long key) {
+        int slot = findSlot(key);
+        V previous = values[slot];
+        if (previous != null) {
+            deleteSlot(slot);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Remove the mapping of the given key only if it is mapped to the given
+     * value (the very same object)
+     * @param key to remove
+     * @param value expected to be mapped to the key
+     * @return {@code true} if the mapping was removed
+     */
+    public boolean remove(long key, V value) {
+        int slot = findSlot(key);
+        if (values[slot] != null && values[slot] == value) {
+            deleteSlot(slot);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Make sure the map may hold the given number of entries without resizing
+     * @param expectedSize number of entries the map is expected to hold
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize > (mask + 1) / 2) {
+            resize(Integer.highestOneBit(expectedSize * 2 - 1) << 1);
+        }
+    }
+
+    /**
+     * Get the number of entries in the map
+     * @return map size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Find the slot that contains the key or the empty slot where the key may be put
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    // Delete the entry and move the following entries of the probe sequence to fill the gap
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(keys[next]) & mask;
+            // The entry may fill the gap only if its home slot is not in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        values[gap] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        // The finalization step of MurmurHash3 mixes all the bits of the key
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
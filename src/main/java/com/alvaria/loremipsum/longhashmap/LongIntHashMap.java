@@ -0,0 +1,177 @@
+package com.alvaria.loremipsum.longhashmap;
+
+import java.util.Arrays;
+
+/**
+ * The {@code LongIntHashMap} class represents a hash map with primitive
+ * {@code long} keys and primitive {@code int} values. It is organised exactly
+ * as {@link LongHashMap} (open addressing with linear probing and backward
+ * shift removal), but neither the keys nor the values are objects, so the
+ * map costs 12 bytes per slot and gives the garbage collector nothing to
+ * trace.
+ *
+ * The map is not thread-safe. Zero values are not supported: zero marks an
+ * empty slot and is returned for the missing keys.
+ *
+ * @author Nikita Nikolaev
+ */
+public class LongIntHashMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values; // 0 marks an empty slot
+    private int mask;
+    private int size;
+
+    public LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param expectedSize number of entries the map may hold without resizing
+     */
+    public LongIntHashMap(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("LongIntHashMap: expected size must not be negative");
+
+        // Keep the load factor not higher than 1/2
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+        size = 0;
+    }
+
+    /**
+     * Get the value mapped to the given key
+     * @param key to find
+     * @return {@code value} if found;
+     *         {@code 0} otherwise
+     */
+    public int get(long key) {
+        return values[findSlot(key)];
+    }
+
+    /**
+     * Map the value to the given key
+     * @param key the key
+     * @param value non-zero value to put
+     * @return {@code value} previously mapped to the key if any;
+     *         {@code 0} otherwise
+     */
+    public int put(long key, int value) {
+        if (value == 0) throw new IllegalArgumentException("LongIntHashMap:put(): zero values are not supported");
+
+        int slot = findSlot(key);
+        int previous = values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (previous == 0 && ++size > (mask + 1) / 2) {
+            resize((mask + 1) * 2);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Remove the mapping of the given key (if exists)
+     * @param key to remove
+     * @return {@code value} that was mapped to the key if any;
+     *         {@code 0} otherwise
+     */
+    public int remove(long key) {
+        int slot = findSlot(key);
+        int previous = values[slot];
+        if (previous != 0) {
+            deleteSlot(slot);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Make sure the map may hold the given number of entries without resizing
+     * @param expectedSize number of entries the map is expected to hold
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize > (mask + 1) / 2) {
+            resize(Integer.highestOneBit(expectedSize * 2 - 1) << 1);
+        }
+    }
+
+    /**
+     * Get the number of entries in the map
+     * @return map size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Find the slot that contains the key or the empty slot where the key may be put
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    // Delete the entry and move the following entries of the probe sequence to fill the gap
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != 0) {
+            int home = hash(keys[next]) & mask;
+            // The entry may fill the gap only if its home slot is not in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        values[gap] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        // The finalization step of MurmurHash3 mixes all the bits of the key
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
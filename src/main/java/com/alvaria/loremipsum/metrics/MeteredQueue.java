@@ -0,0 +1,238 @@
+package com.alvaria.loremipsum.metrics;
+
+import com.alvaria.loremipsum.queue.EncodedWaitTimes;
+import com.alvaria.loremipsum.queue.PendingPoll;
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.queue.RankedSnapshot;
+import com.alvaria.loremipsum.queue.TaskJournal;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The {@code MeteredQueue} class wraps a {@link QueueEngine} and reports its
+ * operations to a {@link MeterRegistry}:
+ * <ul>
+ *     <li>{@code lorem.queue.operation} - timer of every operation, tagged by
+ *     the operation, with the percentile histogram published;</li>
+ *     <li>{@code lorem.queue.rejections} - counter of the additions and
+ *     deletions that failed, tagged by the operation and the status;</li>
+ *     <li>{@code lorem.queue.size}, {@code lorem.queue.capacity} and
+ *     {@code lorem.queue.depth} (tagged by the task class) - gauges read
+ *     when the registry is scraped.</li>
+ * </ul>
+ * The meters are created once, so an operation costs a couple of clock reads
+ * and lock-free updates on top of the wrapped one. A long polling queue must
+ * wrap the metered one (not the other way round), so the tasks it polls for
+ * the waiters are timed as polls.
+ *
+ * @author Nikita Nikolaev
+ */
+public class MeteredQueue implements QueueEngine {
+
+    private final QueueEngine queue;
+
+    private final Timer addTimer;
+    private final Timer addBatchTimer;
+    private final Timer pollTimer;
+    private final Timer pollBatchTimer;
+    private final Timer deleteTimer;
+    private final Timer positionTimer;
+    private final Timer listTimer;
+
+    private final Map<Status, Counter> addRejections;
+    private final Map<Status, Counter> deleteRejections;
+
+    /**
+     * Constructor
+     * @param queue the engine to keep the tasks in
+     * @param registry the registry to report to
+     */
+    public MeteredQueue(QueueEngine queue, MeterRegistry registry) {
+        this.queue = queue;
+
+        addTimer = createTimer("add", registry);
+        addBatchTimer = createTimer("adds", registry);
+        pollTimer = createTimer("poll", registry);
+        pollBatchTimer = createTimer("pollBatch", registry);
+        deleteTimer = createTimer("delete", registry);
+        positionTimer = createTimer("position", registry);
+        listTimer = createTimer("list", registry);
+
+        addRejections = createRejectionCounters("add", registry);
+        deleteRejections = createRejectionCounters("delete", registry);
+
+        Gauge.builder("lorem.queue.size", queue, QueueEngine::size)
+             .description("Number of tasks in the queue")
+             .register(registry);
+        Gauge.builder("lorem.queue.capacity", queue, QueueEngine::getCapacity)
+             .description("Maximum number of tasks in the queue")
+             .register(registry);
+        for (RankedTask.TaskClass taskClass : RankedTask.TaskClass.values()) {
+            Gauge.builder("lorem.queue.depth", queue, q -> q.size(taskClass))
+                 .description("Number of tasks of the class in the queue")
+                 .tag("class", taskClass.name())
+                 .register(registry);
+        }
+    }
+
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        long startNanos = System.nanoTime();
+        Status status = queue.addNewTask(id, enqueueTime);
+        addTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (status != Status.S_OK) {
+            addRejections.get(status).increment();
+        }
+        return status;
+    }
+
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        long startNanos = System.nanoTime();
+        Status[] statuses = queue.addNewTasks(ids, enqueueTimes);
+        addBatchTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        for (Status status : statuses) {
+            if (status != Status.S_OK) {
+                addRejections.get(status).increment();
+            }
+        }
+        return statuses;
+    }
+
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        queue.restoreTasks(tasks);
+    }
+
+    @Override
+    public RankedTask poll() {
+        long startNanos = System.nanoTime();
+        RankedTask task = queue.poll();
+        pollTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return task;
+    }
+
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        long startNanos = System.nanoTime();
+        List<RankedTask> tasks = queue.pollBatch(count);
+        pollBatchTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return tasks;
+    }
+
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        long startNanos = System.nanoTime();
+        List<RankedTask> tasks = queue.getRankedTaskList(offset, limit);
+        listTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return tasks;
+    }
+
+    @Override
+    public int getTaskPosition(long id) {
+        long startNanos = System.nanoTime();
+        int position = queue.getTaskPosition(id);
+        positionTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return position;
+    }
+
+    @Override
+    public Status deleteTask(long id) {
+        long startNanos = System.nanoTime();
+        Status status = queue.deleteTask(id);
+        deleteTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (status != Status.S_OK) {
+            deleteRejections.get(status).increment();
+        }
+        return status;
+    }
+
+    @Override
+    public int getCapacity() {
+        return queue.getCapacity();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return queue.size(taskClass);
+    }
+
+    @Override
+    public Long getExpectedWaitTime() {
+        return queue.getExpectedWaitTime();
+    }
+
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return queue.getWaitTimePercentiles(taskClass, percentiles);
+    }
+
+    @Override
+    public void setJournal(TaskJournal journal) {
+        queue.setJournal(journal);
+    }
+
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        return queue.getTaskSnapshot(atMoment);
+    }
+
+    @Override
+    public RankedSnapshot getPublishedSnapshot() {
+        return queue.getPublishedSnapshot();
+    }
+
+    @Override
+    public EncodedWaitTimes getPublishedWaitTimes(Function<QueueEngine, byte[]> encoder) {
+        return queue.getPublishedWaitTimes(encoder);
+    }
+
+    @Override
+    public String getETag() {
+        return queue.getETag();
+    }
+
+    @Override
+    public PendingPoll pollWhenAvailable(Consumer<RankedTask> consumer) {
+        return queue.pollWhenAvailable(consumer);
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    private static Timer createTimer(String operation, MeterRegistry registry) {
+        return Timer.builder("lorem.queue.operation")
+                    .description("Time of the queue operations")
+                    .tag("operation", operation)
+                    .publishPercentileHistogram()
+                    .register(registry);
+    }
+
+    private static Map<Status, Counter> createRejectionCounters(String operation, MeterRegistry registry) {
+        Map<Status, Counter> counters = new EnumMap<>(Status.class);
+        for (Status status : Status.values()) {
+            if (status != Status.S_OK) {
+                counters.put(status, Counter.builder("lorem.queue.rejections")
+                                            .description("Number of the failed queue operations")
+                                            .tag("operation", operation)
+                                            .tag("status", status.name())
+                                            .register(registry));
+            }
+        }
+        return counters;
+    }
+}
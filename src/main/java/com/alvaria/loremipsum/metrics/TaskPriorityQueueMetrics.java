@@ -0,0 +1,55 @@
+package com.alvaria.loremipsum.metrics;
+
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code TaskPriorityQueueMetrics} class reports the internals of a
+ * {@link TaskPriorityQueue}:
+ * <ul>
+ *     <li>{@code lorem.queue.lock.wait} - number of times and total time the
+ *     operations waited for a ranked task tree lock held by another thread,
+ *     tagged by the tree;</li>
+ *     <li>{@code lorem.queue.tree.black.height} - black height of every ranked
+ *     task tree (the tree height is between it and twice it), tagged by the tree.</li>
+ * </ul>
+ * The queue keeps the counters itself; they are only read when the registry
+ * is scraped. The black height is read along a single path of the tree, so
+ * a scrape takes O(log n) under one tree read lock at a time.
+ *
+ * @author Nikita Nikolaev
+ */
+public class TaskPriorityQueueMetrics implements MeterBinder {
+
+    private final TaskPriorityQueue queue;
+
+    /**
+     * Constructor
+     * @param queue the queue to report
+     */
+    public TaskPriorityQueueMetrics(TaskPriorityQueue queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (RankedTask.TaskClass taskClass : RankedTask.TaskClass.values()) {
+            FunctionTimer.builder("lorem.queue.lock.wait", queue,
+                                  q -> q.getLockWaitCount(taskClass),
+                                  q -> q.getLockWaitNanos(taskClass), TimeUnit.NANOSECONDS)
+                         .description("Waits for the ranked task tree locks held by other threads")
+                         .tag("tree", taskClass.name())
+                         .register(registry);
+            Gauge.builder("lorem.queue.tree.black.height", queue, q -> q.getTreeBlackHeight(taskClass))
+                 .description("Black height of the ranked task tree")
+                 .tag("tree", taskClass.name())
+                 .register(registry);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.alvaria.loremipsum.persistence;
+
+/**
+ * Durability guarantees of the {@link WriteAheadLog}
+ *
+ * @author Nikita Nikolaev
+ */
+public enum DurabilityMode {
+    /**
+     * Every operation returns once its record has been forced to the disk. The
+     * concurrent operations share the same force (the first of them forces all
+     * the records appended so far)
+     */
+    SYNC,
+
+    /**
+     * Every operation returns once its record has been forced to the disk; the
+     * records are forced by a background thread at most once per flush interval,
+     * so the operations wait longer but the disk is forced much less often
+     */
+    BATCHED,
+
+    /**
+     * Operations do not wait: the records are forced by a background thread once
+     * per flush interval, so the operations of the last interval may be lost
+     */
+    ASYNC
+}
@@ -0,0 +1,170 @@
+package com.alvaria.loremipsum.persistence;
+
+import com.alvaria.loremipsum.queue.TaskJournal;
+import com.alvaria.loremipsum.queue.QueueEngine;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code QueuePersistence} class keeps the {@link QueueEngine} on the
+ * disk. On start it restores the queue from the latest snapshot and the
+ * write-ahead log records that follow it; then it journals every modification
+ * of the queue and takes a new snapshot periodically, so the log only holds
+ * the records since the last snapshot.
+ *
+ * The persistence is enabled by {@code lorem-ipsum.persistence.enabled=true}.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "lorem-ipsum.persistence", name = "enabled", havingValue = "true")
+public class QueuePersistence {
+
+    private final QueueEngine queue;
+    private final Path directory;
+    private final DurabilityMode durability;
+    private final long flushIntervalMillis;
+    private final long snapshotIntervalSeconds;
+
+    private WriteAheadLog writeAheadLog;
+    private ScheduledExecutorService snapshotter;
+
+    /**
+     * Constructor
+     * @param queue the queue to keep
+     * @param directory where the snapshots and the log segments are kept
+     * @param durability when the operations are acknowledged
+     * @param flushIntervalMillis how often the log is forced to the disk in the background
+     * @param snapshotIntervalSeconds how often a snapshot is taken
+     */
+    @Autowired
+    public QueuePersistence(QueueEngine queue,
+                            @Value("${lorem-ipsum.persistence.directory:data}") String directory,
+                            @Value("${lorem-ipsum.persistence.durability:BATCHED}") DurabilityMode durability,
+                            @Value("${lorem-ipsum.persistence.flush-interval-ms:5}") long flushIntervalMillis,
+                            @Value("${lorem-ipsum.persistence.snapshot-interval-s:300}") long snapshotIntervalSeconds) {
+        if (flushIntervalMillis <= 0 || snapshotIntervalSeconds <= 0) throw new IllegalArgumentException("QueuePersistence: intervals must be positive");
+
+        this.queue = queue;
+        this.directory = Path.of(directory);
+        this.durability = durability;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    /**
+     * Restore the queue and start journaling
+     * @throws IOException if the snapshots or the log cannot be read or written
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        String methodName = "start";
+        Files.createDirectories(directory);
+
+        long lastSequence = recover();
+        writeAheadLog = new WriteAheadLog(directory, lastSequence + 1, durability, flushIntervalMillis);
+        queue.setJournal(writeAheadLog);
+        log.info("{}: Journaling to {} in {} mode", methodName, directory.toAbsolutePath(), durability);
+
+        // The recovered state is snapshotted at once, so the replayed segments are not needed any longer
+        snapshot();
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "queue-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshotInBackground, snapshotIntervalSeconds,
+                                           snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Take a snapshot of the queue and delete the log segments and the
+     * snapshots it makes obsolete
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws IOException {
+        String methodName = "snapshot";
+        long[] sequence = new long[1];
+        List<RankedTask> tasks;
+        try {
+            tasks = queue.getTaskSnapshot(() -> {
+                try {
+                    sequence[0] = writeAheadLog.rollover();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        Snapshot.write(directory, sequence[0], tasks);
+        writeAheadLog.deleteSegmentsUpTo(sequence[0]);
+        Snapshot.deleteOlderThan(directory, sequence[0]);
+        log.info("{}: {} tasks saved up to record {}", methodName, tasks.size(), sequence[0]);
+    }
+
+    /**
+     * Take the final snapshot and stop journaling
+     * @throws IOException if the snapshot or the log cannot be written
+     */
+    @PreDestroy
+    public void stop() throws IOException {
+        snapshotter.shutdown();
+        try {
+            snapshot();
+        } finally {
+            queue.setJournal(TaskJournal.NONE);
+            writeAheadLog.close();
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Load the latest snapshot into the queue in bulk and replay the log on top of it
+    private long recover() throws IOException {
+        String methodName = "recover";
+        long startNanos = System.nanoTime();
+        Snapshot.Contents snapshot = Snapshot.readLatest(directory);
+        queue.restoreTasks(snapshot.tasks());
+        log.info("{}: {} tasks restored from snapshot {} in {} ms", methodName, snapshot.tasks().size(),
+                 snapshot.sequence(), (System.nanoTime() - startNanos) / 1_000_000);
+
+        long lastSequence = WriteAheadLog.replay(directory, snapshot.sequence(), (type, id, enqueueTime) -> {
+            QueueEngine.Status status = type == WriteAheadLog.ADD ? queue.addNewTask(id, enqueueTime) :
+                                         queue.deleteTask(id);
+            if (status != QueueEngine.Status.S_OK) {
+                log.warn("{}: Record of type {} for task {} cannot be replayed: {}", methodName, type, id, status);
+            }
+        });
+
+        log.info("{}: Records {}..{} replayed; queue size is {}", methodName, snapshot.sequence() + 1, lastSequence,
+                 queue.size());
+        return lastSequence;
+    }
+
+    private void snapshotInBackground() {
+        String methodName = "snapshotInBackground";
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException ex) {
+            log.error("{}: Failed to take a snapshot: {}", methodName, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.alvaria.loremipsum.persistence;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code Snapshot} class writes and reads the snapshots of the queue. A
+ * snapshot contains all the tasks of the queue at the moment when the given
+ * record of the {@link WriteAheadLog} was the last one. The tasks are stored
+ * as one sorted run per task class, from the highest class to the lowest, in
+ * the order of the class tree:
+ * <pre>
+ *     magic (4 bytes) | version (4 bytes) | sequence (8 bytes) | 4 * count (4 bytes) |
+ *     tasks * (id (8 bytes) | enqueueTime (8 bytes)) | CRC32 (4 bytes)
+ * </pre>
+ * The records have a fixed size, so the snapshot is written and read through
+ * {@link MappedByteBuffer}s without copying, and the runs are loaded back
+ * into the trees by the linear-time bulk build.
+ *
+ * A snapshot is written to a temporary file first and renamed when complete,
+ * so a crash never leaves a partial snapshot behind.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public final class Snapshot {
+
+    private static final int MAGIC = 0x4C495153; // "LIQS"
+    private static final int VERSION = 2;
+
+    // Task classes in the order of the runs
+    private static final RankedTask.TaskClass[] CLASS_ORDER = {
+            RankedTask.TaskClass.MANAGEMENT_OVERRIDE, RankedTask.TaskClass.VIP,
+            RankedTask.TaskClass.PRIORITY, RankedTask.TaskClass.NORMAL
+    };
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + CLASS_ORDER.length * Integer.BYTES;
+    private static final int RECORD_SIZE = 2 * Long.BYTES;
+    // A mapping may not exceed 2GB, so the records are mapped by windows of this number
+    private static final int WINDOW_RECORDS = 1 << 22;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Contents of a snapshot
+     * @param sequence sequence number of the last log record the snapshot includes
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group in the order of the class tree
+     */
+    public record Contents(long sequence, List<RankedTask> tasks) {}
+
+    private Snapshot() {
+    }
+
+    /**
+     * Write a snapshot of the given tasks
+     * @param directory where the snapshots are kept
+     * @param sequence sequence number of the last log record the snapshot includes
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group in the order of the class tree
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(Path directory, long sequence, List<RankedTask> tasks) throws IOException {
+        Path snapshot = snapshotPath(directory, sequence);
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + TEMPORARY_SUFFIX);
+        int[] counts = new int[CLASS_ORDER.length];
+        for (RankedTask task : tasks) {
+            counts[runOf(task.getTaskClass())]++;
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sequence);
+            for (int count : counts) {
+                header.putInt(count);
+            }
+            header.flip();
+            crc.update(header.duplicate());
+            writeFully(channel, header, 0L);
+
+            for (int start = 0; start < tasks.size(); start += WINDOW_RECORDS) {
+                int end = Math.min(start + WINDOW_RECORDS, tasks.size());
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                      HEADER_SIZE + (long) start * RECORD_SIZE,
+                                                      (long) (end - start) * RECORD_SIZE);
+                for (int i = start; i < end; i++) {
+                    RankedTask task = tasks.get(i);
+                    window.putLong(task.getId()).putLong(task.getEnqueueTime());
+                }
+                crc.update(window.rewind());
+                window.force();
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) crc.getValue());
+            writeFully(channel, trailer, HEADER_SIZE + (long) tasks.size() * RECORD_SIZE);
+            channel.force(true);
+        }
+
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the latest valid snapshot (if any)
+     * @param directory where the snapshots are kept
+     * @return contents of the snapshot (no tasks and zero sequence number if there
+     *         is no valid snapshot)
+     * @throws IOException if the snapshots cannot be listed
+     */
+    public static Contents readLatest(Path directory) throws IOException {
+        String methodName = "readLatest";
+        List<Long> sequences = listSnapshots(directory);
+        for (int i = sequences.size() - 1; i >= 0; i--) {
+            Path snapshot = snapshotPath(directory, sequences.get(i));
+            try {
+                return read(snapshot);
+            } catch (IOException ex) {
+                log.warn("{}: Snapshot {} cannot be read: {}", methodName, snapshot, ex.getMessage());
+            }
+        }
+
+        return new Contents(0L, List.of());
+    }
+
+    /**
+     * Delete the snapshots older than the given one
+     * @param directory where the snapshots are kept
+     * @param sequence sequence number of the snapshot to keep
+     * @throws IOException if a snapshot cannot be deleted
+     */
+    public static void deleteOlderThan(Path directory, long sequence) throws IOException {
+        for (long snapshotSequence : listSnapshots(directory)) {
+            if (snapshotSequence < sequence) {
+                Files.delete(snapshotPath(directory, snapshotSequence));
+            }
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    private static Contents read(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + Integer.BYTES) {
+                throw new IOException("Snapshot:read(): Snapshot is truncated");
+            }
+
+            CRC32 crc = new CRC32();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_SIZE);
+            crc.update(header.duplicate());
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Snapshot:read(): Unknown format");
+            }
+
+            long sequence = header.getLong();
+            long size = 0L;
+            int[] counts = new int[CLASS_ORDER.length];
+            for (int run = 0; run < counts.length; run++) {
+                counts[run] = header.getInt();
+                size += counts[run];
+            }
+            if (counts[0] < 0 || counts[1] < 0 || counts[2] < 0 || counts[3] < 0 || size > Integer.MAX_VALUE ||
+                fileSize != HEADER_SIZE + size * RECORD_SIZE + Integer.BYTES) {
+                throw new IOException("Snapshot:read(): Snapshot size does not match its header");
+            }
+
+            List<RankedTask> tasks = new ArrayList<>((int) size);
+            int run = 0;
+            int runEnd = counts[0];
+            for (int start = 0; start < size; start += WINDOW_RECORDS) {
+                int end = (int) Math.min(start + WINDOW_RECORDS, size);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                      HEADER_SIZE + (long) start * RECORD_SIZE,
+                                                      (long) (end - start) * RECORD_SIZE);
+                crc.update(window.duplicate());
+                for (int i = start; i < end; i++) {
+                    while (i == runEnd) {
+                        runEnd += counts[++run];
+                    }
+
+                    // The class of every task is checked against the run it is stored in
+                    RankedTask task = new RankedTask(window.getLong(), window.getLong());
+                    if (task.getTaskClass() != CLASS_ORDER[run]) {
+                        throw new IOException("Snapshot:read(): Task " + task.getId() + " is stored in a wrong run");
+                    }
+                    tasks.add(task);
+                }
+            }
+
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - Integer.BYTES, Integer.BYTES);
+            if (trailer.getInt() != (int) crc.getValue()) {
+                throw new IOException("Snapshot:read(): Checksum mismatch");
+            }
+
+            return new Contents(sequence, tasks);
+        }
+    }
+
+    private static int runOf(RankedTask.TaskClass taskClass) {
+        return CLASS_ORDER.length - 1 - taskClass.ordinal();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static Path snapshotPath(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+    }
+
+    // Get the sequence numbers of all the snapshots in ascending order
+    private static List<Long> listSnapshots(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                        .map(name -> Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())))
+                        .sorted(Comparator.naturalOrder())
+                        .toList();
+        }
+    }
+}
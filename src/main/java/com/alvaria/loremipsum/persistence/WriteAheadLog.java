@@ -0,0 +1,421 @@
+package com.alvaria.loremipsum.persistence;
+
+import com.alvaria.loremipsum.queue.TaskJournal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code WriteAheadLog} class represents an append-only log of the queue
+ * operations. Every record has a fixed size and its own checksum:
+ * <pre>
+ *     type (1 byte) | id (8 bytes) | enqueueTime (8 bytes) | CRC32 (4 bytes)
+ * </pre>
+ * The records are numbered sequentially; the log consists of segment files
+ * named after the sequence number of their first record, so the records
+ * covered by a snapshot are dropped by deleting the whole segments.
+ *
+ * The records are appended to an in-memory buffer; the buffer is written to the
+ * current segment through a {@link FileChannel} and forced to the disk by whole
+ * batches (group commit). When the operations wait for their records depends
+ * on the {@link DurabilityMode}.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class WriteAheadLog implements TaskJournal, Closeable {
+
+    // Record types
+    static final byte ADD = 1;
+    static final byte POLL = 2;
+    static final byte DELETE = 3;
+
+    static final int RECORD_SIZE = 1 + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int CHECKED_SIZE = RECORD_SIZE - Integer.BYTES;
+    private static final int INITIAL_BUFFER_SIZE = 1024 * RECORD_SIZE;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Consumer of the replayed records
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(byte type, long id, long enqueueTime);
+    }
+
+    private final Path directory;
+    private final DurabilityMode durability;
+    private final ScheduledExecutorService flusher; // null in SYNC mode
+
+    // Appending; guarded by appendLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer;
+    private long appendedSequence;
+
+    // Writing; guarded by flushLock
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ByteBuffer spareBuffer;
+    private FileChannel channel;
+    private long segmentStart;
+
+    // Waiting for the background flusher
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableCondition = durableLock.newCondition();
+
+    private volatile long durableSequence;
+    private volatile IOException failure;
+
+    /**
+     * Constructor; opens a new segment
+     * @param directory where the segments are kept
+     * @param nextSequence sequence number of the first record to append
+     * @param durability durability mode
+     * @param flushIntervalMillis how often the background thread forces the records
+     *                            (ignored in {@link DurabilityMode#SYNC} mode)
+     * @throws IOException if the segment cannot be created
+     */
+    public WriteAheadLog(Path directory, long nextSequence, DurabilityMode durability,
+                         long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        spareBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        appendedSequence = nextSequence - 1;
+        durableSequence = nextSequence - 1;
+        openSegment(nextSequence);
+
+        if (durability == DurabilityMode.SYNC) {
+            flusher = null;
+        } else {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushInBackground, flushIntervalMillis, flushIntervalMillis,
+                                           TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public long logAdd(long id, long enqueueTime) {
+        return append(ADD, id, enqueueTime);
+    }
+
+    @Override
+    public long logPoll(long id) {
+        return append(POLL, id, 0L);
+    }
+
+    @Override
+    public long logDelete(long id) {
+        return append(DELETE, id, 0L);
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (sequence <= durableSequence) {
+            return;
+        }
+
+        switch (durability) {
+            case SYNC -> {
+                try {
+                    // Whoever gets the flush lock first forces the records of all the waiting threads
+                    while (durableSequence < sequence) {
+                        flush();
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("WriteAheadLog:awaitDurable(): Failed to write the log", ex);
+                }
+            }
+            case BATCHED -> {
+                durableLock.lock();
+                try {
+                    while (durableSequence < sequence && failure == null) {
+                        durableCondition.awaitUninterruptibly();
+                    }
+                } finally {
+                    durableLock.unlock();
+                }
+
+                if (durableSequence < sequence) {
+                    throw new UncheckedIOException("WriteAheadLog:awaitDurable(): Failed to write the log", failure);
+                }
+            }
+            default -> {
+                // The record is forced in the background
+            }
+        }
+    }
+
+    /**
+     * Get the sequence number of the last record forced to the disk
+     * @return durable sequence number
+     */
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Force all the appended records and start a new segment. The caller must
+     * make sure nothing is appended meanwhile
+     * @return sequence number of the last record of the closed segment
+     * @throws IOException if the log cannot be written
+     */
+    public long rollover() throws IOException {
+        flushLock.lock();
+        try {
+            flush();
+            if (segmentStart <= durableSequence) {
+                // The current segment is not empty
+                channel.close();
+                openSegment(durableSequence + 1);
+            }
+
+            return durableSequence;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments that contain only the records up to the given sequence
+     * number (inclusive); the current segment is never deleted
+     * @param sequence sequence number of the last record that is not needed
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsUpTo(long sequence) throws IOException {
+        List<Long> starts = listSegments(directory);
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            // A segment ends right before the next one starts
+            if (starts.get(i + 1) - 1 <= sequence && starts.get(i) != segmentStart) {
+                Files.delete(segmentPath(directory, starts.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Force the appended records and close the log
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        flushLock.lock();
+        try {
+            flush();
+            channel.close();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Replay the records of all the segments in the given directory. Replaying
+     * stops at the first record that is incomplete or damaged (e.g. by a crash
+     * in the middle of writing): the rest of the segment is truncated and the
+     * following segments (if any) are renamed to "*.damaged" so that they are
+     * neither replayed nor overwritten later
+     * @param directory where the segments are kept
+     * @param afterSequence sequence number of the last record that must be skipped
+     *                      (e.g. because it is covered by a snapshot)
+     * @param consumer to pass the records to
+     * @return sequence number of the last replayed record (or {@code afterSequence}
+     *         if nothing was replayed)
+     * @throws IOException if the segments cannot be read
+     */
+    public static long replay(Path directory, long afterSequence, RecordConsumer consumer) throws IOException {
+        String methodName = "replay";
+        long lastSequence = afterSequence;
+        boolean damaged = false;
+
+        for (long segmentStart : listSegments(directory)) {
+            Path segment = segmentPath(directory, segmentStart);
+            if (!damaged && segmentStart > lastSequence + 1) {
+                log.error("{}: Records {}..{} are missing", methodName, lastSequence + 1, segmentStart - 1);
+                damaged = true;
+            }
+
+            if (damaged) {
+                log.error("{}: Segment {} cannot be replayed", methodName, segment);
+                Files.move(segment, segment.resolveSibling(segment.getFileName() + ".damaged"));
+                continue;
+            }
+
+            SegmentReplay segmentReplay = replaySegment(segment, segmentStart, lastSequence, consumer);
+            damaged = segmentReplay.damaged();
+            lastSequence = Math.max(lastSequence, segmentReplay.lastSequence());
+        }
+
+        return lastSequence;
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Sequence number of the last valid record of a segment and whether the segment was damaged
+    private record SegmentReplay(long lastSequence, boolean damaged) {}
+
+    // Replay the records of a segment that follow the given sequence number
+    private static SegmentReplay replaySegment(Path segment, long segmentStart, long afterSequence,
+                                      RecordConsumer consumer) throws IOException {
+        String methodName = "replaySegment";
+        CRC32 crc = new CRC32();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+        try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long sequence = segmentStart;
+            long position = 0L;
+            while (true) {
+                record.clear();
+                while (record.hasRemaining() && segmentChannel.read(record, position + record.position()) > 0);
+
+                if (record.position() == 0) {
+                    return new SegmentReplay(sequence - 1, false);
+                }
+
+                crc.reset();
+                crc.update(record.array(), 0, CHECKED_SIZE);
+                if (record.hasRemaining() || record.getInt(CHECKED_SIZE) != (int) crc.getValue()) {
+                    log.warn("{}: Damaged record {} found in {}; truncating", methodName, sequence, segment);
+                    segmentChannel.truncate(position);
+                    return new SegmentReplay(sequence - 1, true);
+                }
+
+                if (sequence > afterSequence) {
+                    consumer.accept(record.get(0), record.getLong(1), record.getLong(1 + Long.BYTES));
+                }
+                sequence++;
+                position += RECORD_SIZE;
+            }
+        }
+    }
+
+    private long append(byte type, long id, long enqueueTime) {
+        appendLock.lock();
+        try {
+            if (buffer.remaining() < RECORD_SIZE) {
+                ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                largerBuffer.put(buffer);
+                buffer = largerBuffer;
+            }
+
+            int start = buffer.position();
+            buffer.put(type).putLong(id).putLong(enqueueTime);
+            crc.reset();
+            crc.update(buffer.array(), start, CHECKED_SIZE);
+            buffer.putInt((int) crc.getValue());
+            return ++appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Write all the appended records to the current segment and force them to the disk
+    private void flush() throws IOException {
+        flushLock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+
+            ByteBuffer pending;
+            long sequence;
+            appendLock.lock();
+            try {
+                pending = buffer;
+                buffer = spareBuffer;
+                sequence = appendedSequence;
+            } finally {
+                appendLock.unlock();
+            }
+
+            if (sequence > durableSequence) {
+                try {
+                    pending.flip();
+                    while (pending.hasRemaining()) {
+                        channel.write(pending);
+                    }
+                    channel.force(false);
+                } catch (IOException ex) {
+                    failure = ex;
+                    signalDurable();
+                    throw ex;
+                }
+            }
+
+            pending.clear();
+            spareBuffer = pending;
+            durableSequence = sequence;
+        } finally {
+            flushLock.unlock();
+        }
+
+        signalDurable();
+    }
+
+    private void flushInBackground() {
+        String methodName = "flushInBackground";
+        try {
+            flush();
+        } catch (IOException ex) {
+            log.error("{}: Failed to write the log: {}", methodName, ex.getMessage());
+        }
+    }
+
+    private void signalDurable() {
+        durableLock.lock();
+        try {
+            durableCondition.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    private void openSegment(long start) throws IOException {
+        // A segment of the same start may only be left empty (e.g. by a crash right after a rollover)
+        channel = FileChannel.open(segmentPath(directory, start), StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        segmentStart = start;
+    }
+
+    private static Path segmentPath(Path directory, long start) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    }
+
+    // Get the first sequence numbers of all the segments in ascending order
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                 .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                 .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                 .sorted()
+                 .forEach(starts::add);
+        }
+        return starts;
+    }
+}
@@ -0,0 +1,711 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.longhashmap.LongIntHashMap;
+import com.alvaria.loremipsum.redblacktree.LongRedBlackTree;
+import com.alvaria.loremipsum.tasks.RankCrossover;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The CompactTaskPriorityQueue class represents the same priority queue as
+ * {@link TaskPriorityQueue} with the same operations, but it stores the tasks
+ * in primitive arrays instead of objects:
+ * <ul>
+ *     <li>four {@link LongRedBlackTree}s (one per task class) keyed by the
+ *     enqueue time with the task ID as the value, so the tasks of the same
+ *     enqueue time are ordered by ID; the oldest task of a class is the first
+ *     one;</li>
+ *     <li>the ID index ({@link LongIntHashMap}) that maps the IDs to the tree
+ *     nodes.</li>
+ * </ul>
+ * A queued task costs about 33 bytes in its tree and 24..48 bytes in the ID
+ * index, and there are no per-task objects at all: {@link RankedTask}s are
+ * only created for the results. So millions of queued tasks give the garbage
+ * collector a dozen of arrays to trace instead of millions of objects.
+ *
+ * The queue is guarded by a single fair {@link ReentrantReadWriteLock}: the
+ * modifications are exclusive and the reads are shared. The lock is fair, so
+ * a steady stream of the readers (e.g. the agents getting their positions)
+ * cannot starve the dispatcher. Every modification is recorded in the
+ * {@link TaskJournal} (if set) under the lock, and the operation waits for
+ * its record to become durable after the lock has been released.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class CompactTaskPriorityQueue implements QueueEngine {
+
+    private final int capacity; // Maximum supported queue size
+    private final LongIntHashMap idIndex;
+    private final LongRedBlackTree overrideTaskTree;
+    private final LongRedBlackTree vipTaskTree;
+    private final LongRedBlackTree priorityTaskTree;
+    private final LongRedBlackTree normalTaskTree;
+    private final LongRedBlackTree[] classTaskTrees; // VIP, Priority and Normal, from the highest class to the lowest
+    private final ReentrantReadWriteLock lock;
+
+    private int n; // Queue size
+    private long sumEnqueueTime; // Sum of all enqueue times, see TaskPriorityQueue
+    private final WaitTimeStatistics waitTimes = new WaitTimeStatistics();
+
+    private volatile TaskJournal journal = TaskJournal.NONE;
+
+    /**
+     * Default constructor; creates the queue of {@link TaskPriorityQueue#DEFAULT_CAPACITY}
+     */
+    public CompactTaskPriorityQueue() {
+        this(TaskPriorityQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param capacity maximum number of tasks in the queue
+     */
+    public CompactTaskPriorityQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.capacity = capacity;
+        idIndex = new LongIntHashMap();
+        overrideTaskTree = new LongRedBlackTree();
+        vipTaskTree = new LongRedBlackTree();
+        priorityTaskTree = new LongRedBlackTree();
+        normalTaskTree = new LongRedBlackTree();
+        classTaskTrees = new LongRedBlackTree[] {vipTaskTree, priorityTaskTree, normalTaskTree};
+        lock = new ReentrantReadWriteLock(true);
+
+        n = 0;
+        sumEnqueueTime = 0L;
+    }
+
+    /**
+     * Add new task to the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued (must be in past)
+     * @return Status of operation
+     */
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        String methodName = "addNewTask";
+        log.debug("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
+
+        Status status = TaskPriorityQueue.validateId(id);
+        if (status == Status.S_OK) {
+            status = TaskPriorityQueue.validateEnqueueTime(enqueueTime);
+        }
+        if (status != Status.S_OK) {
+            log.debug("{}: Task is invalid: {}", methodName, status);
+            return status;
+        }
+
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            if (n >= capacity) {
+                status = Status.E_QUEUE_FULL;
+            } else if (idIndex.get(id) != LongRedBlackTree.NIL) {
+                status = Status.E_ID_ALREADY_EXISTS;
+            } else {
+                idIndex.put(id, getTaskTree(RankedTask.classOf(id)).insert(enqueueTime, id));
+                n++;
+                sumEnqueueTime += enqueueTime;
+                waitTimes.add(id, enqueueTime, Instant.now().getEpochSecond());
+            }
+            sequence = status == Status.S_OK ? journal.logAdd(id, enqueueTime) : 0L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Add a batch of new tasks to the queue. The batch is sorted by the task
+     * class and rank once and inserted into every tree at once. The tasks are
+     * accepted in the given order until the queue is full
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        String methodName = "addNewTasks";
+        if (ids.length != enqueueTimes.length) throw new IllegalArgumentException("CompactTaskPriorityQueue:addNewTasks(): Array lengths differ");
+
+        log.debug("{}: Trying to add {} new Tasks", methodName, ids.length);
+        Status[] statuses = new Status[ids.length];
+        long currentTime = Instant.now().getEpochSecond();
+        for (int i = 0; i < ids.length; i++) {
+            statuses[i] = TaskPriorityQueue.validateId(ids[i]);
+            if (statuses[i] == Status.S_OK) {
+                statuses[i] = TaskPriorityQueue.validateEnqueueTime(enqueueTimes[i], currentTime);
+            }
+        }
+
+        long sequence = 0L;
+        int added = 0;
+        lock.writeLock().lock();
+        try {
+            // Reject the IDs that are already queued or repeated in the batch
+            LongIntHashMap batchIds = new LongIntHashMap(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK &&
+                    (idIndex.get(ids[i]) != LongRedBlackTree.NIL || batchIds.put(ids[i], i + 1) != 0)) {
+                    statuses[i] = Status.E_ID_ALREADY_EXISTS;
+                }
+            }
+
+            // Sort every class by the enqueue time and the batch index at once: the enqueue
+            // times fit into 32 bits until 2106, so both are packed into a primitive long
+            long[][] classOrders = new long[RankedTask.TaskClass.values().length][];
+            int[] classCounts = new int[classOrders.length];
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    classCounts[RankedTask.classOf(ids[i]).ordinal()]++;
+                }
+            }
+            for (int c = 0; c < classOrders.length; c++) {
+                classOrders[c] = new long[classCounts[c]];
+                classCounts[c] = 0;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    int c = RankedTask.classOf(ids[i]).ordinal();
+                    classOrders[c][classCounts[c]++] = (enqueueTimes[i] << 32) | i;
+                }
+            }
+
+            for (long[] classOrder : classOrders) {
+                Arrays.sort(classOrder);
+                sortEqualTimesById(classOrder, ids);
+            }
+
+            // Only the tasks that are going to be added take the places in the queue
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    if (n >= capacity) {
+                        statuses[i] = Status.E_QUEUE_FULL;
+                    } else {
+                        n++;
+                        sumEnqueueTime += enqueueTimes[i];
+                        added++;
+                    }
+                }
+            }
+
+            for (int c = 0; c < classOrders.length; c++) {
+                insertNewTasks(RankedTask.TaskClass.values()[c], classOrders[c], ids, enqueueTimes, statuses);
+            }
+
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    waitTimes.add(ids[i], enqueueTimes[i], currentTime);
+                    sequence = journal.logAdd(ids[i], enqueueTimes[i]);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} Tasks added", methodName, added);
+        return statuses;
+    }
+
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}. The tasks come as sorted runs, so every tree is
+     * built in linear time and nothing is sorted or ranked
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group from the youngest task to the oldest
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        String methodName = "restoreTasks";
+        log.info("{}: Restoring {} Tasks", methodName, tasks.size());
+
+        lock.writeLock().lock();
+        try {
+            if (n != 0) throw new IllegalStateException("CompactTaskPriorityQueue:restoreTasks(): Queue is not empty");
+            if (tasks.size() > capacity) throw new IllegalArgumentException("CompactTaskPriorityQueue:restoreTasks(): Queue capacity exceeded");
+
+            long[] keys = new long[tasks.size()];
+            long[] values = new long[tasks.size()];
+            long sumRestoredEnqueueTime = 0L;
+            RankedTask.TaskClass previousClass = null;
+            int runStart = 0;
+            for (int i = 0; i <= tasks.size(); i++) {
+                RankedTask.TaskClass taskClass = i < tasks.size() ? tasks.get(i).getTaskClass() : null;
+                if (i > runStart && taskClass != tasks.get(runStart).getTaskClass()) {
+                    if (previousClass != null && previousClass.compareTo(tasks.get(runStart).getTaskClass()) <= 0) {
+                        throw new IllegalArgumentException("CompactTaskPriorityQueue:restoreTasks(): Tasks are not grouped by class");
+                    }
+
+                    // The run goes from the youngest task to the oldest; the tree keys ascend
+                    int count = i - runStart;
+                    for (int j = 0; j < count; j++) {
+                        RankedTask task = tasks.get(i - 1 - j);
+                        keys[j] = task.getEnqueueTime();
+                        values[j] = task.getId();
+                        sumRestoredEnqueueTime += task.getEnqueueTime();
+                    }
+                    previousClass = tasks.get(runStart).getTaskClass();
+                    try {
+                        getTaskTree(previousClass).insertAll(keys, values, count);
+                    } catch (IllegalArgumentException ex) {
+                        clear();
+                        throw new IllegalArgumentException("CompactTaskPriorityQueue:restoreTasks(): Tasks are not sorted or not unique", ex);
+                    }
+                    runStart = i;
+                }
+            }
+
+            idIndex.ensureCapacity(tasks.size());
+            for (LongRedBlackTree tree : List.of(overrideTaskTree, vipTaskTree, priorityTaskTree, normalTaskTree)) {
+                for (int node = tree.first(); node != LongRedBlackTree.NIL; node = tree.successor(node)) {
+                    if (idIndex.put(tree.valueOf(node), node) != LongRedBlackTree.NIL) {
+                        clear();
+                        throw new IllegalArgumentException("CompactTaskPriorityQueue:restoreTasks(): Task IDs are not unique");
+                    }
+                }
+            }
+
+            n = tasks.size();
+            sumEnqueueTime = sumRestoredEnqueueTime;
+            long currentTime = Instant.now().getEpochSecond();
+            for (RankedTask task : tasks) {
+                waitTimes.add(task.getId(), task.getEnqueueTime(), currentTime);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("{}: {} Tasks restored", methodName, tasks.size());
+    }
+
+    /**
+     * Gets the highest-ranked task from the queue and deletes (dequeues) it
+     * @return The highest-ranked task
+     */
+    @Override
+    public RankedTask poll() {
+        String methodName = "poll";
+        RankedTask task = null;
+        long sequence = 0L;
+
+        log.debug("{}: Polling the ranked trees", methodName);
+        lock.writeLock().lock();
+        try {
+            LongRedBlackTree tree = getHighestRankedTree(Instant.now().getEpochSecond());
+            if (tree != null) {
+                task = pollFirst(tree);
+                sequence = journal.logPoll(task.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        return task;
+    }
+
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them. The tasks are ranked at the same moment, so
+     * the result is the same as of the given number of consecutive
+     * {@link #poll()} calls
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        String methodName = "pollBatch";
+        if (count <= 0) throw new IllegalArgumentException("CompactTaskPriorityQueue:pollBatch(): count must be positive");
+
+        List<RankedTask> tasks = new ArrayList<>(Math.min(count, size()));
+        long sequence = 0L;
+        lock.writeLock().lock();
+        try {
+            long currentTime = Instant.now().getEpochSecond();
+            LongRedBlackTree tree;
+            while (tasks.size() < count && (tree = getHighestRankedTree(currentTime)) != null) {
+                RankedTask task = pollFirst(tree);
+                sequence = journal.logPoll(task.getId());
+                tasks.add(task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} tasks polled", methodName, tasks.size());
+        return tasks;
+    }
+
+    /**
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest. The class trees are merged lazily up to the end of the page
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
+     */
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("CompactTaskPriorityQueue:getRankedTaskList(): offset and limit must not be negative");
+
+        lock.readLock().lock();
+        try {
+            List<RankedTask> resultList = new ArrayList<>(Math.min(limit, Math.max(n - offset, 0)));
+            long currentTime = Instant.now().getEpochSecond();
+
+            // Management Override tasks go first, from the oldest to the youngest
+            int node = offset < overrideTaskTree.size() ? overrideTaskTree.select(offset) : LongRedBlackTree.NIL;
+            int skipped = Math.min(offset, overrideTaskTree.size());
+            for (; node != LongRedBlackTree.NIL && resultList.size() < limit; node = overrideTaskTree.successor(node)) {
+                resultList.add(new RankedTask(overrideTaskTree.valueOf(node), overrideTaskTree.keyOf(node)));
+            }
+
+            // Then the heads of the other trees are merged by the ranks; equal ranks go to the higher class
+            int[] heads = new int[classTaskTrees.length];
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = classTaskTrees[i].first();
+            }
+
+            while (resultList.size() < limit) {
+                int highest = -1;
+                for (int i = 0; i < heads.length; i++) {
+                    if (heads[i] != LongRedBlackTree.NIL &&
+                        (highest < 0 || outranks(i, heads[i], highest, heads[highest], currentTime))) {
+                        highest = i;
+                    }
+                }
+                if (highest < 0) {
+                    break;
+                }
+
+                LongRedBlackTree tree = classTaskTrees[highest];
+                if (skipped++ >= offset) {
+                    resultList.add(new RankedTask(tree.valueOf(heads[highest]), tree.keyOf(heads[highest])));
+                }
+                heads[highest] = tree.successor(heads[highest]);
+            }
+
+            return resultList;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the Task's position in the ranked queue
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not queued)
+     */
+    @Override
+    public int getTaskPosition(long id) {
+        lock.readLock().lock();
+        try {
+            int node = idIndex.get(id);
+            if (node == LongRedBlackTree.NIL) {
+                return -1;
+            }
+
+            RankedTask.TaskClass taskClass = RankedTask.classOf(id);
+            long enqueueTime = getTaskTree(taskClass).keyOf(node);
+            if (taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+                return overrideTaskTree.rank(node);
+            }
+
+            // Every class tree keeps the tasks that outrank the given one at its head
+            long currentTime = Instant.now().getEpochSecond();
+            long age = currentTime - enqueueTime;
+            int position = overrideTaskTree.size();
+            for (int i = 0; i < classTaskTrees.length; i++) {
+                RankedTask.TaskClass otherClass = classOfTree(i);
+                position += otherClass == taskClass ?
+                        classTaskTrees[i].rank(node) :
+                        classTaskTrees[i].countHead(otherTime ->
+                                RankCrossover.outranks(otherClass, currentTime - otherTime, taskClass, age));
+            }
+
+            return position;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a task with the given ID
+     * @param id to delete
+     * @return Status of the operation: {@code Status.S_OK} if deleted;
+     *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
+     */
+    @Override
+    public Status deleteTask(long id) {
+        String methodName = "deleteTask";
+        log.debug("{}: Trying to delete task: {}", methodName, id);
+
+        long sequence = 0L;
+        Status status = Status.E_TASK_NOT_FOUND;
+        lock.writeLock().lock();
+        try {
+            int node = idIndex.remove(id);
+            if (node != LongRedBlackTree.NIL) {
+                LongRedBlackTree tree = getTaskTree(RankedTask.classOf(id));
+                n--;
+                sumEnqueueTime -= tree.keyOf(node);
+                waitTimes.remove(id, tree.keyOf(node));
+                tree.delete(node);
+                sequence = journal.logDelete(id);
+                status = Status.S_OK;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return waitTimes.size(taskClass);
+    }
+
+    /**
+     * Get the height of the highest tree of the queue
+     * @return maximum tree height
+     */
+    public int getMaxTreeHeight() {
+        lock.readLock().lock();
+        try {
+            return Math.max(Math.max(overrideTaskTree.height(), vipTaskTree.height()),
+                            Math.max(priorityTaskTree.height(), normalTaskTree.height()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the average (mean) number of seconds that each ID has been waiting in the queue
+     * @return Expected Wait Time (zero if the queue is empty)
+     */
+    @Override
+    public Long getExpectedWaitTime() {
+        int size;
+        long sum;
+        lock.readLock().lock();
+        try {
+            size = n;
+            sum = sumEnqueueTime;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return size == 0 ? 0L : Instant.now().getEpochSecond() - (sum / size);
+    }
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue, see {@link WaitTimeHistogram}
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return waitTimes.getPercentiles(taskClass, Instant.now().getEpochSecond(), percentiles);
+    }
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    @Override
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get all the tasks in the queue at a single moment, in the same order as
+     * {@link TaskPriorityQueue#getTaskSnapshot} lists them. The given action is
+     * run at that moment while no modification can proceed
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        lock.readLock().lock();
+        try {
+            atMoment.run();
+            List<RankedTask> tasks = new ArrayList<>(n);
+            for (LongRedBlackTree tree : List.of(overrideTaskTree, vipTaskTree, priorityTaskTree, normalTaskTree)) {
+                for (int node = tree.last(); node != LongRedBlackTree.NIL; node = tree.predecessor(node)) {
+                    tasks.add(new RankedTask(tree.valueOf(node), tree.keyOf(node)));
+                }
+            }
+            return tasks;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Reorder the runs of the equal enqueue times of the sorted class order by the IDs, as the tree
+    // orders them; the IDs of the order are unique
+    private static void sortEqualTimesById(long[] classOrder, long[] ids) {
+        int runStart = 0;
+        for (int i = 1; i <= classOrder.length; i++) {
+            if (i < classOrder.length && (classOrder[i] >>> 32) == (classOrder[runStart] >>> 32)) {
+                continue;
+            }
+
+            if (i - runStart > 1) {
+                long[] runIds = new long[i - runStart];
+                LongIntHashMap runIndexes = new LongIntHashMap(runIds.length);
+                for (int j = 0; j < runIds.length; j++) {
+                    int index = (int) classOrder[runStart + j];
+                    runIds[j] = ids[index];
+                    runIndexes.put(ids[index], index + 1);
+                }
+                Arrays.sort(runIds);
+                for (int j = 0; j < runIds.length; j++) {
+                    classOrder[runStart + j] = (classOrder[runStart + j] & ~0xFFFFFFFFL) | (runIndexes.get(runIds[j]) - 1);
+                }
+            }
+            runStart = i;
+        }
+    }
+
+    // Insert the accepted new tasks of a class (sorted by the enqueue time and ID) into its tree
+    // and index them. Must be called under the write lock
+    private void insertNewTasks(RankedTask.TaskClass taskClass, long[] classOrder, long[] ids, long[] enqueueTimes,
+                                Status[] statuses) {
+        long[] keys = new long[classOrder.length];
+        long[] values = new long[classOrder.length];
+        int count = 0;
+        for (long packed : classOrder) {
+            int i = (int) packed;
+            if (statuses[i] == Status.S_OK) {
+                keys[count] = enqueueTimes[i];
+                values[count++] = ids[i];
+            }
+        }
+
+        LongRedBlackTree tree = getTaskTree(taskClass);
+        if (tree.insertAll(keys, values, count)) {
+            // The tree was rebuilt, so all its nodes are indexed anew
+            for (int node = tree.first(); node != LongRedBlackTree.NIL; node = tree.successor(node)) {
+                idIndex.put(tree.valueOf(node), node);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                idIndex.put(values[i], tree.find(keys[i], values[i]));
+            }
+        }
+    }
+
+    // Get the tree whose head must be polled next: Management Override tasks go first, then the
+    // highest ranked head; equal ranks go to the higher class. Must be called under the lock
+    private LongRedBlackTree getHighestRankedTree(long currentTime) {
+        if (overrideTaskTree.size() > 0) {
+            return overrideTaskTree;
+        }
+
+        int highest = -1;
+        int highestHead = LongRedBlackTree.NIL;
+        for (int i = 0; i < classTaskTrees.length; i++) {
+            int head = classTaskTrees[i].first();
+            if (head != LongRedBlackTree.NIL && (highest < 0 || outranks(i, head, highest, highestHead, currentTime))) {
+                highest = i;
+                highestHead = head;
+            }
+        }
+
+        return highest < 0 ? null : classTaskTrees[highest];
+    }
+
+    // Delete the oldest task of the tree. Must be called under the write lock
+    private RankedTask pollFirst(LongRedBlackTree tree) {
+        int node = tree.first();
+        RankedTask task = new RankedTask(tree.valueOf(node), tree.keyOf(node));
+        tree.delete(node);
+        idIndex.remove(task.getId());
+        n--;
+        sumEnqueueTime -= task.getEnqueueTime();
+        waitTimes.remove(task.getId(), task.getEnqueueTime());
+        return task;
+    }
+
+    // Check whether the node of the i-th class tree outranks the node of the other class tree
+    private boolean outranks(int i, int node, int other, int otherNode, long currentTime) {
+        return RankCrossover.outranks(classOfTree(i), currentTime - classTaskTrees[i].keyOf(node),
+                                      classOfTree(other), currentTime - classTaskTrees[other].keyOf(otherNode));
+    }
+
+    private RankedTask.TaskClass classOfTree(int i) {
+        return switch (i) {
+            case 0 -> RankedTask.TaskClass.VIP;
+            case 1 -> RankedTask.TaskClass.PRIORITY;
+            default -> RankedTask.TaskClass.NORMAL;
+        };
+    }
+
+    private void clear() {
+        for (LongRedBlackTree tree : List.of(overrideTaskTree, vipTaskTree, priorityTaskTree, normalTaskTree)) {
+            tree.clear();
+        }
+        idIndex.clear();
+    }
+
+    private LongRedBlackTree getTaskTree(RankedTask.TaskClass taskClass) {
+        return switch (taskClass) {
+            case MANAGEMENT_OVERRIDE -> overrideTaskTree;
+            case VIP -> vipTaskTree;
+            case PRIORITY -> priorityTaskTree;
+            default -> normalTaskTree;
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package com.alvaria.loremipsum.queue;
+
+/**
+ * The {@code EncodedWaitTimes} class is the immutable encoded statistics of
+ * the wait times of a {@link QueueEngine} (e.g. the GET /ewt body) taken at a
+ * single moment, tagged by the version of the queue they were taken at. It
+ * is published by the {@link SnapshotPublishingQueue} along with the ranked
+ * list, so the statistics are encoded once per version however often they
+ * are read.
+ *
+ * @author Nikita Nikolaev
+ */
+public final class EncodedWaitTimes {
+
+    private final byte[] body;
+    private final String eTag;
+    private final long takenAtMillis;
+    final long epochSecond; // Second the wait times are of; -1 if it changed while they were taken
+    final long modifications; // Number of the queue modifications before they were taken
+
+    EncodedWaitTimes(byte[] body, String eTag, long takenAtMillis, long epochSecond, long modifications) {
+        this.body = body;
+        this.eTag = eTag;
+        this.takenAtMillis = takenAtMillis;
+        this.epochSecond = epochSecond;
+        this.modifications = modifications;
+    }
+
+    /**
+     * Get the encoded statistics; the array must not be modified
+     * @return the encoded statistics
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Get the entity tag of the version of the queue the statistics were taken at
+     * @return quoted entity tag
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Get the moment the statistics were taken at
+     * @return UTC time in milliseconds
+     */
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+}
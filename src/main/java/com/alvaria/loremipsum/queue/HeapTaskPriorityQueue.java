@@ -0,0 +1,707 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.longhashmap.LongIntHashMap;
+import com.alvaria.loremipsum.tasks.RankCrossover;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The HeapTaskPriorityQueue class represents the same priority queue as
+ * {@link TaskPriorityQueue} with the same operations, built on four 4-ary
+ * min-heaps (one per task class) ordered by the enqueue time and the ID, so
+ * the oldest task of a class is on the top of its heap.
+ *
+ * The tasks are kept in primitive arrays: every task takes a slot (its ID,
+ * enqueue time and position in the heap), the heaps hold the slot numbers and
+ * the ID index maps the IDs to the slots.
+ *
+ * A heap makes adding and polling cheap (a 4-ary heap is shallow and its
+ * children share cache lines) but is not sorted: the list of tasks sorts the
+ * heaps on every call and a task's position is counted by scanning them, so
+ * both take linear time and more.
+ *
+ * The queue is guarded by a single fair {@link ReentrantReadWriteLock}: the
+ * modifications are exclusive and the reads are shared. The lock is fair, so
+ * a steady stream of the readers (e.g. the agents getting their positions)
+ * cannot starve the dispatcher. Every modification is recorded in the
+ * {@link TaskJournal} (if set) under the lock, and the operation waits for
+ * its record to become durable after the lock has been released.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class HeapTaskPriorityQueue implements QueueEngine {
+
+    // Number of the children of a heap node
+    private static final int ARITY = 4;
+    private static final int INITIAL_SLOTS = 16;
+    // Heaps of the VIP, Priority and Normal tasks, from the highest class to the lowest
+    private static final RankedTask.TaskClass[] RANKED_CLASSES = {
+            RankedTask.TaskClass.VIP, RankedTask.TaskClass.PRIORITY, RankedTask.TaskClass.NORMAL};
+    private static final int OVERRIDE = RankedTask.TaskClass.MANAGEMENT_OVERRIDE.ordinal();
+
+    private final int capacity; // Maximum supported queue size
+    private final LongIntHashMap idIndex; // ID to the slot
+    private final ReentrantReadWriteLock lock;
+
+    // Slot 0 is never used: zero marks a missing entry of the indexes
+    private long[] slotIds;
+    private long[] slotTimes;
+    private int[] slotPositions; // Position of the slot in its heap
+    private int[] freeSlots;
+    private int freeCount;
+    private int usedSlots; // Number of the slots ever used, including slot 0
+
+    private final int[][] heaps; // Slots of every task class by the class ordinal
+    private final int[] heapSizes;
+
+    private int n; // Queue size
+    private long sumEnqueueTime; // Sum of all enqueue times, see TaskPriorityQueue
+    private final WaitTimeStatistics waitTimes = new WaitTimeStatistics();
+
+    private volatile TaskJournal journal = TaskJournal.NONE;
+
+    /**
+     * Default constructor; creates the queue of {@link TaskPriorityQueue#DEFAULT_CAPACITY}
+     */
+    public HeapTaskPriorityQueue() {
+        this(TaskPriorityQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param capacity maximum number of tasks in the queue
+     */
+    public HeapTaskPriorityQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.capacity = capacity;
+        idIndex = new LongIntHashMap();
+        lock = new ReentrantReadWriteLock(true);
+
+        slotIds = new long[INITIAL_SLOTS];
+        slotTimes = new long[INITIAL_SLOTS];
+        slotPositions = new int[INITIAL_SLOTS];
+        freeSlots = new int[INITIAL_SLOTS];
+        freeCount = 0;
+        usedSlots = 1;
+
+        heaps = new int[RankedTask.TaskClass.values().length][INITIAL_SLOTS];
+        heapSizes = new int[heaps.length];
+
+        n = 0;
+        sumEnqueueTime = 0L;
+    }
+
+    /**
+     * Add new task to the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued (must be in past)
+     * @return Status of operation
+     */
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        String methodName = "addNewTask";
+        log.debug("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
+
+        Status status = TaskPriorityQueue.validateId(id);
+        if (status == Status.S_OK) {
+            status = TaskPriorityQueue.validateEnqueueTime(enqueueTime);
+        }
+        if (status != Status.S_OK) {
+            log.debug("{}: Task is invalid: {}", methodName, status);
+            return status;
+        }
+
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            if (n >= capacity) {
+                status = Status.E_QUEUE_FULL;
+            } else if (idIndex.get(id) != 0) {
+                status = Status.E_ID_ALREADY_EXISTS;
+            } else {
+                insert(id, enqueueTime);
+            }
+            sequence = status == Status.S_OK ? journal.logAdd(id, enqueueTime) : 0L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Add a batch of new tasks to the queue. The tasks are accepted in the
+     * given order until the queue is full
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        String methodName = "addNewTasks";
+        log.debug("{}: Trying to add {} new Tasks", methodName, ids.length);
+
+        Status[] statuses;
+        long sequence = 0L;
+        int added = 0;
+        lock.writeLock().lock();
+        try {
+            statuses = TaskBatch.accept(ids, enqueueTimes, id -> idIndex.get(id) != 0, capacity - n);
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    insert(ids[i], enqueueTimes[i]);
+                    sequence = journal.logAdd(ids[i], enqueueTimes[i]);
+                    added++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} Tasks added", methodName, added);
+        return statuses;
+    }
+
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}. A run sorted from the oldest task to the
+     * youngest is a heap already, so the heaps are filled in linear time
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group from the youngest task to the oldest
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        String methodName = "restoreTasks";
+        log.info("{}: Restoring {} Tasks", methodName, tasks.size());
+
+        lock.writeLock().lock();
+        try {
+            if (n != 0) throw new IllegalStateException("HeapTaskPriorityQueue:restoreTasks(): Queue is not empty");
+            if (tasks.size() > capacity) throw new IllegalArgumentException("HeapTaskPriorityQueue:restoreTasks(): Queue capacity exceeded");
+
+            for (int i = 1; i < tasks.size(); i++) {
+                RankedTask previousTask = tasks.get(i - 1);
+                RankedTask task = tasks.get(i);
+                int comparison = previousTask.getTaskClass().compareTo(task.getTaskClass());
+                if (comparison < 0) throw new IllegalArgumentException("HeapTaskPriorityQueue:restoreTasks(): Tasks are not grouped by class");
+                if (comparison == 0 && previousTask.compareTo(task) >= 0) throw new IllegalArgumentException("HeapTaskPriorityQueue:restoreTasks(): Tasks are not sorted or not unique");
+            }
+
+            idIndex.ensureCapacity(tasks.size());
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                RankedTask task = tasks.get(i);
+                if (idIndex.get(task.getId()) != 0) {
+                    clear();
+                    throw new IllegalArgumentException("HeapTaskPriorityQueue:restoreTasks(): Task IDs are not unique");
+                }
+                insert(task.getId(), task.getEnqueueTime());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("{}: {} Tasks restored", methodName, tasks.size());
+    }
+
+    /**
+     * Gets the highest-ranked task from the queue and deletes (dequeues) it
+     * @return The highest-ranked task
+     */
+    @Override
+    public RankedTask poll() {
+        String methodName = "poll";
+        RankedTask task = null;
+        long sequence = 0L;
+
+        log.debug("{}: Polling the heaps", methodName);
+        lock.writeLock().lock();
+        try {
+            int highestClass = getHighestRankedClass(Instant.now().getEpochSecond());
+            if (highestClass >= 0) {
+                task = pollTop(highestClass);
+                sequence = journal.logPoll(task.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        return task;
+    }
+
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them. The tasks are ranked at the same moment, so
+     * the result is the same as of the given number of consecutive
+     * {@link #poll()} calls
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        String methodName = "pollBatch";
+        if (count <= 0) throw new IllegalArgumentException("HeapTaskPriorityQueue:pollBatch(): count must be positive");
+
+        List<RankedTask> tasks = new ArrayList<>(Math.min(count, size()));
+        long sequence = 0L;
+        lock.writeLock().lock();
+        try {
+            long currentTime = Instant.now().getEpochSecond();
+            int highestClass;
+            while (tasks.size() < count && (highestClass = getHighestRankedClass(currentTime)) >= 0) {
+                RankedTask task = pollTop(highestClass);
+                sequence = journal.logPoll(task.getId());
+                tasks.add(task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} tasks polled", methodName, tasks.size());
+        return tasks;
+    }
+
+    /**
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest. Every heap is sorted and the sorted classes are merged up to
+     * the end of the page
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
+     */
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("HeapTaskPriorityQueue:getRankedTaskList(): offset and limit must not be negative");
+
+        lock.readLock().lock();
+        try {
+            List<RankedTask> resultList = new ArrayList<>(Math.min(limit, Math.max(n - offset, 0)));
+            long currentTime = Instant.now().getEpochSecond();
+
+            // Management Override tasks go first, from the oldest to the youngest
+            int[] overrideSlots = sortedSlots(OVERRIDE);
+            int skipped = Math.min(offset, overrideSlots.length);
+            for (int i = skipped; i < overrideSlots.length && resultList.size() < limit; i++) {
+                resultList.add(toTask(overrideSlots[i]));
+            }
+
+            // Then the heads of the other classes are merged by the ranks; equal ranks go to the higher class
+            int[][] classSlots = new int[RANKED_CLASSES.length][];
+            int[] heads = new int[RANKED_CLASSES.length];
+            for (int c = 0; c < RANKED_CLASSES.length; c++) {
+                classSlots[c] = sortedSlots(RANKED_CLASSES[c].ordinal());
+            }
+
+            while (resultList.size() < limit) {
+                int highest = -1;
+                for (int c = 0; c < RANKED_CLASSES.length; c++) {
+                    if (heads[c] < classSlots[c].length && (highest < 0 ||
+                        outranks(RANKED_CLASSES[c], classSlots[c][heads[c]],
+                                 RANKED_CLASSES[highest], classSlots[highest][heads[highest]], currentTime))) {
+                        highest = c;
+                    }
+                }
+                if (highest < 0) {
+                    break;
+                }
+
+                int slot = classSlots[highest][heads[highest]++];
+                if (skipped++ >= offset) {
+                    resultList.add(toTask(slot));
+                }
+            }
+
+            return resultList;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the Task's position in the ranked queue
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not queued)
+     */
+    @Override
+    public int getTaskPosition(long id) {
+        lock.readLock().lock();
+        try {
+            int slot = idIndex.get(id);
+            if (slot == 0) {
+                return -1;
+            }
+
+            RankedTask.TaskClass taskClass = RankedTask.classOf(id);
+            long enqueueTime = slotTimes[slot];
+            if (taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+                return countPreceding(OVERRIDE, slot);
+            }
+
+            long currentTime = Instant.now().getEpochSecond();
+            long age = currentTime - enqueueTime;
+            int position = heapSizes[OVERRIDE];
+            for (RankedTask.TaskClass otherClass : RANKED_CLASSES) {
+                if (otherClass == taskClass) {
+                    position += countPreceding(otherClass.ordinal(), slot);
+                    continue;
+                }
+
+                int[] heap = heaps[otherClass.ordinal()];
+                for (int i = 0; i < heapSizes[otherClass.ordinal()]; i++) {
+                    if (RankCrossover.outranks(otherClass, currentTime - slotTimes[heap[i]], taskClass, age)) {
+                        position++;
+                    }
+                }
+            }
+
+            return position;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a task with the given ID
+     * @param id to delete
+     * @return Status of the operation: {@code Status.S_OK} if deleted;
+     *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
+     */
+    @Override
+    public Status deleteTask(long id) {
+        String methodName = "deleteTask";
+        log.debug("{}: Trying to delete task: {}", methodName, id);
+
+        long sequence = 0L;
+        Status status = Status.E_TASK_NOT_FOUND;
+        lock.writeLock().lock();
+        try {
+            int slot = idIndex.get(id);
+            if (slot != 0) {
+                removeAt(RankedTask.classOf(id).ordinal(), slotPositions[slot]);
+                sequence = journal.logDelete(id);
+                status = Status.S_OK;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return waitTimes.size(taskClass);
+    }
+
+    /**
+     * Get the average (mean) number of seconds that each ID has been waiting in the queue
+     * @return Expected Wait Time (zero if the queue is empty)
+     */
+    @Override
+    public Long getExpectedWaitTime() {
+        int size;
+        long sum;
+        lock.readLock().lock();
+        try {
+            size = n;
+            sum = sumEnqueueTime;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return size == 0 ? 0L : Instant.now().getEpochSecond() - (sum / size);
+    }
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue, see {@link WaitTimeHistogram}
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return waitTimes.getPercentiles(taskClass, Instant.now().getEpochSecond(), percentiles);
+    }
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    @Override
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get all the tasks in the queue at a single moment, in the same order as
+     * {@link TaskPriorityQueue#getTaskSnapshot} lists them. The given action is
+     * run at that moment while no modification can proceed
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        lock.readLock().lock();
+        try {
+            atMoment.run();
+            List<RankedTask> tasks = new ArrayList<>(n);
+            for (int c = heaps.length - 1; c >= 0; c--) {
+                int[] slots = sortedSlots(c);
+                for (int i = slots.length - 1; i >= 0; i--) {
+                    tasks.add(toTask(slots[i]));
+                }
+            }
+            return tasks;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Add the accepted task to its heap and index it. Must be called under the write lock
+    private void insert(long id, long enqueueTime) {
+        int slot = allocateSlot();
+        slotIds[slot] = id;
+        slotTimes[slot] = enqueueTime;
+
+        RankedTask.TaskClass taskClass = RankedTask.classOf(id);
+        int c = taskClass.ordinal();
+        if (heapSizes[c] == heaps[c].length) {
+            heaps[c] = Arrays.copyOf(heaps[c], heaps[c].length * 2);
+        }
+        heaps[c][heapSizes[c]] = slot;
+        siftUp(c, heapSizes[c]++);
+
+        idIndex.put(id, slot);
+        n++;
+        sumEnqueueTime += enqueueTime;
+        waitTimes.add(id, enqueueTime, Instant.now().getEpochSecond());
+    }
+
+    // Delete the task at the given position of the heap and unindex it. Must be called under the write lock
+    private void removeAt(int c, int position) {
+        int[] heap = heaps[c];
+        int slot = heap[position];
+        int last = heap[--heapSizes[c]];
+        if (position < heapSizes[c]) {
+            heap[position] = last;
+            slotPositions[last] = position;
+            siftDown(c, position);
+            siftUp(c, slotPositions[last]);
+        }
+
+        idIndex.remove(slotIds[slot]);
+        n--;
+        sumEnqueueTime -= slotTimes[slot];
+        waitTimes.remove(slotIds[slot], slotTimes[slot]);
+        freeSlots[freeCount++] = slot;
+    }
+
+    // Delete the oldest task of the class. Must be called under the write lock
+    private RankedTask pollTop(int c) {
+        RankedTask task = toTask(heaps[c][0]);
+        removeAt(c, 0);
+        return task;
+    }
+
+    // Get the class whose top must be polled next: Management Override tasks go first, then the
+    // highest ranked top; equal ranks go to the higher class. Must be called under the lock
+    private int getHighestRankedClass(long currentTime) {
+        if (heapSizes[OVERRIDE] > 0) {
+            return OVERRIDE;
+        }
+
+        RankedTask.TaskClass highestClass = null;
+        for (RankedTask.TaskClass taskClass : RANKED_CLASSES) {
+            int c = taskClass.ordinal();
+            if (heapSizes[c] > 0 &&
+                (highestClass == null || outranks(taskClass, heaps[c][0], highestClass, heaps[highestClass.ordinal()][0], currentTime))) {
+                highestClass = taskClass;
+            }
+        }
+
+        return highestClass == null ? -1 : highestClass.ordinal();
+    }
+
+    // Check whether the task of the slot outranks the task of the other slot of another class
+    private boolean outranks(RankedTask.TaskClass taskClass, int slot, RankedTask.TaskClass otherClass, int otherSlot,
+                             long currentTime) {
+        return RankCrossover.outranks(taskClass, currentTime - slotTimes[slot], otherClass, currentTime - slotTimes[otherSlot]);
+    }
+
+    private void siftUp(int c, int position) {
+        int[] heap = heaps[c];
+        int slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / ARITY;
+            if (!precedes(slot, heap[parent])) {
+                break;
+            }
+            heap[position] = heap[parent];
+            slotPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = slot;
+        slotPositions[slot] = position;
+    }
+
+    private void siftDown(int c, int position) {
+        int[] heap = heaps[c];
+        int size = heapSizes[c];
+        int slot = heap[position];
+        while (true) {
+            int firstChild = position * ARITY + 1;
+            if (firstChild >= size) {
+                break;
+            }
+
+            int oldestChild = firstChild;
+            for (int child = firstChild + 1; child < Math.min(firstChild + ARITY, size); child++) {
+                if (precedes(heap[child], heap[oldestChild])) {
+                    oldestChild = child;
+                }
+            }
+            if (!precedes(heap[oldestChild], slot)) {
+                break;
+            }
+            heap[position] = heap[oldestChild];
+            slotPositions[heap[position]] = position;
+            position = oldestChild;
+        }
+        heap[position] = slot;
+        slotPositions[slot] = position;
+    }
+
+    // Check whether the task of the slot goes before the other one in its class: the older task
+    // goes first, and the tasks of the same enqueue time are ordered by ID
+    private boolean precedes(int slot, int otherSlot) {
+        return slotTimes[slot] < slotTimes[otherSlot] ||
+               (slotTimes[slot] == slotTimes[otherSlot] && slotIds[slot] < slotIds[otherSlot]);
+    }
+
+    // Get the slots of the class sorted from the oldest task to the youngest
+    private int[] sortedSlots(int c) {
+        // The enqueue times fit into 32 bits until 2106 and the slot numbers into 31 bits
+        long[] packed = new long[heapSizes[c]];
+        for (int i = 0; i < packed.length; i++) {
+            int slot = heaps[c][i];
+            packed[i] = (slotTimes[slot] << 31) | slot;
+        }
+        Arrays.sort(packed);
+
+        int[] slots = new int[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            slots[i] = (int) (packed[i] & Integer.MAX_VALUE);
+        }
+
+        // The runs of the equal enqueue times are reordered by the IDs
+        int runStart = 0;
+        for (int i = 1; i <= slots.length; i++) {
+            if (i < slots.length && slotTimes[slots[i]] == slotTimes[slots[runStart]]) {
+                continue;
+            }
+
+            if (i - runStart > 1) {
+                long[] runIds = new long[i - runStart];
+                for (int j = 0; j < runIds.length; j++) {
+                    runIds[j] = slotIds[slots[runStart + j]];
+                }
+                Arrays.sort(runIds);
+                for (int j = 0; j < runIds.length; j++) {
+                    slots[runStart + j] = idIndex.get(runIds[j]);
+                }
+            }
+            runStart = i;
+        }
+        return slots;
+    }
+
+    // Count the tasks of the class that go before the task of the given slot
+    private int countPreceding(int c, int slot) {
+        int count = 0;
+        for (int i = 0; i < heapSizes[c]; i++) {
+            if (precedes(heaps[c][i], slot)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+
+        if (usedSlots == slotIds.length) {
+            int length = slotIds.length * 2;
+            slotIds = Arrays.copyOf(slotIds, length);
+            slotTimes = Arrays.copyOf(slotTimes, length);
+            slotPositions = Arrays.copyOf(slotPositions, length);
+            freeSlots = Arrays.copyOf(freeSlots, length);
+        }
+        return usedSlots++;
+    }
+
+    private void clear() {
+        idIndex.clear();
+        Arrays.fill(heapSizes, 0);
+        freeCount = 0;
+        usedSlots = 1;
+        n = 0;
+        sumEnqueueTime = 0L;
+        waitTimes.clear();
+    }
+
+    private RankedTask toTask(int slot) {
+        return new RankedTask(slotIds[slot], slotTimes[slot]);
+    }
+}
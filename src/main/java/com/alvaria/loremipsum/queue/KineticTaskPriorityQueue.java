@@ -0,0 +1,733 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.longhashmap.LongIntHashMap;
+import com.alvaria.loremipsum.redblacktree.LongRedBlackTree;
+import com.alvaria.loremipsum.tasks.RankCrossover;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The KineticTaskPriorityQueue class represents the same priority queue as
+ * {@link TaskPriorityQueue} with the same operations, but it keeps all the
+ * tasks in a single {@link LongRedBlackTree} used as a sequence sorted by the
+ * current ranks, instead of a tree per task class that have to be merged.
+ *
+ * The ranks drift with time, but the order of two tasks changes only when one
+ * of them overtakes the other. So the sequence is a kinetic sorted list: every
+ * pair of the adjacent tasks has a certificate, the second when the second
+ * task of the pair is due to outrank the first one, and the certificates are
+ * kept in a min-heap by the time. Before every operation the certificates
+ * that are due are processed in the order of their times: the pair is swapped
+ * in place and the certificates of the pairs around it are renewed. Only the
+ * tasks that actually overtake the others are touched, so a poll is a single
+ * deletion of the first task, the list is a single in-order walk and a
+ * position is a single order statistic.
+ *
+ * The tasks of the same class never swap, and neither do Management Override
+ * tasks. Once both tasks of a pair are older than a few seconds (the ranks of
+ * the younger VIP and Priority tasks are flat), the rank of the higher class
+ * task grows faster than the other one: a higher class task ahead stays ahead
+ * and a lower class task ahead is overtaken at most once, so its certificate
+ * is found by a binary search over the time.
+ *
+ * The queue is guarded by a single fair {@link ReentrantReadWriteLock} as
+ * {@link CompactTaskPriorityQueue} is. The reads take the write lock only to
+ * process the certificates that have become due.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class KineticTaskPriorityQueue implements QueueEngine {
+
+    // Seconds checked one by one before the ranks of a pair are known to diverge
+    private static final int SCAN_SECONDS = 8;
+    // No certificate is set further than that (about 35 thousand years)
+    private static final long HORIZON_SECONDS = 1L << 40;
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final int INITIAL_CERTIFICATES = 16;
+
+    private final int capacity; // Maximum supported queue size
+    private final LongIntHashMap idIndex; // ID to the node
+    private final LongRedBlackTree rankedTasks; // Enqueue time and ID of every task, from the highest rank to the lowest
+    private final ReentrantReadWriteLock lock;
+    private final LongSupplier clock;
+
+    // Min-heap of the certificates: the swap time and the node whose pair with the next one swaps
+    private long[] certificateTimes;
+    private int[] certificateNodes;
+    private int[] certificateVersions;
+    private int certificateCount;
+    private int[] versions; // Version of the certificate of every node; the older ones are void
+
+    private int n; // Queue size
+    private long sumEnqueueTime; // Sum of all enqueue times, see TaskPriorityQueue
+    private final WaitTimeStatistics waitTimes = new WaitTimeStatistics();
+    private long time; // The moment the order of the tasks holds for
+
+    private volatile TaskJournal journal = TaskJournal.NONE;
+
+    /**
+     * Default constructor; creates the queue of {@link TaskPriorityQueue#DEFAULT_CAPACITY}
+     */
+    public KineticTaskPriorityQueue() {
+        this(TaskPriorityQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param capacity maximum number of tasks in the queue
+     */
+    public KineticTaskPriorityQueue(int capacity) {
+        this(capacity, () -> Instant.now().getEpochSecond());
+    }
+
+    // The clock may be replaced to let the time pass in the tests
+    KineticTaskPriorityQueue(int capacity, LongSupplier clock) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.capacity = capacity;
+        this.clock = clock;
+        idIndex = new LongIntHashMap();
+        rankedTasks = new LongRedBlackTree();
+        lock = new ReentrantReadWriteLock(true);
+
+        certificateTimes = new long[INITIAL_CERTIFICATES];
+        certificateNodes = new int[INITIAL_CERTIFICATES];
+        certificateVersions = new int[INITIAL_CERTIFICATES];
+        certificateCount = 0;
+        versions = new int[INITIAL_CERTIFICATES];
+
+        n = 0;
+        sumEnqueueTime = 0L;
+        time = Long.MIN_VALUE;
+    }
+
+    /**
+     * Add new task to the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued (must be in past)
+     * @return Status of operation
+     */
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        String methodName = "addNewTask";
+        log.debug("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
+
+        Status status = TaskPriorityQueue.validateId(id);
+        if (status == Status.S_OK) {
+            status = TaskPriorityQueue.validateEnqueueTime(enqueueTime, clock.getAsLong());
+        }
+        if (status != Status.S_OK) {
+            log.debug("{}: Task is invalid: {}", methodName, status);
+            return status;
+        }
+
+        long sequence;
+        lock.writeLock().lock();
+        try {
+            if (n >= capacity) {
+                status = Status.E_QUEUE_FULL;
+            } else if (idIndex.get(id) != LongRedBlackTree.NIL) {
+                status = Status.E_ID_ALREADY_EXISTS;
+            } else {
+                insert(id, enqueueTime, advance());
+            }
+            sequence = status == Status.S_OK ? journal.logAdd(id, enqueueTime) : 0L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Add a batch of new tasks to the queue. The tasks are accepted in the
+     * given order until the queue is full
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        String methodName = "addNewTasks";
+        log.debug("{}: Trying to add {} new Tasks", methodName, ids.length);
+
+        Status[] statuses;
+        long sequence = 0L;
+        int added = 0;
+        lock.writeLock().lock();
+        try {
+            statuses = TaskBatch.accept(ids, enqueueTimes, id -> idIndex.get(id) != LongRedBlackTree.NIL, capacity - n);
+            long currentTime = advance();
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    insert(ids[i], enqueueTimes[i], currentTime);
+                    sequence = journal.logAdd(ids[i], enqueueTimes[i]);
+                    added++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} Tasks added", methodName, added);
+        return statuses;
+    }
+
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}. The tasks are sorted by the ranks once and
+     * appended to the sequence
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group from the youngest task to the oldest
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        String methodName = "restoreTasks";
+        log.info("{}: Restoring {} Tasks", methodName, tasks.size());
+
+        lock.writeLock().lock();
+        try {
+            if (n != 0) throw new IllegalStateException("KineticTaskPriorityQueue:restoreTasks(): Queue is not empty");
+            if (tasks.size() > capacity) throw new IllegalArgumentException("KineticTaskPriorityQueue:restoreTasks(): Queue capacity exceeded");
+
+            for (int i = 1; i < tasks.size(); i++) {
+                RankedTask previousTask = tasks.get(i - 1);
+                RankedTask task = tasks.get(i);
+                int comparison = previousTask.getTaskClass().compareTo(task.getTaskClass());
+                if (comparison < 0) throw new IllegalArgumentException("KineticTaskPriorityQueue:restoreTasks(): Tasks are not grouped by class");
+                if (comparison == 0 && previousTask.compareTo(task) >= 0) throw new IllegalArgumentException("KineticTaskPriorityQueue:restoreTasks(): Tasks are not sorted or not unique");
+            }
+
+            long currentTime = advance();
+            List<RankedTask> sortedTasks = new ArrayList<>(tasks);
+            sortedTasks.sort((task, otherTask) ->
+                    precedes(task.getId(), task.getEnqueueTime(), otherTask.getId(), otherTask.getEnqueueTime(), currentTime) ? -1 :
+                    precedes(otherTask.getId(), otherTask.getEnqueueTime(), task.getId(), task.getEnqueueTime(), currentTime) ? 1 : 0);
+
+            idIndex.ensureCapacity(tasks.size());
+            for (RankedTask task : sortedTasks) {
+                int node = rankedTasks.insertBefore(LongRedBlackTree.NIL, task.getEnqueueTime(), task.getId());
+                if (idIndex.put(task.getId(), node) != LongRedBlackTree.NIL) {
+                    clear();
+                    throw new IllegalArgumentException("KineticTaskPriorityQueue:restoreTasks(): Task IDs are not unique");
+                }
+                n++;
+                sumEnqueueTime += task.getEnqueueTime();
+                waitTimes.add(task.getId(), task.getEnqueueTime(), currentTime);
+            }
+
+            for (int node = rankedTasks.first(); node != LongRedBlackTree.NIL; node = rankedTasks.successor(node)) {
+                certify(node, currentTime);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("{}: {} Tasks restored", methodName, tasks.size());
+    }
+
+    /**
+     * Gets the highest-ranked task from the queue and deletes (dequeues) it
+     * @return The highest-ranked task
+     */
+    @Override
+    public RankedTask poll() {
+        String methodName = "poll";
+        RankedTask task = null;
+        long sequence = 0L;
+
+        log.debug("{}: Polling the ranked sequence", methodName);
+        lock.writeLock().lock();
+        try {
+            advance();
+            int node = rankedTasks.first();
+            if (node != LongRedBlackTree.NIL) {
+                task = remove(node);
+                sequence = journal.logPoll(task.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        return task;
+    }
+
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them. The tasks are ranked at the same moment, so
+     * the result is the same as of the given number of consecutive
+     * {@link #poll()} calls
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        String methodName = "pollBatch";
+        if (count <= 0) throw new IllegalArgumentException("KineticTaskPriorityQueue:pollBatch(): count must be positive");
+
+        List<RankedTask> polledTasks = new ArrayList<>(Math.min(count, size()));
+        long sequence = 0L;
+        lock.writeLock().lock();
+        try {
+            advance();
+            int node;
+            while (polledTasks.size() < count && (node = rankedTasks.first()) != LongRedBlackTree.NIL) {
+                RankedTask task = remove(node);
+                sequence = journal.logPoll(task.getId());
+                polledTasks.add(task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} tasks polled", methodName, polledTasks.size());
+        return polledTasks;
+    }
+
+    /**
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest, walking the sequence from the first task of the page
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
+     */
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("KineticTaskPriorityQueue:getRankedTaskList(): offset and limit must not be negative");
+
+        lockForRead();
+        try {
+            List<RankedTask> resultList = new ArrayList<>(Math.min(limit, Math.max(n - offset, 0)));
+            int node = offset < n ? rankedTasks.select(offset) : LongRedBlackTree.NIL;
+            for (; node != LongRedBlackTree.NIL && resultList.size() < limit; node = rankedTasks.successor(node)) {
+                resultList.add(new RankedTask(rankedTasks.valueOf(node), rankedTasks.keyOf(node)));
+            }
+            return resultList;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the Task's position in the ranked queue
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not queued)
+     */
+    @Override
+    public int getTaskPosition(long id) {
+        lockForRead();
+        try {
+            int node = idIndex.get(id);
+            return node == LongRedBlackTree.NIL ? -1 : rankedTasks.rank(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a task with the given ID
+     * @param id to delete
+     * @return Status of the operation: {@code Status.S_OK} if deleted;
+     *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
+     */
+    @Override
+    public Status deleteTask(long id) {
+        String methodName = "deleteTask";
+        log.debug("{}: Trying to delete task: {}", methodName, id);
+
+        long sequence = 0L;
+        Status status = Status.E_TASK_NOT_FOUND;
+        lock.writeLock().lock();
+        try {
+            // The due swaps may move the task to another node
+            advance();
+            int node = idIndex.get(id);
+            if (node != LongRedBlackTree.NIL) {
+                remove(node);
+                sequence = journal.logDelete(id);
+                status = Status.S_OK;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return waitTimes.size(taskClass);
+    }
+
+    /**
+     * Get the average (mean) number of seconds that each ID has been waiting in the queue
+     * @return Expected Wait Time (zero if the queue is empty)
+     */
+    @Override
+    public Long getExpectedWaitTime() {
+        int size;
+        long sum;
+        lock.readLock().lock();
+        try {
+            size = n;
+            sum = sumEnqueueTime;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return size == 0 ? 0L : clock.getAsLong() - (sum / size);
+    }
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue, see {@link WaitTimeHistogram}
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return waitTimes.getPercentiles(taskClass, clock.getAsLong(), percentiles);
+    }
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    @Override
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get all the tasks in the queue at a single moment, in the same order as
+     * {@link TaskPriorityQueue#getTaskSnapshot} lists them. The given action is
+     * run at that moment while no modification can proceed
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        lock.readLock().lock();
+        try {
+            atMoment.run();
+
+            // The tasks of a class keep their order in the sequence, from the oldest to the youngest
+            List<List<RankedTask>> classTasks = new ArrayList<>();
+            for (int c = 0; c < RankedTask.TaskClass.values().length; c++) {
+                classTasks.add(new ArrayList<>());
+            }
+            for (int node = rankedTasks.last(); node != LongRedBlackTree.NIL; node = rankedTasks.predecessor(node)) {
+                RankedTask task = new RankedTask(rankedTasks.valueOf(node), rankedTasks.keyOf(node));
+                classTasks.get(task.getTaskClass().ordinal()).add(task);
+            }
+
+            List<RankedTask> snapshot = new ArrayList<>(n);
+            for (int c = classTasks.size() - 1; c >= 0; c--) {
+                snapshot.addAll(classTasks.get(c));
+            }
+            return snapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Take the read lock once the certificates due by now have been processed
+    private void lockForRead() {
+        lock.readLock().lock();
+        if (certificateCount == 0 || certificateTimes[0] > clock.getAsLong()) {
+            return;
+        }
+
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            advance();
+            // Downgrade to the read lock, so no modification can come in between
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Process the certificates due by now in the order of their times. Returns the moment the
+    // order of the tasks holds for. Must be called under the write lock
+    private long advance() {
+        long currentTime = Math.max(clock.getAsLong(), time);
+        while (certificateCount > 0 && certificateTimes[0] <= currentTime) {
+            long swapTime = certificateTimes[0];
+            int node = certificateNodes[0];
+            int version = certificateVersions[0];
+            removeFirstCertificate();
+
+            if (version == versions[node]) {
+                swapWithNext(node, swapTime);
+            }
+        }
+
+        time = currentTime;
+        return currentTime;
+    }
+
+    // Swap the task of the node with the next one, which outranks it since the given time, and
+    // renew the certificates of the three pairs that have changed
+    private void swapWithNext(int node, long swapTime) {
+        int next = rankedTasks.successor(node);
+        int previous = rankedTasks.predecessor(node);
+        rankedTasks.swap(node, next);
+        idIndex.put(rankedTasks.valueOf(node), node);
+        idIndex.put(rankedTasks.valueOf(next), next);
+
+        if (previous != LongRedBlackTree.NIL) {
+            certify(previous, swapTime);
+        }
+        certify(node, swapTime);
+        certify(next, swapTime);
+    }
+
+    // Insert the accepted task at its place at the given moment and index it. Must be called
+    // under the write lock with the certificates due by that moment processed
+    private void insert(long id, long enqueueTime, long currentTime) {
+        int position = rankedTasks.countHeadNodes(other ->
+                precedes(rankedTasks.valueOf(other), rankedTasks.keyOf(other), id, enqueueTime, currentTime));
+        int node = rankedTasks.insertBefore(rankedTasks.select(position), enqueueTime, id);
+        idIndex.put(id, node);
+        n++;
+        sumEnqueueTime += enqueueTime;
+        waitTimes.add(id, enqueueTime, currentTime);
+
+        int previous = rankedTasks.predecessor(node);
+        if (previous != LongRedBlackTree.NIL) {
+            certify(previous, currentTime);
+        }
+        certify(node, currentTime);
+    }
+
+    // Delete the task of the node and join its neighbours. Must be called under the write lock
+    private RankedTask remove(int node) {
+        RankedTask task = new RankedTask(rankedTasks.valueOf(node), rankedTasks.keyOf(node));
+        int previous = rankedTasks.predecessor(node);
+        versions[node]++;
+        rankedTasks.delete(node);
+        idIndex.remove(task.getId());
+        n--;
+        sumEnqueueTime -= task.getEnqueueTime();
+        waitTimes.remove(task.getId(), task.getEnqueueTime());
+
+        if (previous != LongRedBlackTree.NIL) {
+            certify(previous, time);
+        }
+        return task;
+    }
+
+    // Void the certificate of the node and set a new one for its pair with the next node
+    private void certify(int node, long fromTime) {
+        if (node >= versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(node + 1, versions.length * 2));
+        }
+        versions[node]++;
+
+        int next = rankedTasks.successor(node);
+        if (next != LongRedBlackTree.NIL) {
+            long swapTime = getSwapTime(node, next, fromTime);
+            if (swapTime != NEVER) {
+                addCertificate(swapTime, node, versions[node]);
+            }
+        }
+    }
+
+    // Get the first second since the given one when the task of the next node outranks the task
+    // of the node ahead of it; NEVER if it never does
+    private long getSwapTime(int node, int next, long fromTime) {
+        long id = rankedTasks.valueOf(node);
+        long enqueueTime = rankedTasks.keyOf(node);
+        long nextId = rankedTasks.valueOf(next);
+        long nextEnqueueTime = rankedTasks.keyOf(next);
+        RankedTask.TaskClass taskClass = RankedTask.classOf(id);
+        RankedTask.TaskClass nextClass = RankedTask.classOf(nextId);
+        if (taskClass == nextClass ||
+            taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE || nextClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+            return NEVER;
+        }
+
+        long scanEnd = fromTime + SCAN_SECONDS;
+        for (long t = fromTime; t < scanEnd; t++) {
+            if (precedes(nextId, nextEnqueueTime, id, enqueueTime, t)) {
+                return t;
+            }
+        }
+        if (taskClass.compareTo(nextClass) > 0) {
+            return NEVER;
+        }
+
+        // The lower class task ahead is overtaken once; gallop to that second and search back
+        long low = scanEnd - 1;
+        long step = SCAN_SECONDS;
+        long high = low + step;
+        while (!precedes(nextId, nextEnqueueTime, id, enqueueTime, high)) {
+            if (high - fromTime > HORIZON_SECONDS) {
+                return NEVER;
+            }
+            low = high;
+            step *= 2;
+            high = low + step;
+        }
+        while (high - low > 1) {
+            long middle = low + (high - low) / 2;
+            if (precedes(nextId, nextEnqueueTime, id, enqueueTime, middle)) {
+                high = middle;
+            } else {
+                low = middle;
+            }
+        }
+        return high;
+    }
+
+    // Check whether the task goes before the other one at the given moment: the tasks of the same
+    // class are ordered by the enqueue time and ID, the others by the ranks
+    private static boolean precedes(long id, long enqueueTime, long otherId, long otherEnqueueTime, long currentTime) {
+        RankedTask.TaskClass taskClass = RankedTask.classOf(id);
+        RankedTask.TaskClass otherClass = RankedTask.classOf(otherId);
+        if (taskClass == otherClass) {
+            return enqueueTime < otherEnqueueTime || (enqueueTime == otherEnqueueTime && id < otherId);
+        }
+        return RankCrossover.outranks(taskClass, currentTime - enqueueTime, otherClass, currentTime - otherEnqueueTime);
+    }
+
+    private void addCertificate(long swapTime, int node, int version) {
+        if (certificateCount == certificateTimes.length) {
+            dropVoidCertificates();
+            if (certificateCount > certificateTimes.length / 2) {
+                int newLength = certificateTimes.length * 2;
+                certificateTimes = Arrays.copyOf(certificateTimes, newLength);
+                certificateNodes = Arrays.copyOf(certificateNodes, newLength);
+                certificateVersions = Arrays.copyOf(certificateVersions, newLength);
+            }
+        }
+
+        int i = certificateCount++;
+        setCertificate(i, swapTime, node, version);
+        siftUp(i);
+    }
+
+    private void removeFirstCertificate() {
+        int last = --certificateCount;
+        if (last > 0) {
+            setCertificate(0, certificateTimes[last], certificateNodes[last], certificateVersions[last]);
+            siftDown(0);
+        }
+    }
+
+    // Drop the certificates voided by the later ones and rebuild the heap
+    private void dropVoidCertificates() {
+        int count = 0;
+        for (int i = 0; i < certificateCount; i++) {
+            if (certificateVersions[i] == versions[certificateNodes[i]]) {
+                setCertificate(count++, certificateTimes[i], certificateNodes[i], certificateVersions[i]);
+            }
+        }
+
+        certificateCount = count;
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftUp(int i) {
+        long swapTime = certificateTimes[i];
+        int node = certificateNodes[i];
+        int version = certificateVersions[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (certificateTimes[parent] <= swapTime) {
+                break;
+            }
+            setCertificate(i, certificateTimes[parent], certificateNodes[parent], certificateVersions[parent]);
+            i = parent;
+        }
+        setCertificate(i, swapTime, node, version);
+    }
+
+    private void siftDown(int i) {
+        long swapTime = certificateTimes[i];
+        int node = certificateNodes[i];
+        int version = certificateVersions[i];
+        while (2 * i + 1 < certificateCount) {
+            int child = 2 * i + 1;
+            if (child + 1 < certificateCount && certificateTimes[child + 1] < certificateTimes[child]) {
+                child++;
+            }
+            if (certificateTimes[child] >= swapTime) {
+                break;
+            }
+            setCertificate(i, certificateTimes[child], certificateNodes[child], certificateVersions[child]);
+            i = child;
+        }
+        setCertificate(i, swapTime, node, version);
+    }
+
+    private void setCertificate(int i, long swapTime, int node, int version) {
+        certificateTimes[i] = swapTime;
+        certificateNodes[i] = node;
+        certificateVersions[i] = version;
+    }
+
+    private void clear() {
+        rankedTasks.clear();
+        idIndex.clear();
+        certificateCount = 0;
+        n = 0;
+        sumEnqueueTime = 0L;
+        waitTimes.clear();
+    }
+}
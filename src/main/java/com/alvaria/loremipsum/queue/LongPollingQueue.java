@@ -0,0 +1,187 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The {@code LongPollingQueue} class wraps a {@link QueueEngine} and lets the
+ * polls wait for the tasks without blocking any thread: a {@link PendingPoll}
+ * is registered, and the thread that adds a task polls it for the waiter that
+ * came first. So the waiters are served in the FIFO order, and every added
+ * task wakes a single waiter only. The polls that do not wait are served at
+ * once, as well as all the other operations.
+ *
+ * The waiters are served by a single thread at a time: a thread that finds
+ * another one serving them leaves a note to serve them once more and goes on,
+ * so the adding threads never wait for each other here.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class LongPollingQueue implements QueueEngine {
+
+    private final QueueEngine queue;
+
+    final Queue<PendingPoll> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger dispatchRequests = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param queue the engine to keep the tasks in
+     */
+    public LongPollingQueue(QueueEngine queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Poll the highest-ranked task as soon as one is available and all the
+     * earlier waiters have got theirs
+     * @param consumer receives the polled task; it is called at most once, either
+     *                 by the calling thread or by the thread that added the task
+     * @return the pending poll to cancel if no task is needed any longer; it is removed from the waiters then
+     */
+    @Override
+    public PendingPoll pollWhenAvailable(Consumer<RankedTask> consumer) {
+        // A cancelled waiter leaves the queue at once, so the waiters that time out do not pile up
+        PendingPoll pendingPoll = new PendingPoll(consumer, waiters::remove);
+        waiters.add(pendingPoll);
+        // The task may be in the queue already
+        dispatch();
+        return pendingPoll;
+    }
+
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        Status status = queue.addNewTask(id, enqueueTime);
+        if (status == Status.S_OK) {
+            dispatch();
+        }
+        return status;
+    }
+
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        Status[] statuses = queue.addNewTasks(ids, enqueueTimes);
+        dispatch();
+        return statuses;
+    }
+
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        queue.restoreTasks(tasks);
+        dispatch();
+    }
+
+    @Override
+    public RankedTask poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        return queue.pollBatch(count);
+    }
+
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        return queue.getRankedTaskList(offset, limit);
+    }
+
+    @Override
+    public int getTaskPosition(long id) {
+        return queue.getTaskPosition(id);
+    }
+
+    @Override
+    public Status deleteTask(long id) {
+        return queue.deleteTask(id);
+    }
+
+    @Override
+    public int getCapacity() {
+        return queue.getCapacity();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return queue.size(taskClass);
+    }
+
+    @Override
+    public Long getExpectedWaitTime() {
+        return queue.getExpectedWaitTime();
+    }
+
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return queue.getWaitTimePercentiles(taskClass, percentiles);
+    }
+
+    @Override
+    public void setJournal(TaskJournal journal) {
+        queue.setJournal(journal);
+    }
+
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        return queue.getTaskSnapshot(atMoment);
+    }
+
+    @Override
+    public RankedSnapshot getPublishedSnapshot() {
+        return queue.getPublishedSnapshot();
+    }
+
+    @Override
+    public EncodedWaitTimes getPublishedWaitTimes(Function<QueueEngine, byte[]> encoder) {
+        return queue.getPublishedWaitTimes(encoder);
+    }
+
+    @Override
+    public String getETag() {
+        return queue.getETag();
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Hand the available tasks to the waiters from the first one until the queue is empty. A task added
+    // after the check for the waiters is seen by the poll of a waiter registered after it
+    private void dispatch() {
+        String methodName = "dispatch";
+        if (waiters.isEmpty() || dispatchRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int requests = 1;
+        do {
+            PendingPoll pendingPoll;
+            while ((pendingPoll = waiters.peek()) != null) {
+                boolean ended;
+                try {
+                    ended = pendingPoll.complete(queue);
+                } catch (RuntimeException ex) {
+                    // The waiter is dropped; it ends when it is cancelled
+                    log.error("{}: Failed to complete the pending poll", methodName, ex);
+                    ended = true;
+                }
+                if (!ended) {
+                    break;
+                }
+                waiters.remove(pendingPoll);
+            }
+            requests = dispatchRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+}
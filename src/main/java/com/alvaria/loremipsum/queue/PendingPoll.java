@@ -0,0 +1,95 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The {@code PendingPoll} class is a poll waiting for a task in a
+ * {@link LongPollingQueue}. It ends exactly once: either a task is polled for
+ * it and handed to its consumer, or it is cancelled (e.g. when the request
+ * times out) and leaves the waiters. The task is polled under the lock of
+ * the pending poll, so a poll cancelled concurrently never takes a task out
+ * of the queue. The task is handed to the consumer after the lock is
+ * released, and a failed cancellation returns once the consumer has it. A
+ * consumer that finds its request ended by another path must put the task back.
+ *
+ * @author Nikita Nikolaev
+ */
+public final class PendingPoll {
+
+    private enum State {WAITING, POLLED, HANDED_OVER, CANCELLED}
+
+    private final Consumer<RankedTask> consumer;
+    private final Consumer<PendingPoll> onCancel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition handedOver = lock.newCondition();
+    private State state = State.WAITING; // Guarded by the lock
+
+    PendingPoll(Consumer<RankedTask> consumer, Consumer<PendingPoll> onCancel) {
+        this.consumer = consumer;
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Cancel the poll unless a task has been polled for it already
+     * @return {@code true} if cancelled; {@code false} if the task has been handed to the consumer
+     *         or the poll was cancelled before
+     */
+    public boolean cancel() {
+        lock.lock();
+        try {
+            if (state == State.WAITING) {
+                state = State.CANCELLED;
+            } else {
+                // The task may be on its way to the consumer; it must be there once the caller goes on
+                while (state == State.POLLED) {
+                    handedOver.awaitUninterruptibly();
+                }
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        onCancel.accept(this);
+        return true;
+    }
+
+    /**
+     * Poll a task from the queue and hand it to the consumer
+     * @param queue the queue to poll
+     * @return {@code true} if the poll has ended (with a task or cancelled before);
+     *         {@code false} if the queue is empty and the poll is still waiting
+     */
+    boolean complete(QueueEngine queue) {
+        RankedTask task;
+        lock.lock();
+        try {
+            if (state != State.WAITING) {
+                return true;
+            }
+            task = queue.poll();
+            if (task == null) {
+                return false;
+            }
+            state = State.POLLED;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            consumer.accept(task);
+        } finally {
+            lock.lock();
+            try {
+                state = State.HANDED_OVER;
+                handedOver.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,203 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The QueueEngine interface represents the priority queue of the service:
+ * the tasks are added by their IDs and enqueue times and are dequeued from
+ * the highest rank to the lowest. The implementations differ in the data
+ * structures they keep the tasks in (see {@link QueueEngineType}), so they
+ * may be benchmarked against each other, while the results of all the
+ * operations are the same.
+ *
+ * All the implementations are thread-safe. Every modification is recorded in
+ * the {@link TaskJournal} (if set) and the operation returns only after its
+ * record has become durable.
+ *
+ * @author Nikita Nikolaev
+ */
+public interface QueueEngine {
+
+    /**
+     * Possible operation statuses
+     */
+    enum Status {
+        S_OK,
+        E_NEGATIVE_ID,
+        E_INVALID_ENQUEUE_TIME,
+        E_ID_ALREADY_EXISTS,
+        E_RANKED_TASK_ALREADY_EXISTS, // Not returned anymore: the tasks of the same class and enqueue time are ordered by ID
+        E_TASK_NOT_FOUND,
+        E_QUEUE_FULL
+    }
+
+    /**
+     * Add new task to the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued (must be in past)
+     * @return Status of operation
+     */
+    Status addNewTask(long id, long enqueueTime);
+
+    /**
+     * Add a batch of new tasks to the queue. The tasks are accepted in the
+     * given order until the queue is full
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    Status[] addNewTasks(long[] ids, long[] enqueueTimes);
+
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group from the youngest task to the oldest
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    void restoreTasks(List<RankedTask> tasks);
+
+    /**
+     * Gets the highest-ranked task from the queue and deletes (dequeues) it
+     * @return The highest-ranked task ({@code null} if the queue is empty)
+     */
+    RankedTask poll();
+
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them, as the same number of consecutive
+     * {@link #poll()} calls would do
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    List<RankedTask> pollBatch(int count);
+
+    /**
+     * Get the list of all tasks in the queue sorted from the highest rank to lowest
+     * @return Sorted list of tasks
+     */
+    default List<RankedTask> getRankedTaskList() {
+        return getRankedTaskList(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
+     */
+    List<RankedTask> getRankedTaskList(int offset, int limit);
+
+    /**
+     * Get the Task's position in the ranked queue
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not queued)
+     */
+    int getTaskPosition(long id);
+
+    /**
+     * Delete a task with the given ID
+     * @param id to delete
+     * @return Status of the operation: {@code Status.S_OK} if deleted;
+     *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
+     */
+    Status deleteTask(long id);
+
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    int getCapacity();
+
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    int size();
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    int size(RankedTask.TaskClass taskClass);
+
+    /**
+     * Get the average (mean) number of seconds that each ID has been waiting in the queue
+     * @return Expected Wait Time (zero if the queue is empty)
+     */
+    Long getExpectedWaitTime();
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue, see {@link WaitTimeHistogram}
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles);
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    void setJournal(TaskJournal journal);
+
+    /**
+     * Get all the tasks in the queue at a single moment: grouped by class from
+     * the highest to the lowest, each group from the youngest task to the
+     * oldest. The given action is run at that moment while no modification
+     * can proceed
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    List<RankedTask> getTaskSnapshot(Runnable atMoment);
+
+    /**
+     * Get the published snapshot of the ranked list to serve the list and the
+     * positions from without locking the queue (see {@link SnapshotPublishingQueue})
+     * @return the snapshot; {@code null} if none is published and the queue must be read directly
+     */
+    default RankedSnapshot getPublishedSnapshot() {
+        return null;
+    }
+
+    /**
+     * Get the published encoded wait time statistics to serve without encoding
+     * them on every read (see {@link SnapshotPublishingQueue})
+     * @param encoder the encoder of the statistics of the queue, e.g. to JSON
+     * @return the encoded statistics; {@code null} if none are published and they must be encoded directly
+     */
+    default EncodedWaitTimes getPublishedWaitTimes(Function<QueueEngine, byte[]> encoder) {
+        return null;
+    }
+
+    /**
+     * Get the entity tag of the current version of the queue, taken before
+     * the queue is read directly (see {@link SnapshotPublishingQueue})
+     * @return quoted entity tag; {@code null} if the queue is not versioned
+     */
+    default String getETag() {
+        return null;
+    }
+
+    /**
+     * Poll the highest-ranked task as soon as one is available, without
+     * blocking the calling thread (see {@link LongPollingQueue})
+     * @param consumer receives the polled task; it is called at most once, either
+     *                 by the calling thread or by the thread that added the task
+     * @return the pending poll to cancel; {@code null} if the queue cannot wait and must be polled directly
+     */
+    default PendingPoll pollWhenAvailable(Consumer<RankedTask> consumer) {
+        return null;
+    }
+}
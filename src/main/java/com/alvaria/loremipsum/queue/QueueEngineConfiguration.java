@@ -0,0 +1,50 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.metrics.MeteredQueue;
+import com.alvaria.loremipsum.metrics.TaskPriorityQueueMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The {@code QueueEngineConfiguration} class creates the queue of the service
+ * with the engine and the capacity given by the {@code lorem-ipsum.queue.*}
+ * properties. The queue reports its operations to the meter registry.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+@Configuration
+public class QueueEngineConfiguration {
+
+    /**
+     * Create the queue
+     * @param engine the engine to keep the tasks in
+     * @param capacity maximum number of tasks in the queue
+     * @param snapshotStalenessMillis maximum age of the published ranked list the list and
+     *                                the positions are served from; 0 to read the queue directly
+     *                                (the reads are still tagged by the version of the queue)
+     * @param registry the registry to report the metrics of the queue to
+     * @return the queue of the service
+     */
+    @Bean
+    public QueueEngine queueEngine(@Value("${lorem-ipsum.queue.engine:TREE}") QueueEngineType engine,
+                                   @Value("${lorem-ipsum.queue.capacity:" + TaskPriorityQueue.DEFAULT_CAPACITY + "}") int capacity,
+                                   @Value("${lorem-ipsum.queue.snapshot-staleness-ms:0}") long snapshotStalenessMillis,
+                                   MeterRegistry registry) {
+        String methodName = "queueEngine";
+        log.info("{}: Creating the {} queue of capacity {}", methodName, engine, capacity);
+        QueueEngine queue = engine.create(capacity);
+        if (queue instanceof TaskPriorityQueue taskPriorityQueue) {
+            new TaskPriorityQueueMetrics(taskPriorityQueue).bindTo(registry);
+        }
+        log.info("{}: Publishing the ranked list at most {} ms stale", methodName, snapshotStalenessMillis);
+        queue = new SnapshotPublishingQueue(queue, snapshotStalenessMillis);
+        // The metered queue is wrapped by the long polling one, so the polls of the waiters are timed as well
+        queue = new MeteredQueue(queue, registry);
+        // The idle dispatchers wait for the tasks instead of polling the queue over and over
+        return new LongPollingQueue(queue);
+    }
+}
@@ -0,0 +1,53 @@
+package com.alvaria.loremipsum.queue;
+
+import java.util.function.IntFunction;
+
+/**
+ * Available implementations of the {@link QueueEngine}. The engine of the
+ * service is selected by the {@code lorem-ipsum.queue.engine} property.
+ *
+ * @author Nikita Nikolaev
+ */
+public enum QueueEngineType {
+    /**
+     * {@link TaskPriorityQueue}: Red-Black trees of task objects with the
+     * striped ID index and a lock per tree; the default engine
+     */
+    TREE(TaskPriorityQueue::new),
+    /**
+     * {@link CompactTaskPriorityQueue}: Red-Black trees in primitive arrays
+     * under a single lock; the smallest footprint
+     */
+    COMPACT(CompactTaskPriorityQueue::new),
+    /**
+     * {@link SkipListTaskPriorityQueue}: a {@link java.util.concurrent.ConcurrentSkipListSet}
+     * per task class without locks; the list and the positions are weakly consistent
+     */
+    SKIP_LIST(SkipListTaskPriorityQueue::new),
+    /**
+     * {@link HeapTaskPriorityQueue}: a 4-ary heap per task class; the cheapest
+     * add and poll, but the list and the positions take linear time
+     */
+    HEAP(HeapTaskPriorityQueue::new),
+    /**
+     * {@link KineticTaskPriorityQueue}: a single sequence of all the tasks
+     * sorted by the ranks, kept sorted by swapping the tasks that overtake
+     * their neighbours; no merge of the classes
+     */
+    KINETIC(KineticTaskPriorityQueue::new);
+
+    private final IntFunction<QueueEngine> factory;
+
+    QueueEngineType(IntFunction<QueueEngine> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Create an empty queue of the type
+     * @param capacity maximum number of tasks in the queue
+     * @return new queue
+     */
+    public QueueEngine create(int capacity) {
+        return factory.apply(capacity);
+    }
+}
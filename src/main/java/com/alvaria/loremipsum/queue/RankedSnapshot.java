@@ -0,0 +1,105 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.longhashmap.LongIntHashMap;
+import com.alvaria.loremipsum.tasks.RankedTask;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The {@code RankedSnapshot} class is an immutable list of the tasks sorted
+ * from the highest rank to the lowest, taken from a {@link QueueEngine} at a
+ * single moment. The positions are indexed along with the list, so once the
+ * snapshot is published any number of threads read it without locking.
+ * The encoded list may be kept along with it, so the snapshot is serialized
+ * only once however many times it is listed.
+ *
+ * @author Nikita Nikolaev
+ */
+public final class RankedSnapshot {
+
+    private final List<RankedTask> tasks;
+    private final LongIntHashMap positions; // Position + 1, since zero marks a missing ID
+    private final long takenAtMillis;
+    private final long version; // Number of the snapshots published before this one
+    final long epochSecond; // Second the ranks are of; -1 if it changed while the list was taken
+    final long modifications; // Number of the queue modifications before the list was taken
+
+    private volatile byte[] encodedTasks;
+
+    RankedSnapshot(List<RankedTask> tasks, long takenAtMillis, long version, long epochSecond, long modifications) {
+        this.tasks = Collections.unmodifiableList(tasks);
+        this.takenAtMillis = takenAtMillis;
+        this.version = version;
+        this.epochSecond = epochSecond;
+        this.modifications = modifications;
+
+        positions = new LongIntHashMap(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            positions.put(tasks.get(i).getId(), i + 1);
+        }
+    }
+
+    /**
+     * Get a page of the list of tasks sorted from the highest rank to lowest
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the snapshot size)
+     */
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("RankedSnapshot:getRankedTaskList(): offset and limit must not be negative");
+
+        int fromIndex = Math.min(offset, tasks.size());
+        return tasks.subList(fromIndex, fromIndex + Math.min(limit, tasks.size() - fromIndex));
+    }
+
+    /**
+     * Get the Task's position in the snapshot
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not in the snapshot)
+     */
+    public int getTaskPosition(long id) {
+        return positions.get(id) - 1;
+    }
+
+    /**
+     * Get the number of tasks in the snapshot
+     * @return snapshot size
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Get the whole list encoded by the given encoder. It is encoded on the first
+     * call only; the concurrent first calls may encode it more than once
+     * @param encoder the encoder of the list, e.g. to JSON
+     * @return the encoded list
+     */
+    public byte[] getEncodedTasks(Function<List<RankedTask>, byte[]> encoder) {
+        byte[] encoded = encodedTasks;
+        if (encoded == null) {
+            encoded = encoder.apply(tasks);
+            encodedTasks = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Get the entity tag of the snapshot: it differs from the tags of all the
+     * other snapshots taken since the start of the service
+     * @return quoted entity tag
+     */
+    public String getETag() {
+        return "\"" + Long.toHexString(takenAtMillis) + "-" + version + "\"";
+    }
+
+    /**
+     * Get the moment the snapshot was taken at
+     * @return UTC time in milliseconds
+     */
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+}
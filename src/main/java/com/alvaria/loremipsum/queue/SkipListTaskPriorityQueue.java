@@ -0,0 +1,664 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankCrossover;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The SkipListTaskPriorityQueue class represents the same priority queue as
+ * {@link TaskPriorityQueue} with the same operations, built on the standard
+ * {@link ConcurrentSkipListSet}s (one per task class) of the task nodes
+ * ordered by the enqueue time and the ID, so the oldest task of a class is the
+ * first entry. The ID index is a {@link ConcurrentHashMap} from the IDs to the
+ * same nodes.
+ *
+ * The queue takes no lock: every task node has a state that is changed by
+ * compare-and-set. A new node is linked into the index and its class set as
+ * pending and becomes queued once it has been journaled; a poll or a deletion
+ * claims a queued node, journals it and only then unlinks it. So the heads of
+ * the sets are peeked without blocking, the adders never wait for each other,
+ * and no two pollers can claim the same task. The operations that read many
+ * tasks (the list, a position, the size and the EWT) are weakly consistent:
+ * they see the tasks that are queued while they pass them.
+ *
+ * A skip list keeps no subtree sizes, so a task's position is counted by
+ * walking the heads of the class sets up to the task, i.e. in the time linear
+ * of the position.
+ *
+ * While the {@link TaskJournal} is set, every modification holds the read
+ * lock of a fair {@link ReentrantReadWriteLock} from the claim to the journal
+ * record, and a snapshot takes the write lock, so it sees no half-done
+ * modification. The lock is shared, so the modifications still run in
+ * parallel; the operation waits for its record to become durable after the
+ * lock has been released.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class SkipListTaskPriorityQueue implements QueueEngine {
+
+    private final int capacity; // Maximum supported queue size
+    private final ConcurrentHashMap<Long, TaskNode> idIndex;
+    private final ConcurrentSkipListSet<TaskNode> overrideTasks;
+    private final ConcurrentSkipListSet<TaskNode> vipTasks;
+    private final ConcurrentSkipListSet<TaskNode> priorityTasks;
+    private final ConcurrentSkipListSet<TaskNode> normalTasks;
+    private final List<ConcurrentSkipListSet<TaskNode>> classTasks; // VIP, Priority and Normal
+    private final ReentrantReadWriteLock snapshotLock;
+
+    private final AtomicInteger n; // Queue size, including the tasks being added
+    private final AtomicInteger overrideCount; // Number of the Management Override tasks; the size of a skip list is not kept
+    private final LongAdder sumEnqueueTime; // Sum of all enqueue times, see TaskPriorityQueue
+    private final WaitTimeStatistics waitTimes = new WaitTimeStatistics();
+
+    private volatile TaskJournal journal = TaskJournal.NONE;
+
+    /**
+     * A task in the index and in its class set
+     */
+    private static final class TaskNode {
+        static final int PENDING = 0; // Linked, but not journaled yet; invisible to the other operations
+        static final int QUEUED = 1;
+        static final int CLAIMED = 2; // Polled or deleted, but not unlinked yet
+
+        private static final AtomicIntegerFieldUpdater<TaskNode> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(TaskNode.class, "state");
+
+        // The older task goes first; the tasks of the same enqueue time are ordered by ID
+        static final Comparator<TaskNode> ORDER =
+                Comparator.<TaskNode>comparingLong(node -> node.enqueueTime).thenComparingLong(node -> node.id);
+
+        final long id;
+        final long enqueueTime;
+        final RankedTask.TaskClass taskClass;
+        volatile int state;
+
+        TaskNode(long id, long enqueueTime, int state) {
+            this.id = id;
+            this.enqueueTime = enqueueTime;
+            this.taskClass = RankedTask.classOf(id);
+            this.state = state;
+        }
+
+        boolean isQueued() {
+            return state == QUEUED;
+        }
+
+        // Only one of the concurrent pollers and deleters succeeds
+        boolean claim() {
+            return STATE.compareAndSet(this, QUEUED, CLAIMED);
+        }
+
+        // Compare the ranks of the nodes of different classes, see RankCrossover
+        boolean outranks(TaskNode other, long currentTime) {
+            return RankCrossover.outranks(taskClass, currentTime - enqueueTime, other.taskClass, currentTime - other.enqueueTime);
+        }
+
+        RankedTask toRankedTask() {
+            return new RankedTask(id, enqueueTime);
+        }
+    }
+
+    /**
+     * Default constructor; creates the queue of {@link TaskPriorityQueue#DEFAULT_CAPACITY}
+     */
+    public SkipListTaskPriorityQueue() {
+        this(TaskPriorityQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param capacity maximum number of tasks in the queue
+     */
+    public SkipListTaskPriorityQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.capacity = capacity;
+        idIndex = new ConcurrentHashMap<>();
+        overrideTasks = new ConcurrentSkipListSet<>(TaskNode.ORDER);
+        vipTasks = new ConcurrentSkipListSet<>(TaskNode.ORDER);
+        priorityTasks = new ConcurrentSkipListSet<>(TaskNode.ORDER);
+        normalTasks = new ConcurrentSkipListSet<>(TaskNode.ORDER);
+        classTasks = List.of(vipTasks, priorityTasks, normalTasks);
+        snapshotLock = new ReentrantReadWriteLock(true);
+
+        n = new AtomicInteger();
+        overrideCount = new AtomicInteger();
+        sumEnqueueTime = new LongAdder();
+    }
+
+    /**
+     * Add new task to the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued (must be in past)
+     * @return Status of operation
+     */
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        String methodName = "addNewTask";
+        log.debug("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
+
+        Status status = TaskPriorityQueue.validateId(id);
+        if (status == Status.S_OK) {
+            status = TaskPriorityQueue.validateEnqueueTime(enqueueTime);
+        }
+        if (status != Status.S_OK) {
+            log.debug("{}: Task is invalid: {}", methodName, status);
+            return status;
+        }
+
+        long sequence = 0L;
+        boolean journaled = lockJournal();
+        try {
+            TaskNode node = new TaskNode(id, enqueueTime, TaskNode.PENDING);
+            status = link(node);
+            if (status == Status.S_OK) {
+                sequence = journal.logAdd(id, enqueueTime);
+                publish(node);
+            }
+        } finally {
+            unlockJournal(journaled);
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Add a batch of new tasks to the queue. The tasks are accepted in the
+     * given order until the queue is full. The batch is checked against the
+     * queue as a whole first, then every accepted task is added on its own,
+     * so it may still be rejected if a concurrent operation has taken its ID
+     * or the last free place
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        String methodName = "addNewTasks";
+        log.debug("{}: Trying to add {} new Tasks", methodName, ids.length);
+
+        Status[] statuses = TaskBatch.accept(ids, enqueueTimes, idIndex::containsKey, capacity - n.get());
+
+        long sequence = 0L;
+        int added = 0;
+        boolean journaled = lockJournal();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    TaskNode node = new TaskNode(ids[i], enqueueTimes[i], TaskNode.PENDING);
+                    statuses[i] = link(node);
+                    if (statuses[i] == Status.S_OK) {
+                        sequence = journal.logAdd(ids[i], enqueueTimes[i]);
+                        publish(node);
+                        added++;
+                    }
+                }
+            }
+        } finally {
+            unlockJournal(journaled);
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} Tasks added", methodName, added);
+        return statuses;
+    }
+
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}. Must not run concurrently with the other
+     * modifications
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group from the youngest task to the oldest
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        String methodName = "restoreTasks";
+        log.info("{}: Restoring {} Tasks", methodName, tasks.size());
+
+        snapshotLock.writeLock().lock();
+        try {
+            if (n.get() != 0) throw new IllegalStateException("SkipListTaskPriorityQueue:restoreTasks(): Queue is not empty");
+            if (tasks.size() > capacity) throw new IllegalArgumentException("SkipListTaskPriorityQueue:restoreTasks(): Queue capacity exceeded");
+
+            for (int i = 1; i < tasks.size(); i++) {
+                RankedTask previousTask = tasks.get(i - 1);
+                RankedTask task = tasks.get(i);
+                int comparison = previousTask.getTaskClass().compareTo(task.getTaskClass());
+                if (comparison < 0) throw new IllegalArgumentException("SkipListTaskPriorityQueue:restoreTasks(): Tasks are not grouped by class");
+                if (comparison == 0 && previousTask.compareTo(task) >= 0) throw new IllegalArgumentException("SkipListTaskPriorityQueue:restoreTasks(): Tasks are not sorted or not unique");
+            }
+
+            List<TaskNode> nodes = new ArrayList<>(tasks.size());
+            for (RankedTask task : tasks) {
+                TaskNode node = new TaskNode(task.getId(), task.getEnqueueTime(), TaskNode.QUEUED);
+                if (idIndex.putIfAbsent(task.getId(), node) != null) {
+                    idIndex.clear();
+                    throw new IllegalArgumentException("SkipListTaskPriorityQueue:restoreTasks(): Task IDs are not unique");
+                }
+                nodes.add(node);
+            }
+
+            // Every group goes from the youngest task to the oldest; the nodes are inserted in the ascending order
+            long currentTime = Instant.now().getEpochSecond();
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                TaskNode node = nodes.get(i);
+                getTasks(node.taskClass).add(node);
+                if (node.taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+                    overrideCount.incrementAndGet();
+                }
+                sumEnqueueTime.add(node.enqueueTime);
+                waitTimes.add(node.id, node.enqueueTime, currentTime);
+            }
+            n.set(nodes.size());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        log.info("{}: {} Tasks restored", methodName, tasks.size());
+    }
+
+    /**
+     * Gets the highest-ranked task from the queue and deletes (dequeues) it
+     * @return The highest-ranked task
+     */
+    @Override
+    public RankedTask poll() {
+        String methodName = "poll";
+        RankedTask task = null;
+        long sequence = 0L;
+
+        log.debug("{}: Polling the class sets", methodName);
+        boolean journaled = lockJournal();
+        try {
+            TaskNode node = claimHighestRanked(Instant.now().getEpochSecond());
+            if (node != null) {
+                sequence = journal.logPoll(node.id);
+                unlink(node);
+                task = node.toRankedTask();
+            }
+        } finally {
+            unlockJournal(journaled);
+        }
+
+        journal.awaitDurable(sequence);
+        return task;
+    }
+
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them. The tasks are ranked at the same moment and
+     * claimed one by one, as the given number of consecutive {@link #poll()}
+     * calls would do
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        String methodName = "pollBatch";
+        if (count <= 0) throw new IllegalArgumentException("SkipListTaskPriorityQueue:pollBatch(): count must be positive");
+
+        List<RankedTask> tasks = new ArrayList<>(Math.min(count, size()));
+        long sequence = 0L;
+        boolean journaled = lockJournal();
+        try {
+            long currentTime = Instant.now().getEpochSecond();
+            TaskNode node;
+            while (tasks.size() < count && (node = claimHighestRanked(currentTime)) != null) {
+                sequence = journal.logPoll(node.id);
+                unlink(node);
+                tasks.add(node.toRankedTask());
+            }
+        } finally {
+            unlockJournal(journaled);
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: {} tasks polled", methodName, tasks.size());
+        return tasks;
+    }
+
+    /**
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest. The class sets are merged lazily up to the end of the page
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
+     */
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("SkipListTaskPriorityQueue:getRankedTaskList(): offset and limit must not be negative");
+
+        List<RankedTask> resultList = new ArrayList<>(Math.min(limit, Math.max(n.get() - offset, 0)));
+        long currentTime = Instant.now().getEpochSecond();
+        int skipped = 0;
+
+        // Management Override tasks go first, from the oldest to the youngest
+        Iterator<TaskNode> overrideIterator = overrideTasks.iterator();
+        TaskNode overrideNode;
+        while (resultList.size() < limit && (overrideNode = nextQueued(overrideIterator)) != null) {
+            if (skipped++ >= offset) {
+                resultList.add(overrideNode.toRankedTask());
+            }
+        }
+
+        // Then the heads of the other sets are merged by the ranks; equal ranks go to the higher class
+        List<Iterator<TaskNode>> iterators = new ArrayList<>(classTasks.size());
+        TaskNode[] heads = new TaskNode[classTasks.size()];
+        for (int i = 0; i < classTasks.size(); i++) {
+            iterators.add(classTasks.get(i).iterator());
+            heads[i] = nextQueued(iterators.get(i));
+        }
+
+        while (resultList.size() < limit) {
+            int highest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] != null && (highest < 0 || heads[i].outranks(heads[highest], currentTime))) {
+                    highest = i;
+                }
+            }
+            if (highest < 0) {
+                break;
+            }
+
+            if (skipped++ >= offset) {
+                resultList.add(heads[highest].toRankedTask());
+            }
+            heads[highest] = nextQueued(iterators.get(highest));
+        }
+
+        return resultList;
+    }
+
+    /**
+     * Get the Task's position in the ranked queue
+     * @param id the task ID
+     * @return the task's position (-1 if the task is not queued)
+     */
+    @Override
+    public int getTaskPosition(long id) {
+        TaskNode node = idIndex.get(id);
+        if (node == null || !node.isQueued()) {
+            return -1;
+        }
+
+        if (node.taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+            return countQueued(overrideTasks.headSet(node).iterator());
+        }
+
+        // Every class set keeps the tasks that outrank the given one at its head
+        long currentTime = Instant.now().getEpochSecond();
+        int position = overrideCount.get();
+        for (int i = 0; i < classTasks.size(); i++) {
+            if (classOfSet(i) == node.taskClass) {
+                position += countQueued(classTasks.get(i).headSet(node).iterator());
+                continue;
+            }
+
+            Iterator<TaskNode> iterator = classTasks.get(i).iterator();
+            TaskNode other;
+            while ((other = nextQueued(iterator)) != null && other.outranks(node, currentTime)) {
+                position++;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Delete a task with the given ID
+     * @param id to delete
+     * @return Status of the operation: {@code Status.S_OK} if deleted;
+     *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
+     */
+    @Override
+    public Status deleteTask(long id) {
+        String methodName = "deleteTask";
+        log.debug("{}: Trying to delete task: {}", methodName, id);
+
+        long sequence = 0L;
+        Status status = Status.E_TASK_NOT_FOUND;
+        boolean journaled = lockJournal();
+        try {
+            // A task that is still being added or is already claimed is not in the queue yet or anymore
+            TaskNode node = idIndex.get(id);
+            if (node != null && node.claim()) {
+                sequence = journal.logDelete(id);
+                unlink(node);
+                status = Status.S_OK;
+            }
+        } finally {
+            unlockJournal(journaled);
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} status: {}", methodName, id, status);
+        return status;
+    }
+
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    @Override
+    public int size() {
+        return n.get();
+    }
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return waitTimes.size(taskClass);
+    }
+
+    /**
+     * Get the average (mean) number of seconds that each ID has been waiting in the queue
+     * @return Expected Wait Time (zero if the queue is empty)
+     */
+    @Override
+    public Long getExpectedWaitTime() {
+        int size = n.get();
+        long sum = sumEnqueueTime.sum();
+        return size == 0 ? 0L : Instant.now().getEpochSecond() - (sum / size);
+    }
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue, see {@link WaitTimeHistogram}
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return waitTimes.getPercentiles(taskClass, Instant.now().getEpochSecond(), percentiles);
+    }
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    @Override
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get all the tasks in the queue at a single moment, in the same order as
+     * {@link TaskPriorityQueue#getTaskSnapshot} lists them. The given action is
+     * run at that moment while no journaled modification can proceed
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        snapshotLock.writeLock().lock();
+        try {
+            atMoment.run();
+            List<RankedTask> tasks = new ArrayList<>(n.get());
+            for (ConcurrentSkipListSet<TaskNode> classSet : List.of(overrideTasks, vipTasks, priorityTasks, normalTasks)) {
+                for (TaskNode node : classSet.descendingSet()) {
+                    if (node.isQueued()) {
+                        tasks.add(node.toRankedTask());
+                    }
+                }
+            }
+            return tasks;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Take a free place and link the pending node into the index and its class set; the
+    // place is given back if the ID is taken
+    private Status link(TaskNode node) {
+        int size;
+        do {
+            size = n.get();
+            if (size >= capacity) {
+                return Status.E_QUEUE_FULL;
+            }
+        } while (!n.compareAndSet(size, size + 1));
+
+        if (idIndex.putIfAbsent(node.id, node) != null) {
+            n.decrementAndGet();
+            return Status.E_ID_ALREADY_EXISTS;
+        }
+
+        // The ID is unique, so is the node in its class set
+        getTasks(node.taskClass).add(node);
+        return Status.S_OK;
+    }
+
+    // Make the linked node visible once it has been journaled
+    private void publish(TaskNode node) {
+        sumEnqueueTime.add(node.enqueueTime);
+        waitTimes.add(node.id, node.enqueueTime, Instant.now().getEpochSecond());
+        if (node.taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+            overrideCount.incrementAndGet();
+        }
+        node.state = TaskNode.QUEUED;
+    }
+
+    // Remove the claimed node from the index and its class set once it has been journaled
+    private void unlink(TaskNode node) {
+        getTasks(node.taskClass).remove(node);
+        idIndex.remove(node.id, node);
+        if (node.taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+            overrideCount.decrementAndGet();
+        }
+        sumEnqueueTime.add(-node.enqueueTime);
+        waitTimes.remove(node.id, node.enqueueTime);
+        n.decrementAndGet();
+    }
+
+    // Claim the task that must be polled next: Management Override tasks go first, then the highest
+    // ranked head; equal ranks go to the higher class. If another poller or a deletion claims the
+    // task first, the heads are ranked again
+    private TaskNode claimHighestRanked(long currentTime) {
+        while (true) {
+            TaskNode highest = firstQueued(overrideTasks);
+            if (highest == null) {
+                for (ConcurrentSkipListSet<TaskNode> tasks : classTasks) {
+                    TaskNode head = firstQueued(tasks);
+                    if (head != null && (highest == null || head.outranks(highest, currentTime))) {
+                        highest = head;
+                    }
+                }
+            }
+
+            if (highest == null || highest.claim()) {
+                return highest;
+            }
+        }
+    }
+
+    // Get the oldest queued task of the class set, skipping the nodes that are being added or removed
+    private static TaskNode firstQueued(ConcurrentSkipListSet<TaskNode> tasks) {
+        return nextQueued(tasks.iterator());
+    }
+
+    private static TaskNode nextQueued(Iterator<TaskNode> iterator) {
+        while (iterator.hasNext()) {
+            TaskNode node = iterator.next();
+            if (node.isQueued()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static int countQueued(Iterator<TaskNode> iterator) {
+        int count = 0;
+        while (nextQueued(iterator) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    // Keep the journaled modifications out of a snapshot; returns whether the lock was taken
+    private boolean lockJournal() {
+        if (journal == TaskJournal.NONE) {
+            return false;
+        }
+        snapshotLock.readLock().lock();
+        return true;
+    }
+
+    private void unlockJournal(boolean locked) {
+        if (locked) {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private RankedTask.TaskClass classOfSet(int i) {
+        return switch (i) {
+            case 0 -> RankedTask.TaskClass.VIP;
+            case 1 -> RankedTask.TaskClass.PRIORITY;
+            default -> RankedTask.TaskClass.NORMAL;
+        };
+    }
+
+    private ConcurrentSkipListSet<TaskNode> getTasks(RankedTask.TaskClass taskClass) {
+        return switch (taskClass) {
+            case MANAGEMENT_OVERRIDE -> overrideTasks;
+            case VIP -> vipTasks;
+            case PRIORITY -> priorityTasks;
+            default -> normalTasks;
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code SnapshotPublishingQueue} class wraps a {@link QueueEngine} and
+ * publishes the ranked list of its tasks as an immutable {@link RankedSnapshot}
+ * through an atomic reference, so the frequent list and position reads are
+ * served without locking the queue and never block the modifications. The
+ * encoded wait time statistics are published the same way.
+ *
+ * The queue is versioned by the number of its modifications (the operations
+ * that changed nothing, e.g. a poll of the empty queue, do not count) and by the
+ * second (the ranks and the wait times change every second). A snapshot is
+ * exact while the version is the same; otherwise it is served until it gets
+ * older than the maximum staleness, then the first reader takes a new one
+ * while the others keep reading the previous snapshot. With no staleness
+ * allowed no snapshot of the list is published, since it would be taken
+ * after every modification, but the version still tags the direct reads.
+ * All the other operations go to the wrapped engine as they are.
+ *
+ * @author Nikita Nikolaev
+ */
+@Slf4j
+public class SnapshotPublishingQueue implements QueueEngine {
+
+    private final QueueEngine queue;
+    private final long maxStalenessMillis;
+    private final LongSupplier clock; // UTC time in milliseconds
+    private final long startMillis; // Tells the versions apart from those before a restart
+
+    private final AtomicReference<RankedSnapshot> snapshot = new AtomicReference<>();
+    private final AtomicReference<EncodedWaitTimes> waitTimes = new AtomicReference<>();
+    private final AtomicLong modifications = new AtomicLong();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private long publications; // Guarded by the refresh lock
+
+    /**
+     * Constructor
+     * @param queue the engine to keep the tasks in
+     * @param maxStalenessMillis maximum age of a snapshot taken before a modification
+     */
+    public SnapshotPublishingQueue(QueueEngine queue, long maxStalenessMillis) {
+        this(queue, maxStalenessMillis, System::currentTimeMillis);
+    }
+
+    SnapshotPublishingQueue(QueueEngine queue, long maxStalenessMillis, LongSupplier clock) {
+        if (maxStalenessMillis < 0) throw new IllegalArgumentException("SnapshotPublishingQueue: maximum staleness must not be negative");
+
+        this.queue = queue;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.clock = clock;
+        startMillis = clock.getAsLong();
+    }
+
+    /**
+     * Get the published snapshot of the ranked list; a new one is taken if the
+     * published one is outdated and no other thread is taking it already
+     * @return the snapshot, at most about the maximum staleness old; {@code null} if no staleness is allowed
+     */
+    @Override
+    public RankedSnapshot getPublishedSnapshot() {
+        String methodName = "getPublishedSnapshot";
+        if (maxStalenessMillis == 0) {
+            return null;
+        }
+        RankedSnapshot published = snapshot.get();
+        if (published != null && isValid(published.getTakenAtMillis(), published.modifications, published.epochSecond)) {
+            return published;
+        }
+
+        // Readers never queue up behind the refresh while there is a snapshot to serve
+        if (published != null && !refreshLock.tryLock()) {
+            return published;
+        } else if (published == null) {
+            refreshLock.lock();
+        }
+        try {
+            published = snapshot.get();
+            if (published == null || !isValid(published.getTakenAtMillis(), published.modifications, published.epochSecond)) {
+                long modificationCount = modifications.get();
+                long takenAtMillis = clock.getAsLong();
+                List<RankedTask> tasks = queue.getRankedTaskList();
+                long epochSecond = Math.floorDiv(clock.getAsLong(), 1000L);
+                published = new RankedSnapshot(tasks, takenAtMillis, publications++,
+                        epochSecond == Math.floorDiv(takenAtMillis, 1000L) ? epochSecond : -1L, modificationCount);
+                snapshot.set(published);
+                log.debug("{}: Published the snapshot of {} tasks", methodName, tasks.size());
+            }
+            return published;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Get the published wait time statistics; new ones are encoded if the
+     * published ones are outdated. The concurrent readers of the outdated
+     * statistics may encode them more than once
+     * @param encoder the encoder of the statistics of the queue, e.g. to JSON
+     * @return the encoded statistics, at most about the maximum staleness old
+     */
+    @Override
+    public EncodedWaitTimes getPublishedWaitTimes(Function<QueueEngine, byte[]> encoder) {
+        String methodName = "getPublishedWaitTimes";
+        EncodedWaitTimes published = waitTimes.get();
+        if (published != null && isValid(published.getTakenAtMillis(), published.modifications, published.epochSecond)) {
+            return published;
+        }
+
+        long modificationCount = modifications.get();
+        long takenAtMillis = clock.getAsLong();
+        byte[] body = encoder.apply(queue);
+        long epochSecond = Math.floorDiv(clock.getAsLong(), 1000L);
+        published = new EncodedWaitTimes(body, getETag(modificationCount, Math.floorDiv(takenAtMillis, 1000L)), takenAtMillis,
+                epochSecond == Math.floorDiv(takenAtMillis, 1000L) ? epochSecond : -1L, modificationCount);
+        waitTimes.set(published);
+        log.debug("{}: Published the wait times", methodName);
+        return published;
+    }
+
+    /**
+     * Get the entity tag of the current version of the queue. It is taken
+     * before the queue is read, so the data read afterwards are at least
+     * as new as the version tagged
+     * @return quoted entity tag
+     */
+    @Override
+    public String getETag() {
+        return getETag(modifications.get(), Math.floorDiv(clock.getAsLong(), 1000L));
+    }
+
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
+        boolean modified = true; // Unless the queue tells otherwise, since a failed operation may have modified it
+        try {
+            Status status = queue.addNewTask(id, enqueueTime);
+            modified = status == Status.S_OK;
+            return status;
+        } finally {
+            if (modified) {
+                modifications.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        boolean modified = true;
+        try {
+            Status[] statuses = queue.addNewTasks(ids, enqueueTimes);
+            modified = Arrays.asList(statuses).contains(Status.S_OK);
+            return statuses;
+        } finally {
+            if (modified) {
+                modifications.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        try {
+            queue.restoreTasks(tasks);
+        } finally {
+            modifications.incrementAndGet();
+        }
+    }
+
+    @Override
+    public RankedTask poll() {
+        boolean modified = true;
+        try {
+            RankedTask task = queue.poll();
+            modified = task != null;
+            return task;
+        } finally {
+            if (modified) {
+                modifications.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        boolean modified = true;
+        try {
+            List<RankedTask> tasks = queue.pollBatch(count);
+            modified = !tasks.isEmpty();
+            return tasks;
+        } finally {
+            if (modified) {
+                modifications.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
+        return queue.getRankedTaskList(offset, limit);
+    }
+
+    @Override
+    public int getTaskPosition(long id) {
+        return queue.getTaskPosition(id);
+    }
+
+    @Override
+    public Status deleteTask(long id) {
+        boolean modified = true;
+        try {
+            Status status = queue.deleteTask(id);
+            modified = status == Status.S_OK;
+            return status;
+        } finally {
+            if (modified) {
+                modifications.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return queue.getCapacity();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return queue.size(taskClass);
+    }
+
+    @Override
+    public Long getExpectedWaitTime() {
+        return queue.getExpectedWaitTime();
+    }
+
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return queue.getWaitTimePercentiles(taskClass, percentiles);
+    }
+
+    @Override
+    public void setJournal(TaskJournal journal) {
+        queue.setJournal(journal);
+    }
+
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        return queue.getTaskSnapshot(atMoment);
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // The modification count is taken before the data, and is incremented after every
+    // modification, so the data that missed a modification never look unmodified
+    private boolean isValid(long takenAtMillis, long modificationCount, long epochSecond) {
+        long currentMillis = clock.getAsLong();
+        if (currentMillis - takenAtMillis <= maxStalenessMillis) {
+            return true;
+        }
+        return modificationCount == modifications.get() &&
+               epochSecond == Math.floorDiv(currentMillis, 1000L);
+    }
+
+    private String getETag(long modificationCount, long epochSecond) {
+        return "\"" + Long.toHexString(startMillis) + "-" + modificationCount + "-" + Long.toHexString(epochSecond) + "\"";
+    }
+}
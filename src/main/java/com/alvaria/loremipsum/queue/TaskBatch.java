@@ -0,0 +1,61 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.longhashmap.LongIntHashMap;
+import com.alvaria.loremipsum.queue.QueueEngine.Status;
+
+import java.time.Instant;
+import java.util.function.LongPredicate;
+
+/**
+ * The {@code TaskBatch} class decides which tasks of a batch given to
+ * {@link QueueEngine#addNewTasks} are accepted, in the same way as
+ * {@link TaskPriorityQueue} does it: invalid tasks are rejected first, then
+ * the IDs that are queued or repeated in the batch, and the rest take the free
+ * places of the queue in the given order. The tasks of the same class and
+ * enqueue time are accepted, they are ordered by ID in the queue.
+ *
+ * @author Nikita Nikolaev
+ */
+final class TaskBatch {
+
+    private TaskBatch() {
+    }
+
+    /**
+     * Get the statuses of the batch tasks; the tasks with {@code Status.S_OK}
+     * are to be added. Must be called under the lock that keeps the queue from
+     * being modified
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued
+     * @param isIdQueued checks whether the ID is queued
+     * @param freePlaces number of the free places in the queue
+     * @return Status of every task in the same order
+     */
+    static Status[] accept(long[] ids, long[] enqueueTimes, LongPredicate isIdQueued, int freePlaces) {
+        if (ids.length != enqueueTimes.length) throw new IllegalArgumentException("TaskBatch:accept(): Array lengths differ");
+
+        Status[] statuses = new Status[ids.length];
+        long currentTime = Instant.now().getEpochSecond();
+        for (int i = 0; i < ids.length; i++) {
+            statuses[i] = TaskPriorityQueue.validateId(ids[i]);
+            if (statuses[i] == Status.S_OK) {
+                statuses[i] = TaskPriorityQueue.validateEnqueueTime(enqueueTimes[i], currentTime);
+            }
+        }
+
+        LongIntHashMap batchIds = new LongIntHashMap(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (statuses[i] == Status.S_OK && (isIdQueued.test(ids[i]) || batchIds.put(ids[i], i + 1) != 0)) {
+                statuses[i] = Status.E_ID_ALREADY_EXISTS;
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (statuses[i] == Status.S_OK && freePlaces-- <= 0) {
+                statuses[i] = Status.E_QUEUE_FULL;
+            }
+        }
+
+        return statuses;
+    }
+}
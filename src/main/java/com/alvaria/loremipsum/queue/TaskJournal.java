@@ -0,0 +1,66 @@
+package com.alvaria.loremipsum.queue;
+
+/**
+ * The {@code TaskJournal} interface represents a journal of the operations that
+ * modify the {@link TaskPriorityQueue}. The queue records every operation while
+ * it still holds the lock of the affected task tree, so the operations on the
+ * same task are recorded in the order they were applied; then it waits for the
+ * record to become durable after all the locks have been released.
+ *
+ * @author Nikita Nikolaev
+ */
+public interface TaskJournal {
+
+    /**
+     * Journal that records nothing; used unless the persistence is enabled
+     */
+    TaskJournal NONE = new TaskJournal() {
+        @Override
+        public long logAdd(long id, long enqueueTime) {
+            return 0L;
+        }
+
+        @Override
+        public long logPoll(long id) {
+            return 0L;
+        }
+
+        @Override
+        public long logDelete(long id) {
+            return 0L;
+        }
+
+        @Override
+        public void awaitDurable(long sequence) {
+        }
+    };
+
+    /**
+     * Record a task added to the queue
+     * @param id task ID
+     * @param enqueueTime task enqueue time
+     * @return sequence number of the record
+     */
+    long logAdd(long id, long enqueueTime);
+
+    /**
+     * Record a task polled from the queue
+     * @param id task ID
+     * @return sequence number of the record
+     */
+    long logPoll(long id);
+
+    /**
+     * Record a task deleted from the queue
+     * @param id task ID
+     * @return sequence number of the record
+     */
+    long logDelete(long id);
+
+    /**
+     * Wait until the record of the given sequence number (and all the previous
+     * ones) is durable, as far as the configured durability guarantees
+     * @param sequence sequence number of the record
+     */
+    void awaitDurable(long sequence);
+}
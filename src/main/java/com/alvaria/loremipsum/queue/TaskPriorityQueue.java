@@ -1,64 +1,130 @@
 package com.alvaria.loremipsum.queue;
 
-import com.alvaria.loremipsum.redblacktree.Node;
+import com.alvaria.loremipsum.longhashmap.LongHashMap;
 import com.alvaria.loremipsum.redblacktree.RedBlackTree;
-import com.alvaria.loremipsum.tasks.IDTask;
+import com.alvaria.loremipsum.tasks.RankCrossover;
 import com.alvaria.loremipsum.tasks.RankedTask;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * The TaskPriorityQueue class represents the priority queue
  * for tasks that allows to get the highest (lowest) priority task or perform
  * operations with a task of given ID.
  *
- * The class is organised based on two Red-Black trees: one of them is sorted
- * based on the IDs and another one is sorted based on the Task ranks
+ * The class is organised based on the ID index that maps the IDs to the tasks
+ * with constant complexity, and four Red-Black trees (one per task class) that
+ * are sorted based on the Task ranks.
+ *
+ * Concurrency model:
+ * <ul>
+ *     <li>The ID index is split into stripes by the ID hash, each stripe is guarded
+ *     by its own lock, so the operations with different IDs rarely contend;</li>
+ *     <li>Each ranked task tree is guarded by its own {@link StampedLock}. Whenever
+ *     several of them are required they are acquired in the same order: from the
+ *     highest task class to the lowest;</li>
+ *     <li>An ID stripe lock may be held while acquiring ranked task tree locks but
+ *     never the other way round. Batch operations lock all the stripes in the
+ *     ascending order;</li>
+ *     <li>The queue size and the sum of enqueue times are guarded by a separate
+ *     {@link StampedLock} that is never held while acquiring another lock.</li>
+ * </ul>
+ * A ranked task tree lock is tried first; only if it is held by another thread
+ * the wait is timed and counted, so the uncontended path is not slowed down.
+ * Read-only operations ({@link #getTaskPosition}, {@link #getExpectedWaitTime})
+ * try optimistic reads first and take the read locks only if a concurrent
+ * modification happened in the meantime.
+ *
+ * Every modification is recorded in the {@link TaskJournal} (if set) while the
+ * lock of the affected ranked task tree is still held, and the operation waits
+ * for its record to become durable after all the locks have been released.
  *
  * @author Nikita Nikolaev
  */
 @Slf4j
-@Component
-public class TaskPriorityQueue {
+public class TaskPriorityQueue implements QueueEngine {
+
+    // Queue capacity used unless configured otherwise
+    public static final int DEFAULT_CAPACITY = 1000;
 
-    // Maximum supported queue size
-    private static final int MAX_SIZE = 1000;
-    final RedBlackTree<IDTask> idTaskTree;
+    // Number of the ID index stripes; must be a power of two
+    private static final int ID_INDEX_STRIPES = 64;
+
+    private final int capacity; // Maximum supported queue size
+    final LongHashMap<RankedTask>[] idIndex;
     final RedBlackTree<RankedTask> overrideTaskTree;
     final RedBlackTree<RankedTask> vipTaskTree;
     final RedBlackTree<RankedTask> priorityTaskTree;
     final RedBlackTree<RankedTask> normalTaskTree;
 
+    private final StampedLock[] idIndexLocks;
+    private final StampedLock overrideTreeLock;
+    private final StampedLock vipTreeLock;
+    private final StampedLock priorityTreeLock;
+    private final StampedLock normalTreeLock;
+    private final StampedLock[] taskTreeLocks; // in the order of acquisition
+    private final LongAdder[] lockWaits; // Number of contended acquisitions, per tree lock
+    private final LongAdder[] lockWaitNanos; // Time spent waiting for them, per tree lock
+    private final StampedLock statsLock;
+
     int n; // Queue size
-    Long sumEnqueueTime; // Sum of all enqueue times; cannot be overflowed as MAX_SIZE is reasonably low
+    // Sum of all enqueue times. It cannot overflow: there are at most Integer.MAX_VALUE
+    // enqueue times, each of them is validated to be in past, and the product stays
+    // below Long.MAX_VALUE until 2106
+    long sumEnqueueTime;
+    private final WaitTimeStatistics waitTimes = new WaitTimeStatistics();
+
+    private volatile TaskJournal journal = TaskJournal.NONE;
 
     /**
-     * Possible operation statuses
+     * Default constructor; creates the queue of {@link #DEFAULT_CAPACITY}
      */
-    public enum Status {
-        S_OK,
-        E_NEGATIVE_ID,
-        E_INVALID_ENQUEUE_TIME,
-        E_ID_ALREADY_EXISTS,
-        E_RANKED_TASK_ALREADY_EXISTS,
-        E_TASK_NOT_FOUND,
-        E_QUEUE_FULL
+    public TaskPriorityQueue() {
+        this(DEFAULT_CAPACITY);
     }
 
     /**
-     * Default constructor
+     * Constructor
+     * @param capacity maximum number of tasks in the queue
      */
-    public TaskPriorityQueue() {
-        idTaskTree = new RedBlackTree<>();
+    @SuppressWarnings("unchecked")
+    public TaskPriorityQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.capacity = capacity;
+        idIndex = new LongHashMap[ID_INDEX_STRIPES];
+        idIndexLocks = new StampedLock[ID_INDEX_STRIPES];
+        for (int i = 0; i < ID_INDEX_STRIPES; i++) {
+            idIndex[i] = new LongHashMap<>();
+            idIndexLocks[i] = new StampedLock();
+        }
+
         overrideTaskTree = new RedBlackTree<>();
         vipTaskTree = new RedBlackTree<>();
         priorityTaskTree = new RedBlackTree<>();
         normalTaskTree = new RedBlackTree<>();
+
+        overrideTreeLock = new StampedLock();
+        vipTreeLock = new StampedLock();
+        priorityTreeLock = new StampedLock();
+        normalTreeLock = new StampedLock();
+        taskTreeLocks = new StampedLock[] {overrideTreeLock, vipTreeLock, priorityTreeLock, normalTreeLock};
+        lockWaits = new LongAdder[taskTreeLocks.length];
+        lockWaitNanos = new LongAdder[taskTreeLocks.length];
+        for (int i = 0; i < taskTreeLocks.length; i++) {
+            lockWaits[i] = new LongAdder();
+            lockWaitNanos[i] = new LongAdder();
+        }
+        statsLock = new StampedLock();
+
         n = 0;
         sumEnqueueTime = 0L;
     }
@@ -69,268 +135,385 @@ public class TaskPriorityQueue {
      * @param enqueueTime UTC time when the task was enqueued (must be in past)
      * @return Status of operation
      */
-    public Status addNewTask(Long id, Long enqueueTime) {
+    @Override
+    public Status addNewTask(long id, long enqueueTime) {
         String methodName = "addNewTask";
 
-        log.info("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
-
+        log.debug("{}: Trying to add a new Task: id = {}, enqueueTime = {}", methodName, id, enqueueTime);
 
         Status status = validateId(id);
         if (status != Status.S_OK) {
-            log.info("{}: negative ID cannot be accepted", methodName);
+            log.debug("{}: negative ID cannot be accepted", methodName);
             return status;
         }
 
         status = validateEnqueueTime(enqueueTime);
         if (status != Status.S_OK) {
-            log.info("{}: enqueue time is invalid: {}; current UTC epoch is {}", methodName, enqueueTime, Instant.now().getEpochSecond());
+            if (log.isDebugEnabled()) {
+                log.debug("{}: enqueue time is invalid: {}; current UTC epoch is {}", methodName, enqueueTime, Instant.now().getEpochSecond());
+            }
             return status;
         }
 
-        IDTask newIdTask = new IDTask(id);
         RankedTask newRankedTask = new RankedTask(id, enqueueTime);
-        newIdTask.setLinkedRankedTask(newRankedTask);
-        newRankedTask.setLinkedIdTask(newIdTask);
 
-        synchronized (idTaskTree) {
-            if (n >= MAX_SIZE) {
-                log.info("{}: Max queue size reached", methodName);
-                return Status.E_QUEUE_FULL;
+        if (!reserveCapacity(enqueueTime)) {
+            log.debug("{}: Max queue size reached", methodName);
+            return Status.E_QUEUE_FULL;
+        }
+
+        long sequence = 0L;
+        int stripe = getIdIndexStripe(id);
+        StampedLock idIndexLock = idIndexLocks[stripe];
+        long idStamp = idIndexLock.writeLock();
+        try {
+            // The task may have just been polled with its ID not removed yet; it is replaced then
+            RankedTask existingTask = idIndex[stripe].get(id);
+            if (existingTask != null && !existingTask.isDequeued()) {
+                releaseCapacity(enqueueTime);
+                status = Status.E_ID_ALREADY_EXISTS;
+            } else {
+                RankedTask.TaskClass newTaskClass = newRankedTask.getTaskClass();
+                StampedLock taskTreeLock = getTaskTreeLock(newTaskClass);
+                long taskStamp = lockTaskTree(getTaskTreeIndex(newTaskClass), true);
+                try {
+                    getTaskTree(newTaskClass).insertNode(newRankedTask);
+                    waitTimes.add(id, enqueueTime, Instant.now().getEpochSecond());
+                    sequence = journal.logAdd(id, enqueueTime);
+                } finally {
+                    taskTreeLock.unlockWrite(taskStamp);
+                }
+
+                idIndex[stripe].put(id, newRankedTask);
+            }
+        } finally {
+            idIndexLock.unlockWrite(idStamp);
+        }
+
+        // Nothing is logged while the locks are held
+        if (status != Status.S_OK) {
+            log.debug("{}: The task with the specified ID already exists", methodName);
+            return status;
+        }
+
+        journal.awaitDurable(sequence);
+        log.debug("{}: Task {} added", methodName, id);
+        return Status.S_OK;
+    }
+
+    /**
+     * Add a batch of new tasks to the queue. The batch is validated, sorted by
+     * the task class and rank, and inserted into every ranked task tree at
+     * once, so large batches are added much faster than one by one. The tasks
+     * are accepted in the given order until the queue is full
+     * @param ids task IDs
+     * @param enqueueTimes UTC times when the tasks were enqueued (must be in past)
+     * @return Status of operation for every task in the same order
+     */
+    @Override
+    public Status[] addNewTasks(long[] ids, long[] enqueueTimes) {
+        String methodName = "addNewTasks";
+        if (ids.length != enqueueTimes.length) throw new IllegalArgumentException("TaskPriorityQueue:addNewTasks(): Array lengths differ");
+
+        log.debug("{}: Trying to add {} new Tasks", methodName, ids.length);
+        Status[] statuses = new Status[ids.length];
+        RankedTask[] newRankedTasks = new RankedTask[ids.length];
+        long currentTime = Instant.now().getEpochSecond();
+        for (int i = 0; i < ids.length; i++) {
+            statuses[i] = validateId(ids[i]);
+            if (statuses[i] == Status.S_OK) {
+                statuses[i] = validateEnqueueTime(enqueueTimes[i], currentTime);
             }
 
+            if (statuses[i] == Status.S_OK) {
+                newRankedTasks[i] = new RankedTask(ids[i], enqueueTimes[i]);
+            }
+        }
+
+        long sequence = 0L;
+        lockIdIndex();
+        try {
+            // Reject the IDs that are already queued or repeated in the batch
+            LongHashMap<RankedTask> batchIds = new LongHashMap<>(ids.length);
+            List<List<Integer>> classIndexes = new ArrayList<>();
+            for (int i = 0; i < RankedTask.TaskClass.values().length; i++) {
+                classIndexes.add(new ArrayList<>());
+            }
+
+            for (int i = 0; i < ids.length; i++) {
+                RankedTask task = newRankedTasks[i];
+                if (task == null) {
+                    continue;
+                }
+
+                RankedTask existingTask = idIndex[getIdIndexStripe(ids[i])].get(ids[i]);
+                if ((existingTask != null && !existingTask.isDequeued()) || batchIds.put(ids[i], task) != null) {
+                    statuses[i] = Status.E_ID_ALREADY_EXISTS;
+                } else {
+                    classIndexes.get(task.getTaskClass().ordinal()).add(i);
+                }
+            }
+
+            lockTaskTrees(0, true);
             try {
-                log.info("{}: inserting new node to the ID tree", methodName);
-                idTaskTree.insertNode(newIdTask);
-                log.info("{}: node inserted successfully", methodName);
-            } catch (IllegalArgumentException ex) {
-                log.warn("{}: The task with the specified ID already exists", methodName);
-                return Status.E_ID_ALREADY_EXISTS;
+                for (List<Integer> indexes : classIndexes) {
+                    indexes.sort((a, b) -> newRankedTasks[a].compareTo(newRankedTasks[b]));
+                }
+
+                // Only the tasks that are going to be added take the places in the queue
+                reserveCapacity(newRankedTasks, statuses);
+
+                for (List<Integer> indexes : classIndexes) {
+                    insertNewRankedTasks(indexes, newRankedTasks, statuses);
+                }
+
+                for (int i = 0; i < ids.length; i++) {
+                    if (statuses[i] == Status.S_OK) {
+                        waitTimes.add(ids[i], enqueueTimes[i], currentTime);
+                        sequence = journal.logAdd(ids[i], enqueueTimes[i]);
+                    }
+                }
+            } finally {
+                unlockTaskTrees(0, true);
+            }
+
+            for (int i = 0; i < ids.length; i++) {
+                if (statuses[i] == Status.S_OK) {
+                    idIndex[getIdIndexStripe(ids[i])].put(ids[i], newRankedTasks[i]);
+                }
             }
+        } finally {
+            unlockIdIndex();
+        }
 
-            RankedTask.TaskClass newTaskClass =newRankedTask.getTaskClass();
+        journal.awaitDurable(sequence);
+        if (log.isDebugEnabled()) {
+            log.debug("{}: {} Tasks added", methodName, Arrays.stream(statuses).filter(status -> status == Status.S_OK).count());
+        }
+        return statuses;
+    }
 
+    /**
+     * Restore the tasks into the empty queue, e.g. from a snapshot taken by
+     * {@link #getTaskSnapshot}. The tasks come as sorted runs, so every tree is
+     * built in linear time and nothing is sorted or ranked
+     * @param tasks all the tasks grouped by class from the highest to the lowest,
+     *              each group in the order of the class tree
+     * @throws IllegalStateException if the queue is not empty
+     * @throws IllegalArgumentException if the tasks are not grouped and sorted,
+     *         their IDs are not unique or there are more of them than the queue
+     *         capacity (the queue stays empty then)
+     */
+    @Override
+    public void restoreTasks(List<RankedTask> tasks) {
+        String methodName = "restoreTasks";
+        log.info("{}: Restoring {} Tasks", methodName, tasks.size());
+
+        lockIdIndex();
+        try {
+            lockTaskTrees(0, true);
             try {
-                log.info("{}: inserting new node to the corresponding ranked task tree", methodName);
+                if (size() != 0) throw new IllegalStateException("TaskPriorityQueue:restoreTasks(): Queue is not empty");
+                if (tasks.size() > capacity) throw new IllegalArgumentException("TaskPriorityQueue:restoreTasks(): Queue capacity exceeded");
+
+                // Split the tasks into the runs of the trees and check them before anything is modified
+                List<List<RankedTask>> runs = new ArrayList<>();
+                long sumRestoredEnqueueTime = 0L;
+                int runStart = 0;
+                for (int i = 0; i <= tasks.size(); i++) {
+                    if (i == tasks.size() || (i > runStart && tasks.get(i).getTaskClass() != tasks.get(runStart).getTaskClass())) {
+                        runs.add(tasks.subList(runStart, i));
+                        runStart = i;
+                    } else if (i > runStart && tasks.get(i - 1).compareTo(tasks.get(i)) >= 0) {
+                        throw new IllegalArgumentException("TaskPriorityQueue:restoreTasks(): Tasks are not sorted or not unique");
+                    }
+
+                    if (i < tasks.size()) {
+                        sumRestoredEnqueueTime += tasks.get(i).getEnqueueTime();
+                    }
+                }
 
-                switch (newTaskClass) {
-                    case MANAGEMENT_OVERRIDE -> {
-                        synchronized (overrideTaskTree) { overrideTaskTree.insertNode(newRankedTask); }
+                for (int i = 1; i < runs.size(); i++) {
+                    if (!runs.get(i).isEmpty() && runs.get(i - 1).get(0).getTaskClass().compareTo(runs.get(i).get(0).getTaskClass()) <= 0) {
+                        throw new IllegalArgumentException("TaskPriorityQueue:restoreTasks(): Tasks are not grouped by class");
                     }
-                    case VIP -> {
-                        synchronized(vipTaskTree) { vipTaskTree.insertNode(newRankedTask); }
+                }
+
+                // The IDs are spread evenly over the stripes; some slack saves most of the resizes
+                for (LongHashMap<RankedTask> stripe : idIndex) {
+                    stripe.ensureCapacity(tasks.size() / ID_INDEX_STRIPES * 9 / 8);
+                }
+                for (RankedTask task : tasks) {
+                    if (idIndex[getIdIndexStripe(task.getId())].put(task.getId(), task) != null) {
+                        for (LongHashMap<RankedTask> stripe : idIndex) {
+                            stripe.clear();
+                        }
+                        throw new IllegalArgumentException("TaskPriorityQueue:restoreTasks(): Task IDs are not unique");
                     }
-                    case PRIORITY -> {
-                        synchronized (priorityTaskTree) { priorityTaskTree.insertNode(newRankedTask); }
+                }
+
+                long currentTime = Instant.now().getEpochSecond();
+                for (List<RankedTask> run : runs) {
+                    if (!run.isEmpty()) {
+                        getTaskTree(run.get(0).getTaskClass()).insertAll(run);
                     }
-                    default -> {
-                        synchronized (normalTaskTree) { normalTaskTree.insertNode(newRankedTask); }
+                    for (RankedTask task : run) {
+                        waitTimes.add(task.getId(), task.getEnqueueTime(), currentTime);
                     }
                 }
-                n++;
-                sumEnqueueTime += enqueueTime;
-                log.info("{}: node inserted successfully", methodName);
-            } catch (IllegalArgumentException ex) {
-                // Report this as an error because the trees are out of sync if we didn't get
-                // this exception on the previous step
-                log.error("{}: and equal ranked task already exists", methodName);
-                return Status.E_RANKED_TASK_ALREADY_EXISTS;
+
+                long stamp = statsLock.writeLock();
+                try {
+                    n = tasks.size();
+                    sumEnqueueTime = sumRestoredEnqueueTime;
+                } finally {
+                    statsLock.unlockWrite(stamp);
+                }
+            } finally {
+                unlockTaskTrees(0, true);
             }
+        } finally {
+            unlockIdIndex();
         }
 
-        return Status.S_OK;
+        log.info("{}: {} Tasks restored", methodName, tasks.size());
     }
 
     /**
      * Gets the highest-ranked task from the queue and deletes
-     * (dequeues) it from both trees
+     * (dequeues) it from both trees.
+     *
+     * Dispatchers call this method in a tight loop, so it allocates nothing:
+     * the clock is sampled once, the rank of every class head is computed
+     * once and the heads are compared on the primitive ranks
      * @return The highest-ranked task
      */
+    @Override
     public RankedTask poll() {
         String methodName = "poll";
         RankedTask task = null;
+        long sequence = 0L;
 
-        synchronized (idTaskTree) {
-            log.info("{}: Polling the ranked tree", methodName);
-            synchronized (overrideTaskTree) {
-                task = overrideTaskTree.pollMaximum();
+        log.debug("{}: Polling the ranked tree", methodName);
+        long overrideStamp = lockTaskTree(0, true);
+        try {
+            task = overrideTaskTree.pollMaximum();
+
+            if (task == null) {
+                lockTaskTrees(1, true);
+                try {
+                    task = pollHighestRanked(Instant.now().getEpochSecond());
+                } finally {
+                    unlockTaskTrees(1, true);
+                }
             }
 
             if (task != null) {
-                log.info("{}: Management Override Task found - deleting the linked task from ID tree", methodName);
-                idTaskTree.deleteNode(task.getLinkedIdTask());
-            } else {
-                RankedTask vipTask = null;
-                RankedTask priorityTask = null;
-                RankedTask normalTask = null;
-
-                synchronized (vipTaskTree) {
-                    synchronized (priorityTaskTree) {
-                        synchronized (normalTaskTree) {
-                            vipTask = vipTaskTree.findMaxData();
-                            priorityTask = priorityTaskTree.findMaxData();
-                            normalTask = normalTaskTree.findMaxData();
-
-                            double vipRank = -1.0;
-                            double priorityRank = -1.0;
-                            double normalRank = -1.0;
-
-                            if (vipTask != null) {
-                                vipRank = vipTask.getCurrentRank();
-                            }
-
-                            if (priorityTask != null) {
-                                priorityRank = priorityTask.getCurrentRank();
-                            }
-
-                            if (normalTask != null) {
-                                normalRank = normalTask.getCurrentRank();
-                            }
-
-                            if (vipRank > 0.0 && vipRank >= priorityRank && vipRank >= normalRank) {
-                                log.info("{}: VIP Task found - deleting the linked task from ID tree", methodName);
-                                idTaskTree.deleteNode(vipTask.getLinkedIdTask());
-                                vipTaskTree.deleteNode(vipTask);
-                                task = vipTask;
-                            }
-
-                            if (priorityRank > 0.0 && priorityRank >= vipRank && priorityRank >= normalRank) {
-                                log.info("{}: Priority Task found - deleting the linked task from ID tree", methodName);
-                                idTaskTree.deleteNode(priorityTask.getLinkedIdTask());
-                                priorityTaskTree.deleteNode(priorityTask);
-                                task = priorityTask;
-                            }
-
-                            if (normalRank > 0.0 && normalRank >= vipRank && normalRank >= priorityRank) {
-                                log.info("{}: Normal Task found - deleting the linked task from ID tree", methodName);
-                                idTaskTree.deleteNode(normalTask.getLinkedIdTask());
-                                normalTaskTree.deleteNode(normalTask);
-                                task = normalTask;
-                            }
-
-                        }
-                    }
-                }
+                task.markDequeued();
+                waitTimes.remove(task.getId(), task.getEnqueueTime());
+                sequence = journal.logPoll(task.getId());
             }
+        } finally {
+            overrideTreeLock.unlockWrite(overrideStamp);
         }
 
         if (task != null) {
-            n--;
-            if (n < 0) {
-                log.error("{}: Queue size is negative; resetting", methodName);
-                // TODO: For some robustness it may be worth implementing a method
-                //  that calculates the queue size in case of invalid size stored
-                n = 0;
-            }
-
-            sumEnqueueTime -= task.getEnqueueTime();
-            if (sumEnqueueTime < 0) {
-                log.error("{}: Sum enqueue time is negative; resetting", methodName);
-                sumEnqueueTime = 0L;
-            }
+            // The task is not in the queue any longer; it is up to the poller to clean up its ID
+            log.debug("{}: deleting the task from ID index", methodName);
+            releaseCapacity(task.getEnqueueTime());
+            deleteIndexedTask(task);
+            journal.awaitDurable(sequence);
             return task;
         } else {
-            log.info("{}: The tree is empty", methodName);
+            log.debug("{}: The tree is empty", methodName);
             return null;
         }
     }
 
+    /**
+     * Gets up to the given number of the highest-ranked tasks from the queue
+     * and deletes (dequeues) them. All the trees are locked once for the whole
+     * batch and the tasks are ranked at the same moment, so the result is the
+     * same as of the given number of consecutive {@link #poll()} calls
+     * @param count maximum number of tasks to poll (must be positive)
+     * @return The highest-ranked tasks sorted from the highest rank to lowest;
+     *         the list is empty if the queue is empty
+     */
+    @Override
+    public List<RankedTask> pollBatch(int count) {
+        String methodName = "pollBatch";
+        if (count <= 0) throw new IllegalArgumentException("TaskPriorityQueue:pollBatch(): count must be positive");
+
+        log.debug("{}: Polling up to {} tasks", methodName, count);
+        List<RankedTask> tasks = new ArrayList<>(Math.min(count, size()));
+        long sumPolledEnqueueTime = 0L;
+        long sequence = 0L;
+
+        lockTaskTrees(0, true);
+        try {
+            long currentTime = Instant.now().getEpochSecond();
+            while (tasks.size() < count) {
+                // Merge the class trees: Management Override tasks go first, then the highest ranked heads
+                RankedTask task = overrideTaskTree.pollMaximum();
+                if (task == null) {
+                    task = pollHighestRanked(currentTime);
+                    if (task == null) {
+                        break;
+                    }
+                }
+
+                task.markDequeued();
+                waitTimes.remove(task.getId(), task.getEnqueueTime());
+                sequence = journal.logPoll(task.getId());
+                tasks.add(task);
+                sumPolledEnqueueTime += task.getEnqueueTime();
+            }
+        } finally {
+            unlockTaskTrees(0, true);
+        }
 
+        if (!tasks.isEmpty()) {
+            // The tasks are not in the queue any longer; it is up to the poller to clean up their IDs
+            releaseCapacity(tasks.size(), sumPolledEnqueueTime);
+            for (RankedTask task : tasks) {
+                deleteIndexedTask(task);
+            }
+            journal.awaitDurable(sequence);
+        }
+
+        log.debug("{}: {} tasks polled", methodName, tasks.size());
+        return tasks;
+    }
 
     /**
-     * Get the list of all tasks in the queue sorted from the highest rank to lowest
-     *
-     * TODO: May be optimized (e.g. build it in the correct order straight from the tree)
-     * @return Sorted list of tasks
+     * Get a page of the list of tasks in the queue sorted from the highest rank
+     * to lowest. The class trees are merged lazily, so only the tasks up to the
+     * end of the page are visited and only the page is kept in memory
+     * @param offset number of the highest ranked tasks to skip
+     * @param limit maximum number of tasks to return
+     * @return Sorted list of tasks (empty if the offset is beyond the queue size)
      */
-    public List<RankedTask> getRankedTaskList() {
+    @Override
+    public List<RankedTask> getRankedTaskList(int offset, int limit) {
         String methodName = "getRankedTaskList";
-        synchronized (overrideTaskTree) {
-            synchronized (vipTaskTree) {
-                synchronized (priorityTaskTree) {
-                    synchronized (normalTaskTree) {
-                        log.info("{}: building the tasks list from highest rank to lowest", methodName);
-                        List<RankedTask> resultList = overrideTaskTree.buildNodeList();
-                        List<RankedTask> vipList = vipTaskTree.buildNodeList();
-                        List<RankedTask> priorityList = priorityTaskTree.buildNodeList();
-                        List<RankedTask> normalList = normalTaskTree.buildNodeList();
-
-                        if (resultList == null) {
-                            resultList = new ArrayList<>();
-                        }
+        if (offset < 0 || limit < 0) throw new IllegalArgumentException("TaskPriorityQueue:getRankedTaskList(): offset and limit must not be negative");
 
-                        if (resultList != null && !resultList.isEmpty()) {
-                            Collections.reverse(resultList);
-                        }
-                        if (vipList != null && !vipList.isEmpty()) {
-                            Collections.reverse(vipList);
-                        }
-                        if (priorityList != null && !priorityList.isEmpty()) {
-                            Collections.reverse(priorityList);
-                        }
-                        if (normalList != null && !normalList.isEmpty()) {
-                            Collections.reverse(normalList);
-                        }
-
-                        // Merge four lists
-                        while ((vipList!= null && !vipList.isEmpty()) ||
-                               (priorityList != null && !priorityList.isEmpty()) ||
-                               (normalList != null && !normalList.isEmpty())) {
-
-                            RankedTask vipTask = null;
-                            RankedTask priorityTask = null;
-                            RankedTask normalTask = null;
-
-                            if (vipList!= null && !vipList.isEmpty()) {
-                                vipTask = vipList.get(0);
-                            }
-
-                            if (priorityList != null && !priorityList.isEmpty()) {
-                                priorityTask = priorityList.get(0);
-                            }
-
-                            if (normalList != null && !normalList.isEmpty()) {
-                                normalTask = normalList.get(0);
-                            }
-
-                            double vipRank = -1.0;
-                            double priorityRank = -1.0;
-                            double normalRank = -1.0;
-
-                            if (vipTask != null) {
-                                vipRank = vipTask.getCurrentRank();
-                            }
-
-                            if (priorityTask != null) {
-                                priorityRank = priorityTask.getCurrentRank();
-                            }
-
-                            if (normalTask != null) {
-                                normalRank = normalTask.getCurrentRank();
-                            }
-
-                            if (vipRank > 0.0 && vipRank >= priorityRank && vipRank >= normalRank) {
-                                log.debug("{}: Adding VIP task to the final list", methodName);
-                                resultList.add(vipTask);
-                                vipList.remove(vipTask);
-                            }
-
-                            if (priorityRank > 0.0 && priorityRank >= vipRank && priorityRank >= normalRank) {
-                                log.info("{}: Adding Priority task to the final list", methodName);
-                                resultList.add(priorityTask);
-                                priorityList.remove(priorityTask);
-                            }
-
-                            if (normalRank > 0.0 && normalRank >= vipRank && normalRank >= priorityRank) {
-                                log.info("{}: Adding Normal task to the final list", methodName);
-                                resultList.add(normalTask);
-                                normalList.remove(normalTask);
-                            }
-                        }
+        log.debug("{}: building the tasks list from highest rank to lowest", methodName);
+        lockTaskTrees(0, false);
+        try {
+            Iterator<RankedTask> iterator = new RankedTaskIterator(Instant.now().getEpochSecond());
+            for (int i = 0; i < offset && iterator.hasNext(); i++) {
+                iterator.next();
+            }
 
-                        return resultList;
-                    }
-                }
+            List<RankedTask> resultList = new ArrayList<>(Math.min(limit, Math.max(size() - offset, 0)));
+            while (resultList.size() < limit && iterator.hasNext()) {
+                resultList.add(iterator.next());
             }
+
+            return resultList;
+        } finally {
+            unlockTaskTrees(0, false);
         }
     }
 
@@ -339,25 +522,57 @@ public class TaskPriorityQueue {
      * @param id the task ID
      * @return the task's position
      */
-    public int getTaskPosition(Long id) {
+    @Override
+    public int getTaskPosition(long id) {
         String methodName = "getTaskPosition";
-        IDTask idTask = new IDTask(id);
-        synchronized (idTaskTree) {
-            Node<IDTask> idNode = idTaskTree.findValue(idTask);
+        RankedTask rankedTask;
 
-            log.info("{}}: Trying to get the position of task: {}", methodName, id);
+        log.debug("{}: Trying to get the position of task: {}", methodName, id);
 
-            if (idNode == null) {
-                // The task is not queued
-                log.info("{}}: Task {} is not queued", methodName, id);
-                return -1;
-            } else {
-                log.info("{}}: Task {} exists - getting the position", methodName, id);
-                List<RankedTask> taskList = getRankedTaskList();
-                RankedTask rankedTask = idNode.getData().getLinkedRankedTask();
-                return taskList.indexOf(rankedTask);
+        int stripe = getIdIndexStripe(id);
+        StampedLock idIndexLock = idIndexLocks[stripe];
+        long idStamp = idIndexLock.readLock();
+        try {
+            rankedTask = idIndex[stripe].get(id);
+        } finally {
+            idIndexLock.unlockRead(idStamp);
+        }
+
+        if (rankedTask == null) {
+            // The task is not queued
+            log.debug("{}: Task {} is not queued", methodName, id);
+            return -1;
+        }
+
+        log.debug("{}: Task {} exists - getting the position", methodName, id);
+        long currentTime = Instant.now().getEpochSecond();
+
+        // Try to count the tasks without locking the trees at first. The trees may be modified
+        // concurrently, so the result is only valid if no write lock was acquired meanwhile
+        long overrideStamp = overrideTreeLock.tryOptimisticRead();
+        long vipStamp = vipTreeLock.tryOptimisticRead();
+        long priorityStamp = priorityTreeLock.tryOptimisticRead();
+        long normalStamp = normalTreeLock.tryOptimisticRead();
+        if (overrideStamp != 0L && vipStamp != 0L && priorityStamp != 0L && normalStamp != 0L) {
+            try {
+                int position = countOutranking(rankedTask, currentTime);
+                boolean dequeued = rankedTask.isDequeued();
+                if (overrideTreeLock.validate(overrideStamp) && vipTreeLock.validate(vipStamp) &&
+                    priorityTreeLock.validate(priorityStamp) && normalTreeLock.validate(normalStamp)) {
+                    return dequeued ? -1 : position;
+                }
+            } catch (RuntimeException ex) {
+                // An inconsistent state of a tree was observed; fall through to the locking read
             }
         }
+
+        log.debug("{}: Concurrent modification detected; counting under the read locks", methodName);
+        lockTaskTrees(0, false);
+        try {
+            return rankedTask.isDequeued() ? -1 : countOutranking(rankedTask, currentTime);
+        } finally {
+            unlockTaskTrees(0, false);
+        }
     }
 
     /**
@@ -366,50 +581,174 @@ public class TaskPriorityQueue {
      * @return Status of the operation: {@code Status.S_OK} if deleted;
      *         {@code Status.E_TASK_NOT_FOUND} if the ID was not found
      */
-    public Status deleteTask(Long id) {
+    @Override
+    public Status deleteTask(long id) {
         String methodName = "deleteTask";
-        log.info("{}: Trying to delete task: {}", methodName, id);
-        IDTask idTask = new IDTask(id);
-        synchronized (idTaskTree) {
-            Node<IDTask> idNode = idTaskTree.findValue(idTask);
-            if (idNode != null) {
-                log.info("{}: Task {} found, deleting", methodName, id);
-
-                RankedTask rankedTask = idNode.getData().getLinkedRankedTask();
-                switch (rankedTask.getTaskClass()) {
-                    case MANAGEMENT_OVERRIDE -> {
-                        synchronized (overrideTaskTree) { overrideTaskTree.deleteNode(rankedTask); }
-                    }
-                    case VIP -> {
-                        synchronized (vipTaskTree) { vipTaskTree.deleteNode(rankedTask); };
-                    }
-                    case PRIORITY -> {
-                        synchronized (priorityTaskTree) { priorityTaskTree.deleteNode(rankedTask); };
-                    }
-                    default -> {
-                        synchronized (normalTaskTree) { normalTaskTree.deleteNode(rankedTask); };
+        log.debug("{}: Trying to delete task: {}", methodName, id);
+        RankedTask rankedTask;
+        long sequence = 0L;
+
+        int stripe = getIdIndexStripe(id);
+        StampedLock idIndexLock = idIndexLocks[stripe];
+        long idStamp = idIndexLock.writeLock();
+        try {
+            rankedTask = idIndex[stripe].remove(id);
+            if (rankedTask != null) {
+                RankedTask.TaskClass taskClass = rankedTask.getTaskClass();
+                StampedLock taskTreeLock = getTaskTreeLock(taskClass);
+                long taskStamp = lockTaskTree(getTaskTreeIndex(taskClass), true);
+                try {
+                    if (rankedTask.isDequeued()) {
+                        // The task has just been polled
+                        rankedTask = null;
+                    } else {
+                        getTaskTree(taskClass).deleteNode(rankedTask);
+                        rankedTask.markDequeued();
+                        waitTimes.remove(id, rankedTask.getEnqueueTime());
+                        sequence = journal.logDelete(id);
                     }
+                } finally {
+                    taskTreeLock.unlockWrite(taskStamp);
                 }
+            }
+        } finally {
+            idIndexLock.unlockWrite(idStamp);
+        }
 
-                idTaskTree.deleteNode(idTask);
-                n--;
-                if (n < 0) {
-                    log.error("{}: Queue size is negative; resetting", methodName);
-                    n = 0;
-                }
+        if (rankedTask != null) {
+            log.debug("{}: Task {} found and deleted", methodName, id);
+            releaseCapacity(rankedTask.getEnqueueTime());
+            journal.awaitDurable(sequence);
+            return Status.S_OK;
+        } else {
+            log.debug("{}: Task {} NOT found", methodName, id);
+            return Status.E_TASK_NOT_FOUND;
+        }
+    }
 
-                sumEnqueueTime -= idNode.getData().getLinkedRankedTask().getEnqueueTime();
-                if (sumEnqueueTime < 0) {
-                    log.error("{}: Sum enqueue time is negative; resetting", methodName);
-                    sumEnqueueTime = 0L;
-                }
+    /**
+     * Get the maximum number of tasks in the queue
+     * @return queue capacity
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
 
-                return Status.S_OK;
-            } else {
-                log.info("{}: Task {} NOT found", methodName, id);
-                return Status.E_TASK_NOT_FOUND;
+    /**
+     * Get the number of tasks in the queue
+     * @return queue size
+     */
+    @Override
+    public int size() {
+        long stamp = statsLock.tryOptimisticRead();
+        int size = n;
+        if (!statsLock.validate(stamp)) {
+            stamp = statsLock.readLock();
+            try {
+                size = n;
+            } finally {
+                statsLock.unlockRead(stamp);
             }
         }
+
+        return size;
+    }
+
+    /**
+     * Get the number of tasks of a class in the queue
+     * @param taskClass class of the tasks
+     * @return number of tasks of the class
+     */
+    @Override
+    public int size(RankedTask.TaskClass taskClass) {
+        return waitTimes.size(taskClass);
+    }
+
+    /**
+     * Get the number of times a ranked task tree lock was held by another
+     * thread when acquired, since the queue was created
+     * @param taskClass class of the tree
+     * @return number of contended acquisitions
+     */
+    public long getLockWaitCount(RankedTask.TaskClass taskClass) {
+        return lockWaits[getTaskTreeIndex(taskClass)].sum();
+    }
+
+    /**
+     * Get the total time spent waiting for a ranked task tree lock held by
+     * another thread, since the queue was created
+     * @param taskClass class of the tree
+     * @return number of nanoseconds
+     */
+    public long getLockWaitNanos(RankedTask.TaskClass taskClass) {
+        return lockWaitNanos[getTaskTreeIndex(taskClass)].sum();
+    }
+
+    /**
+     * Get the black height of a ranked task tree; it is read along a single
+     * path under the read lock of the tree only, so it is cheap enough to
+     * monitor. The tree height is between it and twice it
+     * @param taskClass class of the tree
+     * @return tree black height
+     */
+    public int getTreeBlackHeight(RankedTask.TaskClass taskClass) {
+        int i = getTaskTreeIndex(taskClass);
+        long stamp = lockTaskTree(i, false);
+        try {
+            return getTaskTree(taskClass).blackHeight();
+        } finally {
+            taskTreeLocks[i].unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the height of the highest tree of the queue. It must stay
+     * logarithmic of the queue size. Every tree is walked under the read
+     * locks, so it is meant for the checks rather than for the monitoring
+     * @return maximum tree height
+     */
+    public int getMaxTreeHeight() {
+        lockTaskTrees(0, false);
+        try {
+            return Math.max(Math.max(overrideTaskTree.height(), vipTaskTree.height()),
+                            Math.max(priorityTaskTree.height(), normalTaskTree.height()));
+        } finally {
+            unlockTaskTrees(0, false);
+        }
+    }
+
+    /**
+     * Set the journal to record the modifications of the queue in
+     * @param journal the journal ({@link TaskJournal#NONE} to record nothing)
+     */
+    @Override
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Get all the tasks in the queue at a single moment. The tasks are listed
+     * by class from the highest to lowest and in the tree order within a class,
+     * so they can be bulk-loaded back cheaply. The given action is run at that
+     * moment while no modification can proceed (e.g. to mark the journal)
+     * @param atMoment action to run while the queue is locked
+     * @return List of all the tasks
+     */
+    @Override
+    public List<RankedTask> getTaskSnapshot(Runnable atMoment) {
+        lockTaskTrees(0, false);
+        try {
+            atMoment.run();
+            List<RankedTask> tasks = new ArrayList<>(size());
+            tasks.addAll(overrideTaskTree.buildNodeList());
+            tasks.addAll(vipTaskTree.buildNodeList());
+            tasks.addAll(priorityTaskTree.buildNodeList());
+            tasks.addAll(normalTaskTree.buildNodeList());
+            return tasks;
+        } finally {
+            unlockTaskTrees(0, false);
+        }
     }
 
     /**
@@ -417,20 +756,313 @@ public class TaskPriorityQueue {
      * each ID has been waiting in the queue.
      * @return Expected Wait Time (zero if the queue is empty)
      */
+    @Override
     public Long getExpectedWaitTime() {
         String methodName = "getExpectedWaitTime";
-        log.info("{}: Getting the average wait time in the queue", methodName);
-        if (n == 0) {
-            log.info("{}: Queue is empty; returning zero", methodName);
+        log.debug("{}: Getting the average wait time in the queue", methodName);
+
+        long stamp = statsLock.tryOptimisticRead();
+        int size = n;
+        long sum = sumEnqueueTime;
+        if (!statsLock.validate(stamp)) {
+            stamp = statsLock.readLock();
+            try {
+                size = n;
+                sum = sumEnqueueTime;
+            } finally {
+                statsLock.unlockRead(stamp);
+            }
+        }
+
+        if (size == 0) {
+            log.debug("{}: Queue is empty; returning zero", methodName);
             return 0L;
         } else {
             long currentTime = Instant.now().getEpochSecond();
-            log.info("{}: Queue is NOT empty; size: {}; sumEnqueueTime: {}; currentUtcTime: {}", methodName, n, sumEnqueueTime, currentTime);
-            return currentTime - (sumEnqueueTime / n);
+            log.debug("{}: Queue is NOT empty; size: {}; sumEnqueueTime: {}; currentUtcTime: {}", methodName, size, sum, currentTime);
+            return currentTime - (sum / size);
+        }
+    }
+
+    /**
+     * Estimate the percentiles of the number of seconds the tasks of a class
+     * have been waiting in the queue. The tasks are counted in a histogram per
+     * class as they enter and leave the trees, so the trees are not visited
+     * @param taskClass class of the tasks
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return wait time for every percentile in the same order (zeros if there are no tasks of the class)
+     */
+    @Override
+    public long[] getWaitTimePercentiles(RankedTask.TaskClass taskClass, double... percentiles) {
+        return waitTimes.getPercentiles(taskClass, Instant.now().getEpochSecond(), percentiles);
+    }
+
+    // Insert the accepted new tasks of the same class (sorted by rank) into their tree
+    // in bulk. Must be called under the write lock of the tree
+    private void insertNewRankedTasks(List<Integer> indexes, RankedTask[] newRankedTasks, Status[] statuses) {
+        List<RankedTask> sortedTasks = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            if (statuses[i] == Status.S_OK) {
+                sortedTasks.add(newRankedTasks[i]);
+            }
+        }
+
+        if (!sortedTasks.isEmpty()) {
+            getTaskTree(sortedTasks.get(0).getTaskClass()).insertAll(sortedTasks);
+        }
+    }
+
+    // Poll the highest ranked head of the VIP, Priority and Normal trees. The trees are
+    // checked from the highest class to the lowest, so equal ranks are resolved in favour
+    // of the higher class. Must be called under the write locks of these trees
+    private RankedTask pollHighestRanked(long currentTime) {
+        RankedTask highestTask = vipTaskTree.findMaxData();
+        RedBlackTree<RankedTask> highestTree = highestTask != null ? vipTaskTree : null;
+
+        RankedTask priorityTask = priorityTaskTree.findMaxData();
+        if (priorityTask != null && (highestTask == null || priorityTask.outranks(highestTask, currentTime))) {
+            highestTree = priorityTaskTree;
+            highestTask = priorityTask;
+        }
+
+        RankedTask normalTask = normalTaskTree.findMaxData();
+        if (normalTask != null && (highestTask == null || normalTask.outranks(highestTask, currentTime))) {
+            highestTree = normalTaskTree;
+        }
+
+        return highestTree != null ? highestTree.pollMaximum() : null;
+    }
+
+    /**
+     * Iterator over all the tasks in the queue from the highest rank to lowest.
+     * Management Override tasks go first; the VIP, Priority and Normal trees are
+     * merged lazily by the ranks at the given moment. The heads are compared by
+     * their crossover ages (see {@link RankCrossover}); with three trees a scan
+     * over the heads is cheaper than a heap. The trees must be locked while the
+     * iterator is used
+     */
+    private class RankedTaskIterator implements Iterator<RankedTask> {
+        private final long currentTime;
+        private final Iterator<RankedTask> overrideTasks;
+        private final List<Iterator<RankedTask>> classTasks; // from the highest class to the lowest
+        private final RankedTask[] heads;
+
+        RankedTaskIterator(long currentTime) {
+            this.currentTime = currentTime;
+            overrideTasks = overrideTaskTree.descendingIterator();
+            classTasks = List.of(vipTaskTree.descendingIterator(),
+                                 priorityTaskTree.descendingIterator(),
+                                 normalTaskTree.descendingIterator());
+            heads = new RankedTask[classTasks.size()];
+            for (int i = 0; i < heads.length; i++) {
+                advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (overrideTasks.hasNext()) {
+                return true;
+            }
+
+            for (RankedTask head : heads) {
+                if (head != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public RankedTask next() {
+            if (overrideTasks.hasNext()) {
+                return overrideTasks.next();
+            }
+
+            // Equal ranks are resolved in favour of the higher class
+            int highest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] != null && (highest < 0 || heads[i].outranks(heads[highest], currentTime))) {
+                    highest = i;
+                }
+            }
+
+            if (highest < 0) {
+                throw new NoSuchElementException("TaskPriorityQueue:RankedTaskIterator: No more tasks");
+            }
+
+            RankedTask task = heads[highest];
+            advance(highest);
+            return task;
+        }
+
+        private void advance(int i) {
+            Iterator<RankedTask> tasks = classTasks.get(i);
+            heads[i] = tasks.hasNext() ? tasks.next() : null;
+        }
+    }
+
+    // Count the tasks of all classes that outrank the given one; every class tree keeps
+    // such tasks at its tail so each of them is counted in O(log n)
+    private int countOutranking(RankedTask task, long currentTime) {
+        return countOutranking(overrideTaskTree, task, currentTime) +
+               countOutranking(vipTaskTree, task, currentTime) +
+               countOutranking(priorityTaskTree, task, currentTime) +
+               countOutranking(normalTaskTree, task, currentTime);
+    }
+
+    private int countOutranking(RedBlackTree<RankedTask> tree, RankedTask task, long currentTime) {
+        return tree.countTail(otherTask -> otherTask.outranks(task, currentTime));
+    }
+
+    // Reserve the place for a new task and account its enqueue time
+    private boolean reserveCapacity(long enqueueTime) {
+        long stamp = statsLock.writeLock();
+        try {
+            if (n >= capacity) {
+                return false;
+            }
+
+            n++;
+            sumEnqueueTime += enqueueTime;
+            return true;
+        } finally {
+            statsLock.unlockWrite(stamp);
         }
     }
 
-    private Status validateId(Long id) {
+    // Reserve the places for the accepted new tasks in the given order; the tasks that do not fit are rejected
+    private void reserveCapacity(RankedTask[] newRankedTasks, Status[] statuses) {
+        long stamp = statsLock.writeLock();
+        try {
+            for (int i = 0; i < newRankedTasks.length; i++) {
+                if (statuses[i] != Status.S_OK) {
+                    continue;
+                }
+
+                if (n >= capacity) {
+                    statuses[i] = Status.E_QUEUE_FULL;
+                } else {
+                    n++;
+                    sumEnqueueTime += newRankedTasks[i].getEnqueueTime();
+                }
+            }
+        } finally {
+            statsLock.unlockWrite(stamp);
+        }
+    }
+
+    // Free the place of a task that has left the queue (or has not been added)
+    private void releaseCapacity(long enqueueTime) {
+        releaseCapacity(1, enqueueTime);
+    }
+
+    // Free the places of several tasks at once; the enqueue times are summed up
+    private void releaseCapacity(int count, long enqueueTimes) {
+        String methodName = "releaseCapacity";
+        long stamp = statsLock.writeLock();
+        try {
+            n -= count;
+            if (n < 0) {
+                log.error("{}: Queue size is negative; resetting", methodName);
+                // TODO: For some robustness it may be worth implementing a method
+                //  that calculates the queue size in case of invalid size stored
+                n = 0;
+            }
+
+            sumEnqueueTime -= enqueueTimes;
+            if (sumEnqueueTime < 0) {
+                log.error("{}: Sum enqueue time is negative; resetting", methodName);
+                sumEnqueueTime = 0L;
+            }
+        } finally {
+            statsLock.unlockWrite(stamp);
+        }
+    }
+
+    // Delete the ID of a dequeued task unless it has already been deleted (and maybe re-added)
+    private void deleteIndexedTask(RankedTask task) {
+        int stripe = getIdIndexStripe(task.getId());
+        StampedLock idIndexLock = idIndexLocks[stripe];
+        long stamp = idIndexLock.writeLock();
+        try {
+            idIndex[stripe].remove(task.getId(), task);
+        } finally {
+            idIndexLock.unlockWrite(stamp);
+        }
+    }
+
+    private int getIdIndexStripe(long id) {
+        // Fibonacci hashing spreads the sequential IDs over the stripes
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Integer.numberOfTrailingZeros(ID_INDEX_STRIPES)));
+    }
+
+    private RedBlackTree<RankedTask> getTaskTree(RankedTask.TaskClass taskClass) {
+        return switch (taskClass) {
+            case MANAGEMENT_OVERRIDE -> overrideTaskTree;
+            case VIP -> vipTaskTree;
+            case PRIORITY -> priorityTaskTree;
+            default -> normalTaskTree;
+        };
+    }
+
+    private StampedLock getTaskTreeLock(RankedTask.TaskClass taskClass) {
+        return switch (taskClass) {
+            case MANAGEMENT_OVERRIDE -> overrideTreeLock;
+            case VIP -> vipTreeLock;
+            case PRIORITY -> priorityTreeLock;
+            default -> normalTreeLock;
+        };
+    }
+
+    // Lock all the ID index stripes; they are always acquired in the same order
+    private void lockIdIndex() {
+        for (StampedLock idIndexLock : idIndexLocks) {
+            idIndexLock.asWriteLock().lock();
+        }
+    }
+
+    private void unlockIdIndex() {
+        for (int i = idIndexLocks.length - 1; i >= 0; i--) {
+            idIndexLocks[i].asWriteLock().unlock();
+        }
+    }
+
+    // Lock the ranked task trees starting from the given one in the order of acquisition
+    private void lockTaskTrees(int from, boolean exclusive) {
+        for (int i = from; i < taskTreeLocks.length; i++) {
+            lockTaskTree(i, exclusive);
+        }
+    }
+
+    // Lock a ranked task tree by its index in the order of acquisition; only a contended lock is timed
+    private long lockTaskTree(int i, boolean exclusive) {
+        StampedLock lock = taskTreeLocks[i];
+        long stamp = exclusive ? lock.tryWriteLock() : lock.tryReadLock();
+        if (stamp == 0L) {
+            long startNanos = System.nanoTime();
+            stamp = exclusive ? lock.writeLock() : lock.readLock();
+            lockWaitNanos[i].add(System.nanoTime() - startNanos);
+            lockWaits[i].increment();
+        }
+        return stamp;
+    }
+
+    private static int getTaskTreeIndex(RankedTask.TaskClass taskClass) {
+        return RankedTask.TaskClass.MANAGEMENT_OVERRIDE.ordinal() - taskClass.ordinal();
+    }
+
+    private void unlockTaskTrees(int from, boolean exclusive) {
+        for (int i = taskTreeLocks.length - 1; i >= from; i--) {
+            if (exclusive) {
+                taskTreeLocks[i].asWriteLock().unlock();
+            } else {
+                taskTreeLocks[i].asReadLock().unlock();
+            }
+        }
+    }
+
+    static Status validateId(long id) {
         if (id <= 0) {
             return Status.E_NEGATIVE_ID;
         } else {
@@ -438,8 +1070,11 @@ public class TaskPriorityQueue {
         }
     }
 
-    private Status validateEnqueueTime(Long enqueueTime) {
-        long currentTime = Instant.now().getEpochSecond();
+    static Status validateEnqueueTime(long enqueueTime) {
+        return validateEnqueueTime(enqueueTime, Instant.now().getEpochSecond());
+    }
+
+    static Status validateEnqueueTime(long enqueueTime, long currentTime) {
         if (enqueueTime <= 0 || enqueueTime > currentTime) {
             return Status.E_INVALID_ENQUEUE_TIME;
         } else {
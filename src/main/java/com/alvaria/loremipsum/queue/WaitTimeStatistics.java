@@ -0,0 +1,109 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code WaitTimeStatistics} class keeps a {@link WaitTimeHistogram} of
+ * the queued tasks per task class, so the engines report the percentiles of
+ * the wait times without visiting the tasks. The class is thread-safe: every
+ * histogram is guarded by its own lock, which is held for a few array
+ * operations only and never while acquiring another lock. The locks are not
+ * monitors, so a virtual thread waiting for one does not pin its carrier.
+ *
+ * @author Nikita Nikolaev
+ */
+final class WaitTimeStatistics {
+
+    private final WaitTimeHistogram[] histograms;
+    private final ReentrantLock[] locks;
+
+    WaitTimeStatistics() {
+        histograms = new WaitTimeHistogram[RankedTask.TaskClass.values().length];
+        locks = new ReentrantLock[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new WaitTimeHistogram();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Count a task entering the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued
+     * @param currentTime UTC time now
+     */
+    void add(long id, long enqueueTime, long currentTime) {
+        int i = RankedTask.classOf(id).ordinal();
+        locks[i].lock();
+        try {
+            histograms[i].add(enqueueTime, currentTime);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * Uncount a task leaving the queue
+     * @param id task ID
+     * @param enqueueTime UTC time when the task was enqueued
+     */
+    void remove(long id, long enqueueTime) {
+        int i = RankedTask.classOf(id).ordinal();
+        locks[i].lock();
+        try {
+            histograms[i].remove(enqueueTime);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * Estimate the percentiles of the wait times of the tasks of a class
+     * @param taskClass class of the tasks
+     * @param currentTime UTC time now
+     * @param percentiles percentiles to estimate, each from 0 to 100
+     * @return number of seconds for every percentile in the same order
+     *         (zeros if there are no tasks of the class)
+     */
+    long[] getPercentiles(RankedTask.TaskClass taskClass, long currentTime, double... percentiles) {
+        int j = taskClass.ordinal();
+        long[] waitTimes = new long[percentiles.length];
+        locks[j].lock();
+        try {
+            for (int i = 0; i < percentiles.length; i++) {
+                waitTimes[i] = histograms[j].getPercentile(percentiles[i], currentTime);
+            }
+        } finally {
+            locks[j].unlock();
+        }
+        return waitTimes;
+    }
+
+    /**
+     * Get the number of the tasks of a class
+     * @param taskClass class of the tasks
+     * @return number of tasks
+     */
+    int size(RankedTask.TaskClass taskClass) {
+        int i = taskClass.ordinal();
+        locks[i].lock();
+        try {
+            return (int) histograms[i].size();
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < histograms.length; i++) {
+            locks[i].lock();
+            try {
+                histograms[i].clear();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package com.alvaria.loremipsum.redblacktree;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * The {@code LongRedBlackTree} class represents a Red-Black tree of primitive
+ * {@code long} keys, each with a {@code long} value, kept in parallel arrays.
+ * The nodes are referred to by their {@code int} indexes instead of object
+ * references, so a node costs 33 bytes (key, value, three links, subtree size
+ * and color) and the whole tree is a handful of arrays for the garbage
+ * collector, however many nodes it holds.
+ *
+ * The nodes are sorted by their keys in ascending order and the nodes of
+ * equal keys by their values, so a key may repeat but a (key, value) pair is
+ * unique. Every node keeps the size of its subtree, so the order statistics
+ * take logarithmic time as in {@link RedBlackTree}. Index {@link #NIL} is the
+ * sentinel leaf; the indexes of the deleted nodes are reused by the following
+ * insertions, and the index of a node never changes while the node is in the
+ * tree.
+ *
+ * The tree may also be kept as a sequence in an order known only to the
+ * caller: {@link #insertBefore} and {@link #swap} place the nodes without
+ * comparing them, and the order statistics and the traversals work the same.
+ * Such a tree must not be searched or inserted into by the keys.
+ *
+ * The tree is not thread-safe.
+ *
+ * @author Nikita Nikolaev
+ */
+public class LongRedBlackTree {
+
+    /**
+     * Index of the sentinel leaf; returned when there is no such node
+     */
+    public static final int NIL = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int[] left;
+    private int[] right; // also links the free nodes
+    private int[] parent;
+    private int[] size; // Number of nodes in the subtree rooted at the node
+    private boolean[] red;
+
+    private int root;
+    private int allocated; // Number of the node indexes ever used (including NIL)
+    private int freeList; // Head of the list of the deleted nodes
+
+    public LongRedBlackTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     * @param expectedSize number of nodes the tree may hold without resizing
+     */
+    public LongRedBlackTree(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("LongRedBlackTree: expected size must not be negative");
+
+        int capacity = Math.max(DEFAULT_CAPACITY, expectedSize + 1);
+        keys = new long[capacity];
+        values = new long[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        size = new int[capacity];
+        red = new boolean[capacity];
+        root = NIL;
+        allocated = 1;
+        freeList = NIL;
+    }
+
+    /**
+     * Get the number of nodes in the tree
+     * @return tree size
+     */
+    public int size() {
+        return size[root];
+    }
+
+    /**
+     * Get the height of the tree (the number of nodes on the longest path)
+     * @return tree height
+     */
+    public int height() {
+        return subtreeHeight(root);
+    }
+
+    /**
+     * Find the node of the given key and value
+     * @param key to find
+     * @param value of the key
+     * @return index of the node if found;
+     *         {@link #NIL} otherwise
+     */
+    public int find(long key, long value) {
+        int node = root;
+        int comparison;
+        while (node != NIL && (comparison = compare(key, value, node)) != 0) {
+            node = comparison < 0 ? left[node] : right[node];
+        }
+
+        return node;
+    }
+
+    /**
+     * Insert a new node
+     * @param key key of the node
+     * @param value value of the key
+     * @return index of the new node
+     * @throws IllegalArgumentException if the node of the same key and value
+     *         already exists
+     */
+    public int insert(long key, long value) {
+        int parentNode = NIL;
+        int node = root;
+        int comparison = 0;
+        while (node != NIL) {
+            comparison = compare(key, value, node);
+            if (comparison == 0) {
+                throw new IllegalArgumentException("LongRedBlackTree:insert(): Node already exists");
+            }
+            parentNode = node;
+            node = comparison < 0 ? left[node] : right[node];
+        }
+
+        return link(parentNode, comparison < 0, key, value);
+    }
+
+    /**
+     * Insert a new node right before the given one in the sequence, without
+     * comparing it to the other nodes
+     * @param next index of the node to insert before ({@link #NIL} to append
+     *             the new node to the end)
+     * @param key key of the node
+     * @param value value of the key
+     * @return index of the new node
+     */
+    public int insertBefore(int next, long key, long value) {
+        if (next == NIL) {
+            return link(last(), false, key, value);
+        } else if (left[next] == NIL) {
+            return link(next, true, key, value);
+        }
+
+        int previous = left[next];
+        while (right[previous] != NIL) {
+            previous = right[previous];
+        }
+        return link(previous, false, key, value);
+    }
+
+    /**
+     * Swap the keys and values of two nodes, so each of them takes the place
+     * of the other one in the sequence; the indexes of the nodes stay
+     * @param node index of the node
+     * @param otherNode index of the other node
+     */
+    public void swap(int node, int otherNode) {
+        long key = keys[node];
+        long value = values[node];
+        keys[node] = keys[otherNode];
+        values[node] = values[otherNode];
+        keys[otherNode] = key;
+        values[otherNode] = value;
+    }
+
+    /**
+     * Insert several nodes at once. If the batch is at least as large as the
+     * tree, the tree is rebuilt from the merged sorted sequence in linear time;
+     * otherwise the nodes are inserted one by one
+     * @param sortedKeys keys sorted in ascending order
+     * @param sortedValues values of the keys, sorted in strictly ascending
+     *                     order within the equal keys
+     * @param count number of the keys to insert
+     * @return {@code true} if the tree was rebuilt, so the indexes of all the
+     *         nodes have changed; {@code false} if the nodes were inserted one
+     *         by one
+     * @throws IllegalArgumentException if the nodes are not sorted (the tree is
+     *         not modified then) or one of them already exists in the tree (the
+     *         preceding nodes may have been inserted then)
+     */
+    public boolean insertAll(long[] sortedKeys, long[] sortedValues, int count) {
+        for (int i = 1; i < count; i++) {
+            int comparison = Long.compare(sortedKeys[i - 1], sortedKeys[i]);
+            if (comparison > 0 || (comparison == 0 && sortedValues[i - 1] >= sortedValues[i])) {
+                throw new IllegalArgumentException("LongRedBlackTree:insertAll(): Keys are not sorted or not unique");
+            }
+        }
+
+        int treeSize = size();
+        if (count < treeSize) {
+            for (int i = 0; i < count; i++) {
+                insert(sortedKeys[i], sortedValues[i]);
+            }
+            return false;
+        }
+
+        // Merge the present nodes with the new ones (an empty tree is built from the batch as is)
+        long[] mergedKeys = sortedKeys;
+        long[] mergedValues = sortedValues;
+        int mergedCount = count;
+        if (treeSize > 0) {
+            mergedCount = treeSize + count;
+            mergedKeys = new long[mergedCount];
+            mergedValues = new long[mergedCount];
+            int node = first();
+            int j = 0;
+            for (int i = 0; i < mergedCount; i++) {
+                int comparison = j == count ? -1 : node == NIL ? 1 : -compare(sortedKeys[j], sortedValues[j], node);
+                if (comparison < 0) {
+                    mergedKeys[i] = keys[node];
+                    mergedValues[i] = values[node];
+                    node = successor(node);
+                } else {
+                    if (comparison == 0) {
+                        throw new IllegalArgumentException("LongRedBlackTree:insertAll(): Node already exists");
+                    }
+                    mergedKeys[i] = sortedKeys[j];
+                    mergedValues[i] = sortedValues[j++];
+                }
+            }
+            clear();
+        }
+
+        ensureCapacity(mergedCount + 1);
+        root = buildBalancedSubtree(mergedKeys, mergedValues, 0, mergedCount - 1, 0, maxDepth(mergedCount));
+        parent[root] = NIL;
+        red[root] = false;
+        return true;
+    }
+
+    /**
+     * Delete the given node
+     * @param node index of the node to delete
+     */
+    public void delete(int node) {
+        // The node that leaves its place: the deleted one or its successor that replaces it
+        int moved = left[node] == NIL || right[node] == NIL ? node : first(right[node]);
+        for (int ancestor = parent[moved]; ancestor != NIL; ancestor = parent[ancestor]) {
+            size[ancestor]--;
+        }
+
+        boolean movedWasRed = red[moved];
+        int child;
+        if (left[node] == NIL) {
+            child = right[node];
+            transplant(node, child);
+        } else if (right[node] == NIL) {
+            child = left[node];
+            transplant(node, child);
+        } else {
+            child = right[moved];
+            if (parent[moved] == node) {
+                parent[child] = moved;
+            } else {
+                transplant(moved, child);
+                right[moved] = right[node];
+                parent[right[moved]] = moved;
+            }
+            transplant(node, moved);
+            left[moved] = left[node];
+            parent[left[moved]] = moved;
+            red[moved] = red[node];
+            size[moved] = size[node];
+        }
+
+        if (!movedWasRed) {
+            fixAfterDeletion(child);
+        }
+        size[NIL] = 0;
+        red[NIL] = false;
+        releaseNode(node);
+    }
+
+    /**
+     * Delete all the nodes
+     */
+    public void clear() {
+        root = NIL;
+        allocated = 1;
+        freeList = NIL;
+    }
+
+    /**
+     * Get the node of the smallest key (and the smallest value of the key)
+     * @return index of the node ({@link #NIL} if the tree is empty)
+     */
+    public int first() {
+        return first(root);
+    }
+
+    /**
+     * Get the node of the greatest key (and the greatest value of the key)
+     * @return index of the node ({@link #NIL} if the tree is empty)
+     */
+    public int last() {
+        int node = root;
+        while (node != NIL && right[node] != NIL) {
+            node = right[node];
+        }
+
+        return node;
+    }
+
+    /**
+     * Get the next node in the order of the keys and values
+     * @param node index of the node
+     * @return index of the next node ({@link #NIL} if the node is the last one)
+     */
+    public int successor(int node) {
+        if (right[node] != NIL) {
+            return first(right[node]);
+        }
+
+        int ancestor = parent[node];
+        while (ancestor != NIL && node == right[ancestor]) {
+            node = ancestor;
+            ancestor = parent[ancestor];
+        }
+        return ancestor;
+    }
+
+    /**
+     * Get the previous node in the order of the keys and values
+     * @param node index of the node
+     * @return index of the previous node ({@link #NIL} if the node is the first one)
+     */
+    public int predecessor(int node) {
+        if (left[node] != NIL) {
+            node = left[node];
+            while (right[node] != NIL) {
+                node = right[node];
+            }
+            return node;
+        }
+
+        int ancestor = parent[node];
+        while (ancestor != NIL && node == left[ancestor]) {
+            node = ancestor;
+            ancestor = parent[ancestor];
+        }
+        return ancestor;
+    }
+
+    /**
+     * Get the key of the given node
+     * @param node index of the node
+     * @return key
+     */
+    public long keyOf(int node) {
+        return keys[node];
+    }
+
+    /**
+     * Get the value of the given node
+     * @param node index of the node
+     * @return value
+     */
+    public long valueOf(int node) {
+        return values[node];
+    }
+
+    /**
+     * Get the k-th node in the order of the keys and values
+     * @param k zero-based order of the node
+     * @return index of the node ({@link #NIL} if k is out of range)
+     */
+    public int select(int k) {
+        int node = root;
+        while (node != NIL) {
+            int leftSize = size[left[node]];
+            if (k < leftSize) {
+                node = left[node];
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = right[node];
+            } else {
+                return node;
+            }
+        }
+
+        return NIL;
+    }
+
+    /**
+     * Get the number of the nodes that precede the given one in the order of
+     * the keys and values
+     * @param node index of the node
+     * @return zero-based order of the node
+     */
+    public int rank(int node) {
+        int rank = size[left[node]];
+        for (int ancestor = parent[node]; ancestor != NIL; node = ancestor, ancestor = parent[ancestor]) {
+            if (node == right[ancestor]) {
+                rank += size[left[ancestor]] + 1;
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Count the smallest keys matching the given predicate. The predicate must
+     * be monotone: once it is false for a key it is false for all the greater
+     * keys
+     * @param predicate monotone predicate to check
+     * @return number of the smallest keys matching the predicate
+     */
+    public int countHead(LongPredicate predicate) {
+        int node = root;
+        int count = 0;
+        while (node != NIL) {
+            if (predicate.test(keys[node])) {
+                // The node and its whole left subtree match
+                count += size[left[node]] + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the first nodes matching the given predicate. The predicate must
+     * be monotone: once it is false for a node it is false for all the
+     * following nodes
+     * @param predicate monotone predicate to check for the node indexes
+     * @return number of the first nodes matching the predicate
+     */
+    public int countHeadNodes(IntPredicate predicate) {
+        int node = root;
+        int count = 0;
+        while (node != NIL) {
+            if (predicate.test(node)) {
+                count += size[left[node]] + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+
+        return count;
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Link a new red node as the given child of the parent and repair the tree
+    private int link(int parentNode, boolean asLeft, long key, long value) {
+        int node = allocateNode(key, value);
+        red[node] = true;
+        size[node] = 1;
+        parent[node] = parentNode;
+        if (parentNode == NIL) {
+            root = node;
+        } else if (asLeft) {
+            left[parentNode] = node;
+        } else {
+            right[parentNode] = node;
+        }
+
+        for (int ancestor = parentNode; ancestor != NIL; ancestor = parent[ancestor]) {
+            size[ancestor]++;
+        }
+
+        fixAfterInsertion(node);
+        return node;
+    }
+
+    // Compare the given key and value with the node's ones
+    private int compare(long key, long value, int node) {
+        int comparison = Long.compare(key, keys[node]);
+        return comparison != 0 ? comparison : Long.compare(value, values[node]);
+    }
+
+    private int first(int node) {
+        while (node != NIL && left[node] != NIL) {
+            node = left[node];
+        }
+
+        return node;
+    }
+
+    // Build a balanced subtree of the sorted range; the nodes of the lowest level of a perfectly
+    // balanced tree are red and all the others are black, so all the paths have equal black heights
+    private int buildBalancedSubtree(long[] sortedKeys, long[] sortedValues, int from, int to, int depth, int maxDepth) {
+        if (from > to) {
+            return NIL;
+        }
+
+        int middle = (from + to) >>> 1;
+        int node = allocateNode(sortedKeys[middle], sortedValues[middle]);
+        red[node] = depth == maxDepth;
+        size[node] = to - from + 1;
+
+        left[node] = buildBalancedSubtree(sortedKeys, sortedValues, from, middle - 1, depth + 1, maxDepth);
+        parent[left[node]] = node;
+        right[node] = buildBalancedSubtree(sortedKeys, sortedValues, middle + 1, to, depth + 1, maxDepth);
+        parent[right[node]] = node;
+        return node;
+    }
+
+    // Depth of the lowest level of a perfectly balanced tree of the given size
+    private int maxDepth(int count) {
+        return count == 0 ? 0 : Integer.SIZE - 1 - Integer.numberOfLeadingZeros(count);
+    }
+
+    private int subtreeHeight(int node) {
+        if (node == NIL) {
+            return 0;
+        }
+
+        return Math.max(subtreeHeight(left[node]), subtreeHeight(right[node])) + 1;
+    }
+
+    private int allocateNode(long key, long value) {
+        int node;
+        if (freeList != NIL) {
+            node = freeList;
+            freeList = right[node];
+        } else {
+            ensureCapacity(allocated + 1);
+            node = allocated++;
+        }
+
+        keys[node] = key;
+        values[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        return node;
+    }
+
+    private void releaseNode(int node) {
+        right[node] = freeList;
+        freeList = node;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, keys.length + (keys.length >> 1));
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            left = Arrays.copyOf(left, newCapacity);
+            right = Arrays.copyOf(right, newCapacity);
+            parent = Arrays.copyOf(parent, newCapacity);
+            size = Arrays.copyOf(size, newCapacity);
+            red = Arrays.copyOf(red, newCapacity);
+        }
+    }
+
+    // Replace the subtree rooted at the node with the other subtree (which may be NIL)
+    private void transplant(int node, int replacement) {
+        if (parent[node] == NIL) {
+            root = replacement;
+        } else if (node == left[parent[node]]) {
+            left[parent[node]] = replacement;
+        } else {
+            right[parent[node]] = replacement;
+        }
+        parent[replacement] = parent[node];
+    }
+
+    private void rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        if (left[child] != NIL) {
+            parent[left[child]] = node;
+        }
+        transplant(node, child);
+        left[child] = node;
+        parent[node] = child;
+
+        size[child] = size[node];
+        size[node] = size[left[node]] + size[right[node]] + 1;
+    }
+
+    private void rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        if (right[child] != NIL) {
+            parent[right[child]] = node;
+        }
+        transplant(node, child);
+        right[child] = node;
+        parent[node] = child;
+
+        size[child] = size[node];
+        size[node] = size[left[node]] + size[right[node]] + 1;
+    }
+
+    private void fixAfterInsertion(int node) {
+        while (red[parent[node]]) {
+            int parentNode = parent[node];
+            int grandparent = parent[parentNode];
+            if (parentNode == left[grandparent]) {
+                int uncle = right[grandparent];
+                if (red[uncle]) {
+                    red[parentNode] = false;
+                    red[uncle] = false;
+                    red[grandparent] = true;
+                    node = grandparent;
+                } else {
+                    if (node == right[parentNode]) {
+                        node = parentNode;
+                        rotateLeft(node);
+                        parentNode = parent[node];
+                    }
+                    red[parentNode] = false;
+                    red[grandparent] = true;
+                    rotateRight(grandparent);
+                }
+            } else {
+                int uncle = left[grandparent];
+                if (red[uncle]) {
+                    red[parentNode] = false;
+                    red[uncle] = false;
+                    red[grandparent] = true;
+                    node = grandparent;
+                } else {
+                    if (node == left[parentNode]) {
+                        node = parentNode;
+                        rotateRight(node);
+                        parentNode = parent[node];
+                    }
+                    red[parentNode] = false;
+                    red[grandparent] = true;
+                    rotateLeft(grandparent);
+                }
+            }
+        }
+        red[root] = false;
+    }
+
+    private void fixAfterDeletion(int node) {
+        while (node != root && !red[node]) {
+            int parentNode = parent[node];
+            if (node == left[parentNode]) {
+                int sibling = right[parentNode];
+                if (red[sibling]) {
+                    red[sibling] = false;
+                    red[parentNode] = true;
+                    rotateLeft(parentNode);
+                    sibling = right[parentNode];
+                }
+                if (!red[left[sibling]] && !red[right[sibling]]) {
+                    red[sibling] = true;
+                    node = parentNode;
+                } else {
+                    if (!red[right[sibling]]) {
+                        red[left[sibling]] = false;
+                        red[sibling] = true;
+                        rotateRight(sibling);
+                        sibling = right[parentNode];
+                    }
+                    red[sibling] = red[parentNode];
+                    red[parentNode] = false;
+                    red[right[sibling]] = false;
+                    rotateLeft(parentNode);
+                    node = root;
+                }
+            } else {
+                int sibling = left[parentNode];
+                if (red[sibling]) {
+                    red[sibling] = false;
+                    red[parentNode] = true;
+                    rotateRight(parentNode);
+                    sibling = left[parentNode];
+                }
+                if (!red[left[sibling]] && !red[right[sibling]]) {
+                    red[sibling] = true;
+                    node = parentNode;
+                } else {
+                    if (!red[left[sibling]]) {
+                        red[right[sibling]] = false;
+                        red[sibling] = true;
+                        rotateLeft(sibling);
+                        sibling = left[parentNode];
+                    }
+                    red[sibling] = red[parentNode];
+                    red[parentNode] = false;
+                    red[left[sibling]] = false;
+                    rotateRight(parentNode);
+                    node = root;
+                }
+            }
+        }
+        red[node] = false;
+    }
+}
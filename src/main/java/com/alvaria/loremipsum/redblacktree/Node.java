@@ -16,6 +16,7 @@ public class Node<V extends Comparable<V>> {
     Node<V> right;
     Node<V> parent;
     Color color;
+    int size; // Number of nodes in the subtree rooted at this node
 
     public Node(V data) {
         this.data = data;
@@ -23,6 +24,7 @@ public class Node<V extends Comparable<V>> {
         this.right = null;
         this.parent = null;
         this.color = Color.RED;
+        this.size = 1;
     }
 
     public V getData() {
@@ -3,17 +3,37 @@ package com.alvaria.loremipsum.redblacktree;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 
 /**
  * The {@code RedBlackTree} class represents a Red-Black tree that allows to
  * search/insert/delete nodes with logarithmic complexity *
+ *
+ * All the traversals (iterators, {@link #forEach}, {@link #toArray}) walk the
+ * tree through the parent links: they are not recursive and need no memory
+ * besides the result. The tree must not be modified during a traversal
  */
-public class RedBlackTree<V extends Comparable<V>> {
+public class RedBlackTree<V extends Comparable<V>> implements Iterable<V> {
+    // No path of a tree with up to Integer.MAX_VALUE nodes may be longer than this
+    private static final int MAX_HEIGHT = 64;
+
     private Node<V> root;
 
+    // Temporary leaf used to repair the Red-Black properties after deletion; there is
+    // at most one of them in the tree at a time, so it is reused to avoid allocations
+    private final NilNode nilNode;
+
     public RedBlackTree() {
         root = null;
+        nilNode = new NilNode();
     }
 
     /**
@@ -63,7 +83,7 @@ public class RedBlackTree<V extends Comparable<V>> {
         Node<V> newNode = new Node<V>(value);
         if (parent == null) {
             // The tree is empty, simply put the new value to the root
-            root = new Node<V>(value);
+            root = newNode;
             root.color = Node.Color.BLACK;
         } else if (value.compareTo(parent.data) < 0) {
             parent.left = newNode;
@@ -72,10 +92,67 @@ public class RedBlackTree<V extends Comparable<V>> {
         }
         newNode.parent = parent;
 
+        // Every ancestor of the new node has got one more node in its subtree
+        updateAncestorSizes(parent, 1);
+
         // Finally, need to repair the Red-Black properties of the tree
         repairRedBlackPropertiesAfterInsert(newNode);
     }
 
+    /**
+     * Insert several values into the tree at once. If the batch is at least as
+     * large as the tree, the tree is rebuilt bottom-up from the merged sorted
+     * sequence in linear time; otherwise the values are inserted one by one.
+     * @param sortedValues values sorted in strictly ascending order
+     * @throws IllegalArgumentException if the values are not sorted (the tree
+     *         is not modified then) or one of them already exists in the tree
+     *         (the preceding values may have been inserted then)
+     */
+    public void insertAll(List<V> sortedValues) {
+        for (int i = 1; i < sortedValues.size(); i++) {
+            if (sortedValues.get(i - 1).compareTo(sortedValues.get(i)) >= 0) {
+                throw new IllegalArgumentException("RedBlackTree:insertAll(): Values are not sorted or not unique");
+            }
+        }
+
+        int size = size();
+        if (sortedValues.size() < size) {
+            for (V value : sortedValues) {
+                insertNode(value);
+            }
+            return;
+        }
+
+        // Merge the present values with the new ones (an empty tree is built from the batch as is)
+        List<V> mergedValues = sortedValues;
+        if (size > 0) {
+            List<V> presentValues = new ArrayList<>(size);
+            forEach(presentValues::add);
+            mergedValues = new ArrayList<>(size + sortedValues.size());
+            int i = 0;
+            int j = 0;
+            while (i < presentValues.size() || j < sortedValues.size()) {
+                if (j == sortedValues.size()) {
+                    mergedValues.add(presentValues.get(i++));
+                } else if (i == presentValues.size()) {
+                    mergedValues.add(sortedValues.get(j++));
+                } else {
+                    int comparison = presentValues.get(i).compareTo(sortedValues.get(j));
+                    if (comparison == 0) {
+                        throw new IllegalArgumentException("RedBlackTree:insertAll(): Node already exists");
+                    }
+                    mergedValues.add(comparison < 0 ? presentValues.get(i++) : sortedValues.get(j++));
+                }
+            }
+        }
+
+        root = buildBalancedSubtree(mergedValues, 0, mergedValues.size() - 1, 0, maxDepth(mergedValues.size()));
+        if (root != null) {
+            root.parent = null;
+            root.color = Node.Color.BLACK;
+        }
+    }
+
     /**
      * Find the minimum Node
      * @return {@code node} if found;
@@ -174,11 +251,177 @@ public class RedBlackTree<V extends Comparable<V>> {
     }
 
     /**
-     * Build an array of elements sorted from min to max
+     * Get the number of elements in the tree
+     * @return tree size
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Get the height of the tree, i.e. the number of nodes on the longest
+     * path from the root to a leaf. Red-Black properties guarantee that it
+     * never exceeds {@code 2 * log2(size() + 1)}
+     * @return tree height (zero if the tree is empty)
+     */
+    public int height() {
+        return subtreeHeight(root);
+    }
+
+    /**
+     * Get the black height of the tree, i.e. the number of BLACK nodes on
+     * every path from the root to a leaf. It is read along the leftmost path
+     * in O(log n), and the height is between it and twice it
+     * @return tree black height (zero if the tree is empty)
+     */
+    public int blackHeight() {
+        int blackHeight = 0;
+        for (Node<V> node = root; node != null; node = node.left) {
+            if (node.color == Node.Color.BLACK) {
+                blackHeight++;
+            }
+        }
+        return blackHeight;
+    }
+
+    /**
+     * Get the number of elements that are less than the given value.
+     * The value itself does not need to be present in the tree
+     * @param value to get the rank of
+     * @return number of elements less than the value
+     */
+    public int rank(V value) {
+        Node<V> node = root;
+        int rank = 0;
+        while (node != null) {
+            if (value.compareTo(node.data) > 0) {
+                rank += sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Get the k-th smallest element of the tree
+     * @param k zero-based index of the element in the sorted order
+     * @return {@code value} if {@code 0 <= k < size()};
+     *         {@code null} otherwise
+     */
+    public V select(int k) {
+        Node<V> node = root;
+        while (node != null) {
+            int leftSize = sizeOf(node.left);
+            if (k < leftSize) {
+                node = node.left;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.data;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Count the elements of the longest tail of the sorted sequence that match
+     * the predicate. The predicate must be monotone: if it holds for a value
+     * then it must hold for every greater value too.
+     *
+     * The method may be used for optimistic reads (with no lock held while the
+     * tree is modified concurrently): the result is garbage then, but the walk
+     * is guaranteed to terminate
+     * @param predicate monotone predicate to check
+     * @return number of the greatest elements matching the predicate
+     * @throws ConcurrentModificationException if an impossible path was detected
+     */
+    public int countTail(Predicate<? super V> predicate) {
+        Node<V> node = root;
+        int count = 0;
+        for (int depth = 0; node != null; depth++) {
+            if (depth > MAX_HEIGHT) {
+                throw new ConcurrentModificationException("RedBlackTree:countTail(): The tree is being modified");
+            }
+
+            if (predicate.test(node.data)) {
+                // The node and its whole right subtree match
+                count += sizeOf(node.right) + 1;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get an iterator over the elements from min to max. Every step takes
+     * amortized constant time
+     * @return ascending iterator
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new TreeIterator(findMinimum(root), true);
+    }
+
+    /**
+     * Get an iterator over the elements from max to min. Every step takes
+     * amortized constant time
+     * @return descending iterator
+     */
+    public Iterator<V> descendingIterator() {
+        return new TreeIterator(findMaximum(root), false);
+    }
+
+    /**
+     * Get a spliterator over the elements from min to max
+     * @return sized and sorted spliterator
+     */
+    @Override
+    public Spliterator<V> spliterator() {
+        return Spliterators.spliterator(iterator(), size(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Perform the action for every element from min to max
+     * @param action to perform
+     */
+    @Override
+    public void forEach(Consumer<? super V> action) {
+        for (Node<V> node = findMinimum(root); node != null; node = successor(node)) {
+            action.accept(node.data);
+        }
+    }
+
+    /**
+     * Copy the elements sorted from min to max into a new array of the exact size
+     * @param generator creates an array of the given length
      * @return Sorted array of elements
      */
+    public V[] toArray(IntFunction<V[]> generator) {
+        V[] result = generator.apply(size());
+        int i = 0;
+        for (Node<V> node = findMinimum(root); node != null; node = successor(node)) {
+            result[i++] = node.data;
+        }
+
+        return result;
+    }
+
+    /**
+     * Build a list of elements sorted from min to max
+     * @return Sorted list of elements (empty if the tree is empty)
+     */
     public List<V> buildNodeList() {
-        List<V> result = buildSubtreeList(root);
+        List<V> result = new ArrayList<>(size());
+        forEach(result::add);
         return result;
     }
 
@@ -354,6 +597,10 @@ public class RedBlackTree<V extends Comparable<V>> {
         leftChild.right = node;
         node.parent = leftChild;
 
+        // The left child takes over the whole subtree; the node loses the left child's left subtree
+        leftChild.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+
         replaceParentsChild(parent, node, leftChild);
     }
 
@@ -369,6 +616,10 @@ public class RedBlackTree<V extends Comparable<V>> {
         rightChild.left = node;
         node.parent = rightChild;
 
+        // The right child takes over the whole subtree; the node loses the right child's right subtree
+        rightChild.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+
         replaceParentsChild(parent, node, rightChild);
     }
 
@@ -424,6 +675,7 @@ public class RedBlackTree<V extends Comparable<V>> {
 
         // Node has zero or one child
         if (node.left == null || node.right == null) {
+            updateAncestorSizes(node.parent, -1);
             movedUpNode = deleteNodeWithZeroOrOneChild(node);
             deletedNodeColor = node.color;
         }
@@ -436,6 +688,7 @@ public class RedBlackTree<V extends Comparable<V>> {
             node.data = inOrderSuccessor.data;
 
             // Delete inorder successor just as we would delete a node with 0 or 1 child
+            updateAncestorSizes(inOrderSuccessor.parent, -1);
             movedUpNode = deleteNodeWithZeroOrOneChild(inOrderSuccessor);
             deletedNodeColor = inOrderSuccessor.color;
         }
@@ -444,8 +697,9 @@ public class RedBlackTree<V extends Comparable<V>> {
             repairRedBlackPropertiesAfterDelete(movedUpNode);
 
             // Remove the temporary nil node
-            if (movedUpNode.getClass() == NilNode.class) {
-                replaceParentsChild(movedUpNode.parent, movedUpNode, null);
+            if (movedUpNode == nilNode) {
+                replaceParentsChild(nilNode.parent, nilNode, null);
+                nilNode.parent = null;
             }
         }
     }
@@ -464,7 +718,7 @@ public class RedBlackTree<V extends Comparable<V>> {
         // If the node is RED then simply delete it
         // If the node is BLACK then replace it with a temporary NilNode that is used to repair RB properties
         else {
-            Node<V> newChild = (node.color == Node.Color.BLACK) ? new NilNode() : null;
+            Node<V> newChild = (node.color == Node.Color.BLACK) ? nilNode : null;
             replaceParentsChild(node.parent, node, newChild);
             return newChild;
         }
@@ -474,6 +728,82 @@ public class RedBlackTree<V extends Comparable<V>> {
         private NilNode() {
             super(null);
             this.color = Color.BLACK;
+            this.size = 0;
+        }
+    }
+
+    // Get the node that follows the given one in the sorted order
+    private Node<V> successor(Node<V> node) {
+        if (node.right != null) {
+            return findMinimum(node.right);
+        }
+
+        // Go up until we come from a left child
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    // Get the node that precedes the given one in the sorted order
+    private Node<V> predecessor(Node<V> node) {
+        if (node.left != null) {
+            return findMaximum(node.left);
+        }
+
+        // Go up until we come from a right child
+        while (node.parent != null && node == node.parent.left) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    // Build a perfectly balanced subtree of the sorted values: all the empty links are at
+    // the two lowest levels, so painting the lowest level RED and the rest BLACK keeps
+    // the same number of BLACK nodes on every path
+    private Node<V> buildBalancedSubtree(List<V> sortedValues, int from, int to, int depth, int maxDepth) {
+        if (from > to) {
+            return null;
+        }
+
+        int middle = (from + to) >>> 1;
+        Node<V> node = new Node<>(sortedValues.get(middle));
+        node.color = depth == maxDepth ? Node.Color.RED : Node.Color.BLACK;
+        node.size = to - from + 1;
+
+        node.left = buildBalancedSubtree(sortedValues, from, middle - 1, depth + 1, maxDepth);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        node.right = buildBalancedSubtree(sortedValues, middle + 1, to, depth + 1, maxDepth);
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+
+        return node;
+    }
+
+    // Depth of the lowest level of a perfectly balanced tree of the given size
+    private int maxDepth(int size) {
+        return size == 0 ? 0 : Integer.SIZE - 1 - Integer.numberOfLeadingZeros(size);
+    }
+
+    private int sizeOf(Node<V> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private int subtreeHeight(Node<V> node) {
+        if (node == null) {
+            return 0;
+        }
+
+        return Math.max(subtreeHeight(node.left), subtreeHeight(node.right)) + 1;
+    }
+
+    private void updateAncestorSizes(Node<V> node, int delta) {
+        while (node != null) {
+            node.size += delta;
+            node = node.parent;
         }
     }
 
@@ -492,32 +822,29 @@ public class RedBlackTree<V extends Comparable<V>> {
         }
     }
 
-    private List<V> buildSubtreeList(Node<V> node) {
-        List<V> leftList = new ArrayList<>();
-        List<V> rightList = new ArrayList<>();
-        List<V> result = new ArrayList<>();
-        if (node == null) {
-            return null;
-        }
-
-        if (node.left != null) {
-            leftList = buildSubtreeList(node.left);
-        }
+    private class TreeIterator implements Iterator<V> {
+        private final boolean ascending;
+        private Node<V> next;
 
-        if (node.right != null) {
-            rightList = buildSubtreeList(node.right);
+        private TreeIterator(Node<V> first, boolean ascending) {
+            this.next = first;
+            this.ascending = ascending;
         }
 
-        if (!leftList.isEmpty()) {
-            result.addAll(leftList);
+        @Override
+        public boolean hasNext() {
+            return next != null;
         }
 
-        result.add(node.data);
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException("RedBlackTree:iterator(): No more elements");
+            }
 
-        if (!rightList.isEmpty()) {
-            result.addAll(rightList);
+            V data = next.data;
+            next = ascending ? successor(next) : predecessor(next);
+            return data;
         }
-
-        return result;
     }
 }
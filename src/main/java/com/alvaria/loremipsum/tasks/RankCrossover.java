@@ -0,0 +1,95 @@
+package com.alvaria.loremipsum.tasks;
+
+/**
+ * The {@code RankCrossover} class compares the ranks of the tasks of different
+ * classes without computing them. Every rank is a non-decreasing function of
+ * the task age, so for a task of a higher class and the given age there is the
+ * crossover age: the oldest age of a lower class task that it still outranks
+ * (equal ranks are resolved in favour of the higher class). The crossover ages
+ * of the ages below {@link #TABLE_SIZE} seconds are computed once by
+ * {@link RankedTask#rankAt}, so the comparison of such tasks takes a table
+ * lookup and an integer comparison and gives exactly the same result as the
+ * comparison of the ranks. Only the older tasks may have to be ranked.
+ *
+ * @author Nikita Nikolaev
+ */
+public final class RankCrossover {
+
+    // Ages covered by the tables (about 18 hours); the tables take 768 KB
+    static final int TABLE_SIZE = 1 << 16;
+
+    private static final int[] VIP_OVER_PRIORITY = crossovers(RankedTask.TaskClass.VIP, RankedTask.TaskClass.PRIORITY);
+    private static final int[] VIP_OVER_NORMAL = crossovers(RankedTask.TaskClass.VIP, RankedTask.TaskClass.NORMAL);
+    private static final int[] PRIORITY_OVER_NORMAL = crossovers(RankedTask.TaskClass.PRIORITY, RankedTask.TaskClass.NORMAL);
+
+    private RankCrossover() {
+    }
+
+    /**
+     * Checks whether a task must be placed before a task of another class at
+     * the same moment, as {@link RankedTask#outranks} does: Management Override
+     * tasks are always placed first, the older task of the same class goes
+     * first, otherwise the higher rank wins and equal ranks are resolved in
+     * favour of the higher task class.
+     *
+     * @param taskClass class of the task
+     * @param age number of seconds the task has been waiting in the queue
+     * @param otherClass class of the other task
+     * @param otherAge number of seconds the other task has been waiting in the queue
+     * @return {@code true} if the task outranks the other one
+     */
+    public static boolean outranks(RankedTask.TaskClass taskClass, long age, RankedTask.TaskClass otherClass, long otherAge) {
+        int comparison = taskClass.compareTo(otherClass);
+        if (comparison == 0) {
+            return age > otherAge;
+        } else if (taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE || otherClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
+            return taskClass == RankedTask.TaskClass.MANAGEMENT_OVERRIDE;
+        }
+
+        return comparison > 0 ?
+               higherOutranks(taskClass, age, otherClass, otherAge) :
+               !higherOutranks(otherClass, otherAge, taskClass, age);
+    }
+
+    // ---------------------------- Private methods ----------------------------
+
+    // Check whether the task of the higher class outranks (or is ranked equal to) the lower one
+    private static boolean higherOutranks(RankedTask.TaskClass higherClass, long age,
+                                          RankedTask.TaskClass lowerClass, long lowerAge) {
+        int[] crossovers = getCrossovers(higherClass, lowerClass);
+        if (age >= 0 && age < crossovers.length) {
+            return lowerAge <= crossovers[(int) age];
+        }
+
+        // The crossover age only grows with the age, so the last one of the table still holds
+        if (age >= crossovers.length && lowerAge <= crossovers[crossovers.length - 1]) {
+            return true;
+        }
+        return rankOf(lowerClass, lowerAge) <= rankOf(higherClass, age);
+    }
+
+    // Both ranks grow with the age, so the crossover age of the lower class only moves forward
+    private static int[] crossovers(RankedTask.TaskClass higherClass, RankedTask.TaskClass lowerClass) {
+        int[] crossovers = new int[TABLE_SIZE];
+        int lowerAge = 0;
+        for (int age = 0; age < TABLE_SIZE; age++) {
+            double rank = rankOf(higherClass, age);
+            while (rankOf(lowerClass, lowerAge + 1) <= rank) {
+                lowerAge++;
+            }
+            crossovers[age] = lowerAge;
+        }
+        return crossovers;
+    }
+
+    private static double rankOf(RankedTask.TaskClass taskClass, long age) {
+        return RankedTask.rankAt(taskClass, 0L, age);
+    }
+
+    private static int[] getCrossovers(RankedTask.TaskClass higherClass, RankedTask.TaskClass lowerClass) {
+        if (higherClass == RankedTask.TaskClass.VIP) {
+            return lowerClass == RankedTask.TaskClass.PRIORITY ? VIP_OVER_PRIORITY : VIP_OVER_NORMAL;
+        }
+        return PRIORITY_OVER_NORMAL;
+    }
+}
@@ -26,27 +26,37 @@ public class RankedTask implements Comparable<RankedTask>{
         MANAGEMENT_OVERRIDE
     }
 
-    private final Long id;
-    private final Long enqueueTime;
+    private final long id;
+    private final long enqueueTime;
 
     @JsonIgnore
     private final TaskClass taskClass;
 
+    // Set once the task leaves the queue; read without holding the tree lock
     @JsonIgnore
-    private IDTask linkedIdTask;
+    private volatile boolean dequeued;
 
-    public RankedTask(Long id, Long enqueueTime) {
+    public RankedTask(long id, long enqueueTime) {
         this.id = id;
         this.enqueueTime = enqueueTime;
+        this.taskClass = classOf(id);
+    }
 
+    /**
+     * Returns the class of the task with the given ID
+     *
+     * @param id task ID
+     * @return task class
+     */
+    public static TaskClass classOf(long id) {
         if ((id % 3 == 0) && (id % 5 == 0)) {
-            this.taskClass = TaskClass.MANAGEMENT_OVERRIDE;
+            return TaskClass.MANAGEMENT_OVERRIDE;
         } else if (id % 5 == 0) {
-            this.taskClass = TaskClass.VIP;
+            return TaskClass.VIP;
         } else if (id % 3 == 0) {
-            this.taskClass = TaskClass.PRIORITY;
+            return TaskClass.PRIORITY;
         } else {
-            this.taskClass = TaskClass.NORMAL;
+            return TaskClass.NORMAL;
         }
     }
 
@@ -59,18 +69,66 @@ public class RankedTask implements Comparable<RankedTask>{
      * @return current rank depending on the task class and age
      */
     public double getCurrentRank() {
-        Long currentTime = Instant.now().getEpochSecond();
+        return getRankAt(Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Returns the RankedTask's rank at the given moment. Use it instead of
+     * {@link #getCurrentRank()} when several tasks must be ranked at the
+     * same moment.
+     *
+     * @param currentTime UTC time in Unix epoch format to get the rank at
+     * @return rank depending on the task class and age at the given time
+     */
+    public double getRankAt(long currentTime) {
+        return rankAt(taskClass, enqueueTime, currentTime);
+    }
+
+    /**
+     * Returns the rank of a task of the given class and enqueue time at the
+     * given moment, so the tasks may be ranked without being instantiated.
+     *
+     * @param taskClass task class
+     * @param enqueueTime UTC time when the task was enqueued
+     * @param currentTime UTC time in Unix epoch format to get the rank at
+     * @return rank depending on the task class and age at the given time
+     */
+    public static double rankAt(TaskClass taskClass, long enqueueTime, long currentTime) {
         long secondsInQueue = currentTime - enqueueTime;
+        // n ln n is NaN for n == 0; the rank is bounded from below anyway
+        double nLogN = secondsInQueue > 1 ? secondsInQueue * Math.log(secondsInQueue) : 0.0;
 
         return switch (taskClass) {
-            case VIP -> Math.max(4.0, 2 * secondsInQueue * Math.log(secondsInQueue));
-            case PRIORITY -> Math.max(3.0, secondsInQueue * Math.log(secondsInQueue));
+            case VIP -> Math.max(4.0, 2 * nLogN);
+            case PRIORITY -> Math.max(3.0, nLogN);
             default -> (double) secondsInQueue;
         };
     }
 
     /**
-     * Compares two RankedTask objects
+     * Checks whether this task must be placed before the other task in the queue
+     * at the given moment. Management Override tasks are always placed first;
+     * the tasks of the same class keep their natural order; otherwise the higher
+     * rank wins, and equal ranks are resolved in favour of the higher task class.
+     *
+     * @param otherTask the task to compare with
+     * @param currentTime UTC time in Unix epoch format to compare the ranks at
+     * @return {@code true} if this task outranks the other one
+     */
+    public boolean outranks(RankedTask otherTask, long currentTime) {
+        if (taskClass == otherTask.taskClass) {
+            return compareTo(otherTask) > 0;
+        }
+
+        // The ranks are compared by the crossover ages, see RankCrossover
+        return RankCrossover.outranks(taskClass, currentTime - enqueueTime,
+                                      otherTask.taskClass, currentTime - otherTask.enqueueTime);
+    }
+
+    /**
+     * Compares two RankedTask objects. The older task is greater; the tasks
+     * enqueued at the same second are ordered by their IDs, the lower ID
+     * being greater, so only the tasks of the same ID are equal.
      * @param otherTask the object to be compared.
      * @return {@code 1} if this object is greater than the specified object;
      *         {@code -1} if this object is less than the specified object;
@@ -79,26 +137,31 @@ public class RankedTask implements Comparable<RankedTask>{
     @Override
     public int compareTo(RankedTask otherTask) {
         // The older task must be ranked higher
-        return otherTask.enqueueTime.compareTo(this.enqueueTime);
+        int comparison = Long.compare(otherTask.enqueueTime, this.enqueueTime);
+        return comparison != 0 ? comparison : Long.compare(otherTask.id, this.id);
     }
 
-    public Long getId() {
+    public long getId() {
         return id;
     }
 
-    public Long getEnqueueTime() {
+    public long getEnqueueTime() {
         return enqueueTime;
     }
 
-    public void setLinkedIdTask(IDTask linkedIdTask) {
-        this.linkedIdTask = linkedIdTask;
+    public TaskClass getTaskClass() {
+        return taskClass;
     }
 
-    public IDTask getLinkedIdTask() {
-        return linkedIdTask;
+    /**
+     * Mark the task as removed from the queue (either polled or deleted)
+     */
+    public void markDequeued() {
+        this.dequeued = true;
     }
 
-    public TaskClass getTaskClass() {
-        return taskClass;
+    @JsonIgnore
+    public boolean isDequeued() {
+        return dequeued;
     }
 }
@@ -1,18 +1,31 @@
 package com.alvaria.loremipsum;
 
+import com.alvaria.loremipsum.queue.LongPollingQueue;
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
 import com.alvaria.loremipsum.tasks.RankedTask;
 import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -77,6 +90,113 @@ class LoremIpsumApplicationTests {
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
 
+    @Test
+    public void testPollBatch() throws JSONException {
+
+        insertTasksOfAllClasses();
+
+        // The batches must follow the same order as the single polls
+        ResponseEntity<?> response = application.pollBatch(3);
+        assertEquals(List.of(30L, 15L, 20L), getIds((List<RankedTask>) response.getBody()));
+
+        response = application.pollBatch(10);
+        assertEquals(List.of(9L, 25L, 3L, 7L, 11L), getIds((List<RankedTask>) response.getBody()));
+
+        response = application.pollBatch(10);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+
+        response = application.pollBatch(0);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+
+        response = application.pollBatchOrWait();
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void testNewTasksBatch() throws JSONException {
+        long currentTime = Instant.now().getEpochSecond();
+
+        JSONArray tasks = new JSONArray();
+        tasks.put(new JSONObject().put("id", 7L).put("enqueueTime", currentTime - 100L));
+        tasks.put(new JSONObject().put("id", 20L).put("enqueueTime", currentTime - 300L));
+        // The same ID as of the first task
+        tasks.put(new JSONObject().put("id", 7L).put("enqueueTime", currentTime - 200L));
+        // The same class and enqueue time as of the first task; goes after it by ID
+        tasks.put(new JSONObject().put("id", 11L).put("enqueueTime", currentTime - 100L));
+        tasks.put(new JSONObject().put("id", -3L).put("enqueueTime", currentTime - 100L));
+        tasks.put(new JSONObject().put("id", 9L).put("enqueueTime", currentTime + 100L));
+
+        ResponseEntity<?> response = application.newTasks(tasks.toString());
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONArray statuses = new JSONArray((String) response.getBody());
+        assertEquals(List.of("S_OK", "S_OK", "E_ID_ALREADY_EXISTS", "S_OK", "E_NEGATIVE_ID", "E_INVALID_ENQUEUE_TIME"), getStatuses(statuses));
+        assertEquals(7L, statuses.getJSONObject(0).getLong("id"));
+
+        // The same tasks as NDJSON; the second one is not queued yet
+        String ndjson = new JSONObject().put("id", 7L).put("enqueueTime", currentTime - 100L) + "\n" +
+                        new JSONObject().put("id", 3L).put("enqueueTime", currentTime - 200L) + "\n";
+        response = application.newTasks(ndjson);
+        assertEquals(List.of("E_ID_ALREADY_EXISTS", "S_OK"), getStatuses(new JSONArray((String) response.getBody())));
+
+        response = application.newTasks("[{\"id\": 1}]");
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+
+        response = application.pollBatch(10);
+        assertEquals(List.of(20L, 3L, 7L, 11L), getIds((List<RankedTask>) response.getBody()));
+        assertEquals(HttpStatus.NOT_FOUND, application.poll().getStatusCode());
+    }
+
+    @Test
+    public void testNewTasksBatchQueueFull() {
+        TaskPriorityQueue queue = new TaskPriorityQueue(3);
+        long currentTime = Instant.now().getEpochSecond();
+        assertEquals(TaskPriorityQueue.Status.S_OK, queue.addNewTask(1L, currentTime - 10L));
+
+        // The rejected tasks must not keep their places
+        TaskPriorityQueue.Status[] statuses = queue.addNewTasks(new long[] {1L, 2L, 4L, 7L},
+                new long[] {currentTime - 20L, currentTime - 30L, currentTime - 40L, currentTime - 50L});
+        assertArrayEquals(new TaskPriorityQueue.Status[] {TaskPriorityQueue.Status.E_ID_ALREADY_EXISTS,
+                TaskPriorityQueue.Status.S_OK, TaskPriorityQueue.Status.S_OK, TaskPriorityQueue.Status.E_QUEUE_FULL}, statuses);
+        assertEquals(3, queue.size());
+        assertEquals(List.of(4L, 2L, 1L), getIds(queue.getRankedTaskList()));
+    }
+
+    @Test
+    public void testTaskPosition() throws JSONException {
+
+        insertTasksOfAllClasses();
+
+        // The position of every task must match its index in the ranked list
+        List<RankedTask> taskList = (List<RankedTask>) application.listIds(null).getBody();
+        for (int i = 0; i < taskList.size(); i++) {
+            String body = (String) application.getPosition(taskList.get(i).getId(), null).getBody();
+            assertEquals(i, new JSONObject(body).getInt("position"));
+        }
+
+        ResponseEntity<?> response = application.getPosition(1L, null);
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+
+        // Empty the queue
+        while (application.poll().getStatusCode() == HttpStatus.OK);
+    }
+
+    @Test
+    public void testListIdsPage() throws JSONException {
+
+        insertTasksOfAllClasses();
+
+        List<Long> ids = getIds((List<RankedTask>) application.listIds(null).getBody());
+        assertEquals(ids.subList(0, 3), getPageIds(application.listIds(0, 3, null)));
+        assertEquals(ids.subList(3, 8), getPageIds(application.listIds(3, 10, null)));
+        assertEquals(List.of(), getPageIds(application.listIds(8, 10, null)));
+        assertEquals(HttpStatus.BAD_REQUEST, application.listIds(0, 0, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, application.listIds(-1, 10, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, application.listIdsFromOffset().getStatusCode());
+
+        // Empty the queue
+        while (application.poll().getStatusCode() == HttpStatus.OK);
+    }
+
     @Test
     public void testInsertSameIDMultipleTimes() throws JSONException {
         long currentTime = Instant.now().getEpochSecond();
@@ -103,6 +223,29 @@ class LoremIpsumApplicationTests {
         response = application.poll();
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
+
+    @Test
+    public void testPollTasksEnqueuedJustNow() throws JSONException {
+        long currentTime = Instant.now().getEpochSecond();
+
+        // A Normal task of zero age has zero rank; it must be polled anyway
+        for (long id : new long[] {1L, 3L, 5L, 15L}) {
+            JSONObject task = new JSONObject();
+            task.put("id", id);
+            task.put("enqueueTime", currentTime);
+            assertEquals(HttpStatus.OK, application.newTask(task.toString()).getStatusCode());
+        }
+
+        for (long id : new long[] {15L, 5L, 3L, 1L}) {
+            ResponseEntity<?> response = application.poll();
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(id, ((RankedTask) response.getBody()).getId());
+        }
+
+        ResponseEntity<?> response = application.poll();
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
     @Test
     public void testNegativeID() throws JSONException {
         long currentTime = Instant.now().getEpochSecond();
@@ -135,51 +278,123 @@ class LoremIpsumApplicationTests {
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
     @Test
-    public void testMaximumCapacity() throws JSONException, InterruptedException {
+    public void testPendingPollPutsTaskBackIfRequestHasEnded() throws JSONException {
+        LoremIpsumApplication pollingApplication = new LoremIpsumApplication();
+        pollingApplication.setQueue(new LongPollingQueue(new TaskPriorityQueue(10)));
+        DeferredResult<ResponseEntity<?>> result = pollingApplication.pollOrWait(10_000L);
+        // The request ends by another path before a task comes, e.g. the client disconnects
+        result.setErrorResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+        long currentTime = Instant.now().getEpochSecond();
+        JSONObject task = new JSONObject();
+        task.put("id", 5L);
+        task.put("enqueueTime", currentTime - 10L);
+        assertEquals(HttpStatus.OK, pollingApplication.newTask(task.toString()).getStatusCode());
+
+        ResponseEntity<?> response = pollingApplication.poll();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(5L, ((RankedTask) response.getBody()).getId());
+        assertEquals(currentTime - 10L, ((RankedTask) response.getBody()).getEnqueueTime());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 100_000})
+    public void testMaximumCapacity(int capacity) throws JSONException, InterruptedException {
+        // Every size gets its own queue behind its own application instance
+        TaskPriorityQueue queue = new TaskPriorityQueue(capacity);
+        LoremIpsumApplication queueApplication = new LoremIpsumApplication();
+        queueApplication.setQueue(queue);
+
         ResponseEntity<?> response;
-        double prevRank = Double.MAX_VALUE;
-        boolean isPreviousMgtOverride = false;
         long startTime = Instant.now().toEpochMilli();
 
-        // Add maximum amount of tasks of random age with random IDs
+        // Add maximum amount of tasks of random age with random IDs; both IDs and enqueue
+        // times are unique so every task is accepted until the queue is full
+        List<Long> ids = shuffledRange(capacity + 1, 1);
+        List<Long> ages = shuffledRange(capacity + 1, 2);
+        long currentTime = Instant.now().getEpochSecond();
+        int i = 0;
         do {
-            long id = (long)(Long.MAX_VALUE * Math.random());
-            long currentTime = Instant.now().getEpochSecond();
-            long age = (long)(3600 * Math.random()) + 1L; // Add 1 to make it always > 0
-
             JSONObject task = new JSONObject();
-            task.put("id",id);
-            task.put("enqueueTime", currentTime - age);
+            task.put("id", ids.get(i));
+            task.put("enqueueTime", currentTime - ages.get(i));
+            i++;
 
-            response = application.newTask(task.toString());
+            response = queueApplication.newTask(task.toString());
+            assertTrue(response.getStatusCode() == HttpStatus.OK || i > capacity);
         } while (response.getStatusCode() != HttpStatus.SERVICE_UNAVAILABLE);
 
-        // Wait a while so the ranks change (the queue must be sorted accordingly though)
-        Thread.sleep(5000);
+        assertEquals(capacity + 1, i);
+        assertEquals(capacity, queue.size());
+        long insertTime = Instant.now().toEpochMilli();
 
-        // Validate the listIds endpoint
-        List<RankedTask> taskList = (List<RankedTask>)application.listIds().getBody();
-        validateRankedList(taskList);
+        // Red-Black properties keep every operation logarithmic regardless of the queue size
+        assertTrue(queue.getMaxTreeHeight() <= 2 * Math.log(capacity + 1) / Math.log(2));
+
+        // Wait till the second the tasks were added in is over, so the ranks change (the queue
+        // must be sorted accordingly though)
+        long insertSecond = Instant.now().getEpochSecond();
+        while (Instant.now().getEpochSecond() == insertSecond) {
+            Thread.sleep(10L);
+        }
 
-        // Poll tasks one by one and compare the rank with the previous one.
-        // The rank may grow just once when we finish polling the Management Override
-        // tasks (they must be at the top of the queue although their rank equals their age)
+        // Validate the listIds endpoint
+        long listStartTime = Instant.now().getEpochSecond();
+        List<RankedTask> taskList = (List<RankedTask>)queueApplication.listIds(null).getBody();
+        assertEquals(capacity, taskList.size());
+        validateRankedList(taskList, listStartTime, Instant.now().getEpochSecond());
+
+        // Poll tasks one by one and make sure that every task outranked the next one
+        // at the moment when it was polled
+        long pollStartTime = Instant.now().toEpochMilli();
+        RankedTask prevTask = null;
+        long prevPollStartTime = 0;
+        long prevPollFinishTime = 0;
+        int polled = 0;
         do {
-            response = application.poll();
+            long pollTime = Instant.now().getEpochSecond();
+            response = queueApplication.poll();
             if (response.getStatusCode() == HttpStatus.OK) {
                 RankedTask responseTask = (RankedTask) response.getBody();
-                long currentTime = Instant.now().getEpochSecond();
-                log.info("TEST: prevRank {} isPreviousMgtOverride {} taskId {} enqueueTime {} rank {} age {}",
-                        prevRank, isPreviousMgtOverride, responseTask.getId(), responseTask.getEnqueueTime(),
-                        responseTask.getCurrentRank(), currentTime - responseTask.getEnqueueTime());
-                assertTrue(responseTask.getCurrentRank() <= prevRank || isPreviousMgtOverride);
-                prevRank = responseTask.getCurrentRank();
-                isPreviousMgtOverride = (responseTask.getId() % 15 == 0);
+                if (prevTask != null) {
+                    assertOutranks(prevTask, responseTask, prevPollStartTime, prevPollFinishTime);
+                }
+                prevTask = responseTask;
+                prevPollStartTime = pollTime;
+                prevPollFinishTime = Instant.now().getEpochSecond();
+                polled++;
             }
         } while (response.getStatusCode() == HttpStatus.OK);
+        assertEquals(capacity, polled);
 
         long finishTime = Instant.now().toEpochMilli();
-        log.info("testMaximumCapacity: The max capacity test took {} ms", finishTime - startTime);
+        log.info("testMaximumCapacity: {} tasks; insert {} ns/task; poll {} ns/task; the test took {} ms", capacity,
+                (insertTime - startTime) * 1_000_000 / capacity, (finishTime - pollStartTime) * 1_000_000 / capacity,
+                finishTime - startTime);
+    }
+
+    // Takes a while, so it is excluded from the default build (see the excludedGroups property)
+    @Test
+    @Tag("scaling")
+    public void testMaximumCapacityOfMillionTasks() throws JSONException, InterruptedException {
+        testMaximumCapacity(1_000_000);
+    }
+
+    private List<String> getStatuses(JSONArray statuses) throws JSONException {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < statuses.length(); i++) {
+            result.add(statuses.getJSONObject(i).getString("status"));
+        }
+        return result;
+    }
+
+    private List<Long> getPageIds(ResponseEntity<List<RankedTask>> response) {
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return getIds(response.getBody());
+    }
+
+    private List<Long> getIds(List<RankedTask> tasks) {
+        return tasks.stream().map(RankedTask::getId).collect(Collectors.toList());
     }
 
     private void insertTasksOfAllClasses() throws JSONException {
@@ -244,17 +459,22 @@ class LoremIpsumApplicationTests {
         assertEquals(response.getStatusCode(), HttpStatus.OK);
     }
 
-    private void validateRankedList(List<RankedTask> list) {
-        double prevRank = Double.MAX_VALUE;
-        boolean isPreviousMgtOverride = false;
-        while (!list.isEmpty()) {
-            RankedTask task = list.get(0);
-            assertTrue(task.getCurrentRank() <= prevRank || isPreviousMgtOverride);
-            prevRank = task.getCurrentRank();
-            if (task.getTaskClass() == RankedTask.TaskClass.MANAGEMENT_OVERRIDE) {
-                isPreviousMgtOverride = true;
-            }
-            list.remove(task);
+    private void validateRankedList(List<RankedTask> list, long fromTime, long toTime) {
+        for (int i = 1; i < list.size(); i++) {
+            assertOutranks(list.get(i - 1), list.get(i), fromTime, toTime);
         }
     }
+
+    // The order of two tasks may change just once over a short period of time, so if the task
+    // outranked the other one at some moment within [fromTime, toTime] it does so at one of the bounds
+    private void assertOutranks(RankedTask task, RankedTask otherTask, long fromTime, long toTime) {
+        assertTrue(task.outranks(otherTask, fromTime) || task.outranks(otherTask, toTime),
+                () -> "Task " + task.getId() + " must outrank task " + otherTask.getId());
+    }
+
+    private List<Long> shuffledRange(int size, long seed) {
+        List<Long> values = LongStream.rangeClosed(1, size).boxed().collect(Collectors.toList());
+        Collections.shuffle(values, new Random(seed));
+        return values;
+    }
 }
@@ -0,0 +1,50 @@
+package com.alvaria.loremipsum.longhashmap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashMapTests {
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        // A narrow key range makes the probe sequences collide and the removals shift them
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5000) * 1024L;
+            if (random.nextBoolean()) {
+                String value = "value" + i;
+                assertEquals(reference.put(key, value), map.put(key, value));
+            } else {
+                assertEquals(reference.remove(key), map.remove(key));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+
+        for (long key = 0; key < 5000 * 1024L; key += 1024) {
+            assertEquals(reference.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testConditionalRemove() {
+        LongHashMap<String> map = new LongHashMap<>(4);
+        String value = "value";
+        map.put(Long.MIN_VALUE, value);
+
+        assertFalse(map.remove(Long.MIN_VALUE, "other"));
+        assertTrue(map.remove(Long.MIN_VALUE, value));
+        assertNull(map.get(Long.MIN_VALUE));
+        assertEquals(0, map.size());
+    }
+}
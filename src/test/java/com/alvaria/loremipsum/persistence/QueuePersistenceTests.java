@@ -0,0 +1,126 @@
+package com.alvaria.loremipsum.persistence;
+
+import com.alvaria.loremipsum.queue.TaskPriorityQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueuePersistenceTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException {
+        try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 1L, DurabilityMode.SYNC, 5L)) {
+            writeAheadLog.awaitDurable(writeAheadLog.logAdd(7L, 100L));
+            writeAheadLog.awaitDurable(writeAheadLog.logPoll(7L));
+            writeAheadLog.awaitDurable(writeAheadLog.logDelete(8L));
+        }
+
+        // Cut the last record in the middle as a crash during the write would do
+        Path segment = listFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(3L * WriteAheadLog.RECORD_SIZE - 5);
+        }
+
+        List<String> records = new ArrayList<>();
+        long lastSequence = WriteAheadLog.replay(directory, 0L,
+                                                 (type, id, enqueueTime) -> records.add(type + ":" + id + ":" + enqueueTime));
+        assertEquals(List.of("1:7:100", "2:7:0"), records);
+        assertEquals(2L, lastSequence);
+        assertEquals(2L * WriteAheadLog.RECORD_SIZE, Files.size(segment));
+
+        // The records covered by a snapshot are skipped
+        records.clear();
+        assertEquals(2L, WriteAheadLog.replay(directory, 1L, (type, id, enqueueTime) -> records.add(type + ":" + id)));
+        assertEquals(List.of("2:7"), records);
+    }
+
+    @Test
+    public void testDamagedSnapshotIsSkipped() throws IOException {
+        long currentTime = Instant.now().getEpochSecond();
+        TaskPriorityQueue queue = new TaskPriorityQueue(100);
+        for (long id = 1; id <= 30; id++) {
+            queue.addNewTask(id, currentTime - 10 * id);
+        }
+        Snapshot.write(directory, 5L, queue.getTaskSnapshot(() -> {}));
+        queue.poll();
+        Snapshot.write(directory, 6L, queue.getTaskSnapshot(() -> {}));
+
+        // Flip a byte of the newest snapshot
+        Path newest = listFiles().get(1);
+        byte[] bytes = Files.readAllBytes(newest);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(newest, bytes);
+
+        Snapshot.Contents snapshot = Snapshot.readLatest(directory);
+        assertEquals(5L, snapshot.sequence());
+        TaskPriorityQueue restoredQueue = new TaskPriorityQueue(100);
+        restoredQueue.restoreTasks(snapshot.tasks());
+        assertEquals(30, restoredQueue.size());
+        assertEquals(30L, restoredQueue.poll().getId());
+        assertEquals(getIds(queue.getRankedTaskList()), getIds(restoredQueue.getRankedTaskList()));
+    }
+
+    @Test
+    public void testQueueIsRestoredAfterRestart() throws IOException {
+        long currentTime = Instant.now().getEpochSecond();
+        TaskPriorityQueue queue = new TaskPriorityQueue(100);
+        QueuePersistence persistence = new QueuePersistence(queue, directory.toString(), DurabilityMode.BATCHED, 5L, 300L);
+        persistence.start();
+        for (long id = 1; id <= 20; id++) {
+            queue.addNewTask(id, currentTime - 10 * id);
+        }
+        persistence.snapshot();
+        queue.poll();
+        queue.deleteTask(4L);
+        queue.addNewTask(21L, currentTime - 1000);
+        List<RankedTask> expectedTasks = queue.getRankedTaskList();
+
+        // Simulate a crash: the first instance is abandoned without the final snapshot, so the
+        // operations since the last snapshot are only in the log
+        TaskPriorityQueue restoredQueue = new TaskPriorityQueue(100);
+        QueuePersistence restoredPersistence = new QueuePersistence(restoredQueue, directory.toString(),
+                                                                    DurabilityMode.SYNC, 5L, 300L);
+        restoredPersistence.start();
+        try {
+            assertEquals(getIds(expectedTasks), getIds(restoredQueue.getRankedTaskList()));
+            restoredQueue.poll();
+        } finally {
+            restoredPersistence.stop();
+        }
+
+        TaskPriorityQueue finalQueue = new TaskPriorityQueue(100);
+        QueuePersistence finalPersistence = new QueuePersistence(finalQueue, directory.toString(),
+                                                                 DurabilityMode.ASYNC, 5L, 300L);
+        finalPersistence.start();
+        try {
+            assertEquals(getIds(expectedTasks.subList(1, expectedTasks.size())), getIds(finalQueue.getRankedTaskList()));
+        } finally {
+            finalPersistence.stop();
+        }
+    }
+
+    private List<Long> getIds(List<RankedTask> tasks) {
+        return tasks.stream().map(RankedTask::getId).toList();
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.metrics.MeteredQueue;
+import com.alvaria.loremipsum.tasks.RankedTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every {@link QueueEngine} must behave exactly as the {@link TaskPriorityQueue}:
+ * both are given the same random operations and every result is compared
+ */
+class QueueEngineTests {
+
+    @ParameterizedTest
+    @EnumSource(value = QueueEngineType.class, names = "TREE", mode = EnumSource.Mode.EXCLUDE)
+    public void testSameResultsAsTaskPriorityQueue(QueueEngineType engine) {
+        Random random = new Random(42);
+        int checkedRounds = 0;
+
+        for (int round = 0; round < 50; round++) {
+            long currentTime = Instant.now().getEpochSecond();
+            TaskPriorityQueue expected = new TaskPriorityQueue(500);
+            QueueEngine actual = engine.create(500);
+            List<String> expectedResults = new ArrayList<>();
+            List<String> actualResults = new ArrayList<>();
+
+            for (int i = 0; i < 2000; i++) {
+                // Few IDs and enqueue times, so the duplicates and the equal ranks are frequent; the young
+                // tasks of different classes have equal minimal ranks (e.g. a new VIP and a 4 s old Normal)
+                long id = 1 + random.nextInt(1000);
+                long enqueueTime = currentTime - random.nextInt(random.nextBoolean() ? 10 : 5000);
+                switch (random.nextInt(8)) {
+                    case 0, 1, 2 -> {
+                        expectedResults.add("add " + expected.addNewTask(id, enqueueTime));
+                        actualResults.add("add " + actual.addNewTask(id, enqueueTime));
+                    }
+                    case 3 -> {
+                        long[] ids = random.longs(20, 1, 1000).toArray();
+                        long[] enqueueTimes = random.longs(20, currentTime - 5000, currentTime + 1).toArray();
+                        expectedResults.add("adds " + Arrays.toString(expected.addNewTasks(ids, enqueueTimes)));
+                        actualResults.add("adds " + Arrays.toString(actual.addNewTasks(ids, enqueueTimes)));
+                    }
+                    case 4 -> {
+                        expectedResults.add("poll " + getId(expected.poll()));
+                        actualResults.add("poll " + getId(actual.poll()));
+                    }
+                    case 5 -> {
+                        expectedResults.add("delete " + expected.deleteTask(id));
+                        actualResults.add("delete " + actual.deleteTask(id));
+                    }
+                    case 6 -> {
+                        expectedResults.add("position " + expected.getTaskPosition(id));
+                        actualResults.add("position " + actual.getTaskPosition(id));
+                    }
+                    default -> {
+                        int offset = random.nextInt(50);
+                        expectedResults.add("list " + getIds(expected.getRankedTaskList(offset, 10)));
+                        actualResults.add("list " + getIds(actual.getRankedTaskList(offset, 10)));
+                    }
+                }
+                expectedResults.add("size " + expected.size());
+                actualResults.add("size " + actual.size());
+            }
+
+            expectedResults.add("batch " + getIds(expected.pollBatch(100)));
+            actualResults.add("batch " + getIds(actual.pollBatch(100)));
+            expectedResults.add("list " + getIds(expected.getRankedTaskList()));
+            actualResults.add("list " + getIds(actual.getRankedTaskList()));
+
+            // The ranks are compared at a single moment, skip the round if it did not fit into one second
+            if (Instant.now().getEpochSecond() != currentTime) {
+                continue;
+            }
+
+            assertEquals(expectedResults, actualResults);
+            assertEquals(expected.getExpectedWaitTime(), actual.getExpectedWaitTime());
+            checkedRounds++;
+        }
+
+        assertTrue(checkedRounds > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(QueueEngineType.class)
+    public void testSnapshotRestoresBothWays(QueueEngineType engine) {
+        long currentTime = Instant.now().getEpochSecond();
+        TaskPriorityQueue queue = new TaskPriorityQueue(10_000);
+        // Every enqueue time is shared by several tasks of a class
+        for (long id = 1; id <= 5000; id++) {
+            queue.addNewTask(id, currentTime - 7 * (id / 40));
+        }
+
+        QueueEngine engineQueue = engine.create(10_000);
+        engineQueue.restoreTasks(queue.getTaskSnapshot(() -> {}));
+        assertEquals(getIds(queue.getRankedTaskList()), getIds(engineQueue.getRankedTaskList()));
+        assertEquals(queue.getExpectedWaitTime(), engineQueue.getExpectedWaitTime());
+
+        TaskPriorityQueue restoredQueue = new TaskPriorityQueue(10_000);
+        restoredQueue.restoreTasks(engineQueue.getTaskSnapshot(() -> {}));
+        assertEquals(getIds(queue.getRankedTaskList()), getIds(restoredQueue.getRankedTaskList()));
+    }
+
+    @ParameterizedTest
+    @EnumSource(QueueEngineType.class)
+    public void testEqualEnqueueTimesAreOrderedById(QueueEngineType engine) {
+        long currentTime = Instant.now().getEpochSecond();
+        QueueEngine queue = engine.create(100);
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(22L, currentTime - 100L));
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(4L, currentTime - 100L));
+        QueueEngine.Status[] statuses = queue.addNewTasks(new long[]{13L, 8L, 4L, 1L, 45L, 30L},
+                new long[]{currentTime - 100L, currentTime - 100L, currentTime - 100L, currentTime - 200L,
+                           currentTime - 10L, currentTime - 10L});
+        assertEquals(List.of(QueueEngine.Status.S_OK, QueueEngine.Status.S_OK, QueueEngine.Status.E_ID_ALREADY_EXISTS,
+                             QueueEngine.Status.S_OK, QueueEngine.Status.S_OK, QueueEngine.Status.S_OK),
+                     Arrays.asList(statuses));
+
+        List<Long> expectedIds = List.of(30L, 45L, 1L, 4L, 8L, 13L, 22L);
+        assertEquals(expectedIds, getIds(queue.getRankedTaskList()));
+        for (int i = 0; i < expectedIds.size(); i++) {
+            assertEquals(i, queue.getTaskPosition(expectedIds.get(i)));
+        }
+
+        assertEquals(QueueEngine.Status.S_OK, queue.deleteTask(8L));
+        assertEquals(4, queue.getTaskPosition(13L));
+        assertEquals(List.of(30L, 45L, 1L, 4L, 13L, 22L), getIds(queue.pollBatch(10)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(QueueEngineType.class)
+    public void testWaitTimePercentilesOfEveryClass(QueueEngineType engine) {
+        Random random = new Random(42);
+        long currentTime = Instant.now().getEpochSecond();
+        QueueEngine queue = engine.create(20_000);
+        long[] ids = random.longs(10_000, 1, 1_000_000).toArray();
+        long[] enqueueTimes = random.longs(10_000, currentTime - 1_000_000, currentTime + 1).toArray();
+        queue.addNewTasks(ids, enqueueTimes);
+        for (int i = 0; i < 1000; i++) {
+            queue.addNewTask(1_000_000 + i, currentTime - random.nextInt(100));
+            queue.deleteTask(ids[random.nextInt(ids.length)]);
+        }
+        queue.pollBatch(2000);
+
+        for (RankedTask.TaskClass taskClass : RankedTask.TaskClass.values()) {
+            List<Long> ages = new ArrayList<>();
+            for (RankedTask task : queue.getRankedTaskList()) {
+                if (task.getTaskClass() == taskClass) {
+                    ages.add(currentTime - task.getEnqueueTime());
+                }
+            }
+            ages.sort(null);
+
+            double[] percentiles = {50.0, 90.0, 99.0};
+            long[] waitTimes = queue.getWaitTimePercentiles(taskClass, percentiles);
+            for (int i = 0; i < percentiles.length; i++) {
+                long expected = ages.isEmpty() ? 0L : ages.get((int) Math.ceil(percentiles[i] / 100.0 * ages.size()) - 1);
+                // The clock may have moved on by a second
+                assertTrue(Math.abs(waitTimes[i] - expected) <= expected / 64 + 1, taskClass + " " + percentiles[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testKineticOrderFollowsTheRanksOverTime() {
+        Random random = new Random(42);
+        long[] clock = {Instant.now().getEpochSecond()};
+        KineticTaskPriorityQueue queue = new KineticTaskPriorityQueue(10_000, () -> clock[0]);
+        List<RankedTask> queuedTasks = new ArrayList<>();
+        long nextId = 1;
+
+        for (int step = 0; step < 3000; step++) {
+            // Mostly a second or two pass, so the young tasks cross the flat ranks; sometimes much more
+            clock[0] += random.nextInt(10) == 0 ? random.nextInt(5000) : random.nextInt(3);
+            long currentTime = clock[0];
+
+            for (int i = random.nextInt(3); i > 0; i--) {
+                long id = nextId++;
+                long enqueueTime = currentTime - (random.nextBoolean() ? random.nextInt(10) : random.nextInt(100_000));
+                assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(id, enqueueTime));
+                queuedTasks.add(new RankedTask(id, enqueueTime));
+            }
+
+            queuedTasks.sort((task, otherTask) ->
+                    task.outranks(otherTask, currentTime) ? -1 : otherTask.outranks(task, currentTime) ? 1 : 0);
+            if (random.nextInt(3) == 0 && !queuedTasks.isEmpty()) {
+                assertEquals(queuedTasks.remove(0).getId(), queue.poll().getId());
+            }
+            if (random.nextInt(5) == 0 && !queuedTasks.isEmpty()) {
+                RankedTask task = queuedTasks.remove(random.nextInt(queuedTasks.size()));
+                assertEquals(QueueEngine.Status.S_OK, queue.deleteTask(task.getId()));
+            }
+            if (step % 10 == 0) {
+                assertEquals(getIds(queuedTasks), getIds(queue.getRankedTaskList()));
+                for (int i = 0; i < queuedTasks.size(); i += 7) {
+                    assertEquals(i, queue.getTaskPosition(queuedTasks.get(i).getId()));
+                }
+            }
+        }
+
+        assertTrue(queuedTasks.size() > 100);
+    }
+
+    @Test
+    public void testPublishedSnapshotIsServedUntilOutdated() {
+        long currentTime = Instant.now().getEpochSecond();
+        long[] clock = {currentTime * 1000L};
+        SnapshotPublishingQueue queue = new SnapshotPublishingQueue(new TaskPriorityQueue(100), 100L, () -> clock[0]);
+        queue.addNewTasks(new long[]{1L, 3L, 5L}, new long[]{currentTime - 100L, currentTime - 50L, currentTime - 10L});
+
+        RankedSnapshot snapshot = queue.getPublishedSnapshot();
+        assertEquals(getIds(queue.getRankedTaskList()), getIds(snapshot.getRankedTaskList(0, Integer.MAX_VALUE)));
+        assertEquals(getIds(queue.getRankedTaskList(1, 2)), getIds(snapshot.getRankedTaskList(1, 2)));
+        assertEquals(List.of(), getIds(snapshot.getRankedTaskList(5, 2)));
+        assertEquals(queue.getTaskPosition(1L), snapshot.getTaskPosition(1L));
+        int[] encodings = {0};
+        byte[] encodedTasks = snapshot.getEncodedTasks(tasks -> new byte[] {(byte) ++encodings[0], (byte) tasks.size()});
+        assertSame(encodedTasks, snapshot.getEncodedTasks(tasks -> new byte[] {(byte) ++encodings[0]}));
+        assertEquals(1, encodings[0]);
+        assertEquals(3, encodedTasks[1]);
+
+        // A modification is not seen until the snapshot gets older than the maximum staleness
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(15L, currentTime - 1L));
+        clock[0] += 100L;
+        assertSame(snapshot, queue.getPublishedSnapshot());
+        assertEquals(-1, snapshot.getTaskPosition(15L));
+
+        clock[0] += 1L;
+        String eTag = snapshot.getETag();
+        snapshot = queue.getPublishedSnapshot();
+        assertNotEquals(eTag, snapshot.getETag());
+        assertEquals(snapshot.getETag(), queue.getPublishedSnapshot().getETag());
+        assertEquals(0, snapshot.getTaskPosition(15L));
+        assertEquals(getIds(queue.getRankedTaskList()), getIds(snapshot.getRankedTaskList(0, Integer.MAX_VALUE)));
+
+        // An unmodified queue keeps the snapshot till the ranks change in the next second
+        clock[0] += 800L;
+        assertSame(snapshot, queue.getPublishedSnapshot());
+        clock[0] += 100L;
+        assertNotSame(snapshot, queue.getPublishedSnapshot());
+    }
+
+    @Test
+    public void testVersionTagsTheQueueWithoutStaleness() {
+        long currentTime = Instant.now().getEpochSecond();
+        long[] clock = {currentTime * 1000L};
+        SnapshotPublishingQueue queue = new SnapshotPublishingQueue(new TaskPriorityQueue(100), 0L, () -> clock[0]);
+        queue.addNewTasks(new long[]{1L, 3L}, new long[]{currentTime - 100L, currentTime - 50L});
+        assertNull(queue.getPublishedSnapshot());
+
+        // The wait times are encoded once per version of the queue
+        int[] encodings = {0};
+        String eTag = queue.getETag();
+        EncodedWaitTimes waitTimes = queue.getPublishedWaitTimes(q -> new byte[] {(byte) ++encodings[0], (byte) q.size()});
+        assertEquals(eTag, waitTimes.getETag());
+        clock[0] += 500L;
+        assertEquals(eTag, queue.getETag());
+        assertSame(waitTimes, queue.getPublishedWaitTimes(q -> new byte[] {(byte) ++encodings[0]}));
+        assertEquals(1, encodings[0]);
+        assertEquals(2, waitTimes.getBody()[1]);
+
+        // Both a modification and the next second make a new version
+        assertEquals(QueueEngine.Status.S_OK, queue.deleteTask(3L));
+        assertNotEquals(eTag, queue.getETag());
+        waitTimes = queue.getPublishedWaitTimes(q -> new byte[] {(byte) ++encodings[0], (byte) q.size()});
+        assertEquals(queue.getETag(), waitTimes.getETag());
+        assertEquals(1, waitTimes.getBody()[1]);
+        eTag = queue.getETag();
+        clock[0] += 500L;
+        assertNotEquals(eTag, queue.getETag());
+        assertNotSame(waitTimes, queue.getPublishedWaitTimes(q -> new byte[] {(byte) ++encodings[0]}));
+        assertEquals(3, encodings[0]);
+    }
+
+    @Test
+    public void testFailedOperationsKeepVersion() {
+        long currentTime = Instant.now().getEpochSecond();
+        long[] clock = {currentTime * 1000L};
+        SnapshotPublishingQueue queue = new SnapshotPublishingQueue(new TaskPriorityQueue(2), 0L, () -> clock[0]);
+        String eTag = queue.getETag();
+
+        // The idle polls and the rejected operations change nothing, so the clients keep their tags
+        assertNull(queue.poll());
+        assertEquals(List.of(), queue.pollBatch(5));
+        assertEquals(QueueEngine.Status.E_TASK_NOT_FOUND, queue.deleteTask(1L));
+        assertEquals(eTag, queue.getETag());
+
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(1L, currentTime - 10L));
+        assertNotEquals(eTag, queue.getETag());
+        eTag = queue.getETag();
+        assertEquals(QueueEngine.Status.E_ID_ALREADY_EXISTS, queue.addNewTask(1L, currentTime - 20L));
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTasks(new long[]{2L}, new long[]{currentTime - 20L})[0]);
+        assertNotEquals(eTag, queue.getETag());
+        eTag = queue.getETag();
+        assertEquals(QueueEngine.Status.E_QUEUE_FULL, queue.addNewTask(3L, currentTime - 30L));
+        assertEquals(QueueEngine.Status.E_QUEUE_FULL, queue.addNewTasks(new long[]{3L}, new long[]{currentTime - 30L})[0]);
+        assertEquals(eTag, queue.getETag());
+    }
+
+    @Test
+    public void testPendingPollsAreServedInOrderOfArrival() {
+        long currentTime = Instant.now().getEpochSecond();
+        LongPollingQueue queue = new LongPollingQueue(new TaskPriorityQueue(100));
+        List<String> served = new ArrayList<>();
+        PendingPoll first = queue.pollWhenAvailable(task -> served.add("first:" + task.getId()));
+        PendingPoll second = queue.pollWhenAvailable(task -> served.add("second:" + task.getId()));
+        PendingPoll third = queue.pollWhenAvailable(task -> served.add("third:" + task.getId()));
+        PendingPoll fourth = queue.pollWhenAvailable(task -> served.add("fourth:" + task.getId()));
+        assertEquals(List.of(), served);
+
+        // A task wakes the first waiter only
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(1L, currentTime - 10L));
+        assertEquals(List.of("first:1"), served);
+        assertFalse(first.cancel());
+
+        // A cancelled waiter leaves the queue and takes no task
+        assertTrue(second.cancel());
+        assertFalse(second.cancel());
+        assertEquals(List.of(third, fourth), new ArrayList<>(queue.waiters));
+        queue.addNewTasks(new long[]{2L, 4L}, new long[]{currentTime - 10L, currentTime - 100L});
+        assertEquals(List.of("first:1", "third:4", "fourth:2"), served);
+        assertFalse(fourth.cancel());
+        assertEquals(0, queue.size());
+
+        // A task in the queue already is handed over at once
+        queue.addNewTask(7L, currentTime - 10L);
+        queue.pollWhenAvailable(task -> served.add("fifth:" + task.getId()));
+        assertEquals("fifth:7", served.get(served.size() - 1));
+        assertNull(queue.poll());
+        assertTrue(queue.waiters.isEmpty());
+    }
+
+    @Test
+    public void testPendingPollHandsTaskOverOutsideOfLock() throws Exception {
+        long currentTime = Instant.now().getEpochSecond();
+        LongPollingQueue queue = new LongPollingQueue(new TaskPriorityQueue(100));
+        CountDownLatch handing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> served = new CopyOnWriteArrayList<>();
+        PendingPoll pendingPoll = queue.pollWhenAvailable(task -> {
+            handing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            served.add(task.getId());
+        });
+        Thread adder = new Thread(() -> queue.addNewTask(1L, currentTime - 10L));
+        adder.start();
+        assertTrue(handing.await(5, TimeUnit.SECONDS));
+
+        // A cancellation during the hand-over fails and returns once the consumer has the task
+        FutureTask<Boolean> cancellation = new FutureTask<>(pendingPoll::cancel);
+        new Thread(cancellation).start();
+        Thread.sleep(50L);
+        assertFalse(cancellation.isDone());
+        release.countDown();
+        assertFalse(cancellation.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1L), served);
+        adder.join();
+    }
+
+    @Test
+    public void testPendingPollsAreMetered() {
+        long currentTime = Instant.now().getEpochSecond();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LongPollingQueue queue = new LongPollingQueue(new MeteredQueue(new TaskPriorityQueue(100), registry));
+        List<Long> served = new ArrayList<>();
+        queue.pollWhenAvailable(task -> served.add(task.getId()));
+        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(1L, currentTime - 10L));
+        assertEquals(List.of(1L), served);
+
+        // Both the poll of the empty queue on arrival and the one that got the task are timed
+        assertEquals(2, registry.get("lorem.queue.operation").tag("operation", "poll").timer().count());
+    }
+
+    private Long getId(RankedTask task) {
+        return task == null ? null : task.getId();
+    }
+
+    private List<Long> getIds(List<RankedTask> tasks) {
+        return tasks.stream().map(RankedTask::getId).toList();
+    }
+}
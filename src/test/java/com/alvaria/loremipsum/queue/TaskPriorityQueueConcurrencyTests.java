@@ -0,0 +1,344 @@
+package com.alvaria.loremipsum.queue;
+
+import com.alvaria.loremipsum.tasks.RankedTask;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Multi-threaded stress tests of the {@link QueueEngine}s. Every operation
+ * history recorded by the threads is checked against a sequential reference model
+ */
+class TaskPriorityQueueConcurrencyTests {
+
+    private static final int THREADS = 4;
+
+    // A few IDs of every class so that the threads contend for the same tasks
+    private static final long[] IDS = {1, 2, 3, 6, 5, 10, 15, 30};
+
+    // The lock-free skip-list engine reads the class maps one by one, so its polls and positions are
+    // only weakly consistent with the concurrent modifications
+    @ParameterizedTest
+    @EnumSource(value = QueueEngineType.class, names = "SKIP_LIST", mode = EnumSource.Mode.EXCLUDE)
+    public void testHistoriesAreLinearizable(QueueEngineType engine) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Random random = new Random(42);
+        int checkedRounds = 0;
+
+        try {
+            for (int round = 0; round < 300; round++) {
+                long currentTime = Instant.now().getEpochSecond();
+                QueueEngine queue = engine.create(TaskPriorityQueue.DEFAULT_CAPACITY);
+                List<Long> ages = new ArrayList<>();
+                for (long age = 1000; age <= 1000L * IDS.length; age += 1000) {
+                    ages.add(age);
+                }
+                Collections.shuffle(ages, random);
+
+                // The ages are far enough from each other so that the order of the tasks is stable
+                Map<Long, Long> enqueueTimes = new HashMap<>();
+                for (int i = 0; i < IDS.length; i++) {
+                    enqueueTimes.put(IDS[i], currentTime - ages.get(i));
+                }
+
+                List<Operation> history = runConcurrently(executor, queue, enqueueTimes, 3, random.nextLong());
+
+                // The ranks are compared at a single moment, skip the round if it did not fit into one second
+                if (Instant.now().getEpochSecond() != currentTime) {
+                    continue;
+                }
+
+                assertTrue(new ReferenceModel(currentTime).isLinearizable(history), () -> "Not linearizable: " + history);
+                checkedRounds++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(checkedRounds > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(QueueEngineType.class)
+    public void testTasksAreNeitherLostNorDuplicated(QueueEngineType engine) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        QueueEngine queue = engine.create(100_000);
+        long currentTime = Instant.now().getEpochSecond();
+        Map<Long, Long> enqueueTimes = new HashMap<>();
+        for (long id = 1; id <= 2000; id++) {
+            enqueueTimes.put(id, currentTime - id);
+        }
+
+        List<Operation> history;
+        try {
+            history = runConcurrently(executor, queue, enqueueTimes, 5000, 42);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every successfully added task must leave the queue exactly once
+        Map<Long, Integer> balance = new HashMap<>();
+        for (Operation operation : history) {
+            if (operation.type == OperationType.ADD && operation.status == QueueEngine.Status.S_OK) {
+                balance.merge(operation.id, 1, Integer::sum);
+            } else if (operation.type == OperationType.DELETE && operation.status == QueueEngine.Status.S_OK) {
+                balance.merge(operation.id, -1, Integer::sum);
+            } else if (operation.type == OperationType.POLL && operation.polled != null) {
+                balance.merge(operation.polled.getId(), -1, Integer::sum);
+            }
+        }
+
+        int expectedSize = 0;
+        for (int count : balance.values()) {
+            assertTrue(count == 0 || count == 1);
+            expectedSize += count;
+        }
+        assertEquals(expectedSize, queue.size());
+        assertEquals(expectedSize, queue.getRankedTaskList().size());
+
+        RankedTask task;
+        while ((task = queue.poll()) != null) {
+            assertEquals(1, balance.put(task.getId(), 0));
+        }
+        assertEquals(0, queue.size());
+        assertEquals(0L, queue.getExpectedWaitTime());
+    }
+
+    @ParameterizedTest
+    @EnumSource(QueueEngineType.class)
+    public void testPendingPollsGetEveryAddedTaskOnce(QueueEngineType engine) throws Exception {
+        int tasksPerThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(2 * THREADS);
+        LongPollingQueue queue = new LongPollingQueue(engine.create(100_000));
+        long currentTime = Instant.now().getEpochSecond();
+        Map<Long, Integer> received = new ConcurrentHashMap<>();
+        CountDownLatch served = new CountDownLatch(THREADS * tasksPerThread);
+
+        // Half of the threads wait for the tasks while the other half adds them
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(2 * THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long firstId = 1L + (long) t * tasksPerThread;
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    for (int i = 0; i < tasksPerThread; i++) {
+                        queue.pollWhenAvailable(task -> {
+                            received.merge(task.getId(), 1, Integer::sum);
+                            served.countDown();
+                        });
+                    }
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    for (long id = firstId; id < firstId + tasksPerThread; id++) {
+                        assertEquals(QueueEngine.Status.S_OK, queue.addNewTask(id, currentTime - id));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            assertTrue(served.await(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(THREADS * tasksPerThread, received.size());
+        assertTrue(received.values().stream().allMatch(count -> count == 1));
+        assertEquals(0, queue.size());
+    }
+
+    // Run the random operations on the given queue from several threads at once and collect the history
+    private List<Operation> runConcurrently(ExecutorService executor, QueueEngine queue,
+                                            Map<Long, Long> enqueueTimes, int operationsPerThread, long seed) throws Exception {
+        Long[] ids = enqueueTimes.keySet().toArray(new Long[0]);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<List<Operation>>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            Random random = new Random(seed + thread);
+            futures.add(executor.submit(() -> {
+                List<Operation> operations = new ArrayList<>();
+                barrier.await();
+                for (int i = 0; i < operationsPerThread; i++) {
+                    long id = ids[random.nextInt(ids.length)];
+                    OperationType type = OperationType.values()[random.nextInt(OperationType.values().length)];
+                    Operation operation = new Operation(type, id, enqueueTimes.get(id));
+                    operation.invocationTime = System.nanoTime();
+                    switch (type) {
+                        case ADD -> operation.status = queue.addNewTask(id, operation.enqueueTime);
+                        case DELETE -> operation.status = queue.deleteTask(id);
+                        case POLL -> operation.polled = queue.poll();
+                        default -> operation.position = queue.getTaskPosition(id);
+                    }
+                    operation.responseTime = System.nanoTime();
+                    operations.add(operation);
+                }
+                return operations;
+            }));
+        }
+
+        List<Operation> history = new ArrayList<>();
+        for (Future<List<Operation>> future : futures) {
+            history.addAll(future.get(1, TimeUnit.MINUTES));
+        }
+        return history;
+    }
+
+    private enum OperationType {ADD, DELETE, POLL, POSITION}
+
+    private static class Operation {
+        final OperationType type;
+        final long id;
+        final long enqueueTime;
+        long invocationTime;
+        long responseTime;
+        QueueEngine.Status status;
+        RankedTask polled;
+        int position;
+
+        Operation(OperationType type, long id, long enqueueTime) {
+            this.type = type;
+            this.id = id;
+            this.enqueueTime = enqueueTime;
+        }
+
+        @Override
+        public String toString() {
+            Object result = switch (type) {
+                case ADD, DELETE -> status;
+                case POLL -> polled == null ? null : polled.getId();
+                default -> position;
+            };
+            return type + "(" + id + ")=" + result;
+        }
+    }
+
+    /**
+     * Sequential specification of the queue. A history is linearizable if its operations
+     * can be reordered, respecting their real-time order, so that every result matches
+     * the result of the sequential queue
+     */
+    private static class ReferenceModel {
+        private final long currentTime;
+        private final List<RankedTask> tasks = new ArrayList<>();
+
+        ReferenceModel(long currentTime) {
+            this.currentTime = currentTime;
+        }
+
+        boolean isLinearizable(List<Operation> history) {
+            return search(new ArrayList<>(history));
+        }
+
+        // Depth-first search over the orders of the pending operations
+        private boolean search(List<Operation> pending) {
+            if (pending.isEmpty()) {
+                return true;
+            }
+
+            for (int i = 0; i < pending.size(); i++) {
+                Operation operation = pending.get(i);
+                if (!isMinimal(operation, pending)) {
+                    continue;
+                }
+
+                List<RankedTask> savedTasks = new ArrayList<>(tasks);
+                if (apply(operation)) {
+                    pending.remove(i);
+                    if (search(pending)) {
+                        return true;
+                    }
+                    pending.add(i, operation);
+                }
+                tasks.clear();
+                tasks.addAll(savedTasks);
+            }
+
+            return false;
+        }
+
+        // An operation can be linearized next only if no pending operation has completed before it started
+        private boolean isMinimal(Operation operation, List<Operation> pending) {
+            for (Operation other : pending) {
+                if (other.responseTime < operation.invocationTime) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Apply the operation to the model and check that the queue returned the same result
+        private boolean apply(Operation operation) {
+            RankedTask task = find(operation.id);
+            switch (operation.type) {
+                case ADD -> {
+                    if (task != null) {
+                        return operation.status == QueueEngine.Status.E_ID_ALREADY_EXISTS;
+                    }
+                    tasks.add(new RankedTask(operation.id, operation.enqueueTime));
+                    return operation.status == QueueEngine.Status.S_OK;
+                }
+                case DELETE -> {
+                    if (task == null) {
+                        return operation.status == QueueEngine.Status.E_TASK_NOT_FOUND;
+                    }
+                    tasks.remove(task);
+                    return operation.status == QueueEngine.Status.S_OK;
+                }
+                case POLL -> {
+                    RankedTask highest = null;
+                    for (RankedTask candidate : tasks) {
+                        if (highest == null || candidate.outranks(highest, currentTime)) {
+                            highest = candidate;
+                        }
+                    }
+                    tasks.remove(highest);
+                    return highest == null ? operation.polled == null :
+                           operation.polled != null && operation.polled.getId() == highest.getId();
+                }
+                default -> {
+                    if (task == null) {
+                        return operation.position == -1;
+                    }
+                    int position = 0;
+                    for (RankedTask other : tasks) {
+                        if (other.outranks(task, currentTime)) {
+                            position++;
+                        }
+                    }
+                    return operation.position == position;
+                }
+            }
+        }
+
+        private RankedTask find(long id) {
+            for (RankedTask task : tasks) {
+                if (task.getId() == id) {
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+}
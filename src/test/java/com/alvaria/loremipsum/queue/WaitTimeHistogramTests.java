@@ -0,0 +1,78 @@
+package com.alvaria.loremipsum.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WaitTimeHistogramTests {
+
+    private static final double[] PERCENTILES = {0.0, 1.0, 50.0, 90.0, 99.0, 99.9, 100.0};
+
+    @Test
+    public void testPercentilesStayCloseToExactOnes() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        List<Long> enqueueTimes = new ArrayList<>();
+        Random random = new Random(42);
+        long currentTime = 1_700_000_000L;
+
+        for (int step = 0; step < 200_000; step++) {
+            currentTime += random.nextInt(3);
+            if (random.nextInt(5) < 3 || enqueueTimes.isEmpty()) {
+                // Mostly the new tasks, some of them with the ages up to a year
+                long enqueueTime = currentTime - (random.nextInt(10) == 0 ? random.nextInt(31_536_000) : random.nextInt(30));
+                histogram.add(enqueueTime, currentTime);
+                enqueueTimes.add(enqueueTime);
+            } else {
+                int i = random.nextInt(enqueueTimes.size());
+                histogram.remove(enqueueTimes.get(i));
+                Collections.swap(enqueueTimes, i, enqueueTimes.size() - 1);
+                enqueueTimes.remove(enqueueTimes.size() - 1);
+            }
+
+            if (step % 1000 == 0) {
+                assertPercentiles(histogram, enqueueTimes, currentTime);
+            }
+        }
+        assertEquals(enqueueTimes.size(), histogram.size());
+    }
+
+    @Test
+    public void testEmptyAndUncountedTimes() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        assertEquals(0L, histogram.getPercentile(50.0, 1000L));
+        histogram.add(900L, 1000L);
+        assertEquals(100L, histogram.getPercentile(50.0, 1000L));
+        assertThrows(IllegalStateException.class, () -> histogram.remove(901L));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(101.0, 1000L));
+
+        histogram.remove(900L);
+        assertEquals(0L, histogram.getPercentile(99.0, 1000L));
+        assertThrows(IllegalStateException.class, () -> histogram.remove(900L));
+    }
+
+    private static void assertPercentiles(WaitTimeHistogram histogram, List<Long> enqueueTimes, long currentTime) {
+        List<Long> ages = new ArrayList<>();
+        for (long enqueueTime : enqueueTimes) {
+            ages.add(currentTime - enqueueTime);
+        }
+        Collections.sort(ages);
+
+        for (double percentile : PERCENTILES) {
+            long rank = Math.max((long) Math.ceil(percentile / 100.0 * ages.size()), 1L);
+            long expected = ages.get((int) rank - 1);
+            long actual = histogram.getPercentile(percentile, currentTime);
+            // A bucket is at most 1/64 of the age of its youngest task wide; the young ones are exact
+            assertTrue(Math.abs(actual - expected) <= expected / 64, () -> percentile + ": " + expected + " vs " + actual);
+            if (expected < 128) {
+                assertEquals(expected, actual);
+            }
+        }
+    }
+}
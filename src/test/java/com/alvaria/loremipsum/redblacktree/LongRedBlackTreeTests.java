@@ -0,0 +1,206 @@
+package com.alvaria.loremipsum.redblacktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.alvaria.loremipsum.redblacktree.LongRedBlackTree.NIL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongRedBlackTreeTests {
+
+    @Test
+    public void testRandomOperations() {
+        LongRedBlackTree tree = new LongRedBlackTree();
+        TreeMap<Long, Long> reference = new TreeMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) > 0) {
+                if (reference.putIfAbsent(key, -key) == null) {
+                    tree.insert(key, -key);
+                } else {
+                    assertThrows(IllegalArgumentException.class, () -> tree.insert(key, -key));
+                }
+            } else if (reference.remove(key) != null) {
+                tree.delete(tree.find(key, -key));
+            } else {
+                assertEquals(NIL, tree.find(key, -key));
+            }
+        }
+
+        validate(tree, reference);
+
+        // Deleted nodes are reused, the tree is emptied and filled again
+        for (long key : new ArrayList<>(reference.keySet())) {
+            tree.delete(tree.find(key, -key));
+        }
+        reference.clear();
+        assertEquals(0, tree.size());
+        assertEquals(NIL, tree.first());
+        random.longs(1000, 0, 100_000).forEach(key -> {
+            if (reference.putIfAbsent(key, -key) == null) {
+                tree.insert(key, -key);
+            }
+        });
+        validate(tree, reference);
+    }
+
+    @Test
+    public void testInsertAll() {
+        LongRedBlackTree tree = new LongRedBlackTree();
+        TreeMap<Long, Long> reference = new TreeMap<>();
+
+        // A small batch is inserted one by one, so the node indexes are kept
+        assertTrue(tree.insertAll(new long[]{10, 20, 30}, new long[]{1, 2, 3}, 3));
+        int node = tree.find(20, 2);
+        assertFalse(tree.insertAll(new long[]{15, 25}, new long[]{4, 5}, 2));
+        assertEquals(node, tree.find(20, 2));
+
+        // A large batch rebuilds the tree
+        long[] keys = new long[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 31 + 2L * i;
+        }
+        assertTrue(tree.insertAll(keys, keys, 999));
+
+        reference.putAll(Map.of(10L, 1L, 15L, 4L, 20L, 2L, 25L, 5L, 30L, 3L));
+        for (int i = 0; i < 999; i++) {
+            reference.put(keys[i], keys[i]);
+        }
+        validate(tree, reference);
+
+        assertThrows(IllegalArgumentException.class, () -> tree.insertAll(new long[]{5, 5}, new long[2], 2));
+        assertThrows(IllegalArgumentException.class, () -> tree.insertAll(new long[]{9, 10}, new long[]{0, 1}, 2));
+        assertThrows(IllegalArgumentException.class, () -> tree.insertAll(new long[]{40, 40}, new long[]{2, 1}, 2));
+    }
+
+    @Test
+    public void testEqualKeysAreOrderedByValues() {
+        LongRedBlackTree tree = new LongRedBlackTree();
+        TreeSet<List<Long>> reference = new TreeSet<>(
+                Comparator.<List<Long>>comparingLong(pair -> pair.get(0)).thenComparingLong(pair -> pair.get(1)));
+        Random random = new Random(42);
+
+        // Few keys, so most of the nodes share their keys with others
+        for (int i = 0; i < 10_000; i++) {
+            long key = random.nextInt(20);
+            long value = random.nextInt(1000);
+            if (random.nextInt(3) > 0) {
+                if (reference.add(List.of(key, value))) {
+                    tree.insert(key, value);
+                } else {
+                    assertThrows(IllegalArgumentException.class, () -> tree.insert(key, value));
+                }
+            } else if (reference.remove(List.of(key, value))) {
+                tree.delete(tree.find(key, value));
+            } else {
+                assertEquals(NIL, tree.find(key, value));
+            }
+        }
+
+        List<List<Long>> pairs = new ArrayList<>();
+        for (int node = tree.first(); node != NIL; node = tree.successor(node)) {
+            assertEquals(pairs.size(), tree.rank(node));
+            assertEquals(node, tree.find(tree.keyOf(node), tree.valueOf(node)));
+            pairs.add(List.of(tree.keyOf(node), tree.valueOf(node)));
+        }
+        assertEquals(new ArrayList<>(reference), pairs);
+
+        // A batch of equal keys is merged by the values
+        long[] keys = new long[reference.size()];
+        long[] values = new long[reference.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 10;
+            values[i] = 1000 + i;
+        }
+        assertTrue(tree.insertAll(keys, values, keys.length));
+        assertEquals(2 * keys.length, tree.size());
+        for (int node = tree.first(), k = 0; node != NIL; node = tree.successor(node), k++) {
+            assertEquals(k, tree.rank(node));
+            if (tree.successor(node) != NIL) {
+                assertTrue(tree.keyOf(node) < tree.keyOf(tree.successor(node)) ||
+                           tree.valueOf(node) < tree.valueOf(tree.successor(node)));
+            }
+        }
+    }
+
+    // Check the ordering, the navigation and the order statistics against the reference map
+    @Test
+    public void testSequenceOperations() {
+        LongRedBlackTree tree = new LongRedBlackTree();
+        List<Long> reference = new ArrayList<>();
+        List<Integer> nodes = new ArrayList<>();
+        Random random = new Random(42);
+
+        // The keys are placed in an arbitrary order that only the positions define
+        for (long i = 0; i < 20_000; i++) {
+            int operation = random.nextInt(4);
+            if (operation <= 1 || reference.isEmpty()) {
+                int position = random.nextInt(reference.size() + 1);
+                int next = position < nodes.size() ? nodes.get(position) : NIL;
+                long key = random.nextInt(1000);
+                nodes.add(position, tree.insertBefore(next, key, -key));
+                reference.add(position, key);
+            } else if (operation == 2 && reference.size() > 1) {
+                int position = random.nextInt(reference.size() - 1);
+                tree.swap(nodes.get(position), nodes.get(position + 1));
+                reference.add(position + 1, reference.remove(position));
+            } else {
+                int position = random.nextInt(reference.size());
+                tree.delete(nodes.remove(position));
+                reference.remove(position);
+            }
+        }
+
+        assertEquals(reference.size(), tree.size());
+        assertTrue(tree.height() <= 2 * (32 - Integer.numberOfLeadingZeros(tree.size() + 1)));
+        int k = 0;
+        for (int node = tree.first(); node != NIL; node = tree.successor(node), k++) {
+            assertEquals(reference.get(k), tree.keyOf(node));
+            assertEquals(-reference.get(k), tree.valueOf(node));
+            assertEquals(node, nodes.get(k));
+            assertEquals(k, tree.rank(node));
+            int position = k;
+            assertEquals(position, tree.countHeadNodes(other -> tree.rank(other) < position));
+        }
+        assertEquals(reference.size(), k);
+    }
+
+    private void validate(LongRedBlackTree tree, TreeMap<Long, Long> reference) {
+        assertEquals(reference.size(), tree.size());
+        assertTrue(tree.height() <= 2 * (32 - Integer.numberOfLeadingZeros(tree.size() + 1)));
+
+        List<Long> keys = new ArrayList<>();
+        int k = 0;
+        for (int node = tree.first(); node != NIL; node = tree.successor(node), k++) {
+            long nodeKey = tree.keyOf(node);
+            keys.add(nodeKey);
+            assertEquals(node, tree.select(k));
+            assertEquals(k, tree.rank(node));
+            assertEquals(k, tree.countHead(key -> key < nodeKey));
+        }
+        assertEquals(new ArrayList<>(reference.keySet()), keys);
+        assertEquals(NIL, tree.select(k));
+
+        List<Long> descending = new ArrayList<>();
+        for (int node = tree.last(); node != NIL; node = tree.predecessor(node)) {
+            descending.add(tree.keyOf(node));
+        }
+        assertEquals(new ArrayList<>(reference.descendingKeySet()), descending);
+
+        for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), tree.valueOf(tree.find(entry.getKey(), entry.getValue())));
+        }
+    }
+}
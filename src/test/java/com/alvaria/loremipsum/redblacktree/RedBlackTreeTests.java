@@ -0,0 +1,182 @@
+package com.alvaria.loremipsum.redblacktree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedBlackTreeTests {
+
+    @Test
+    public void testOrderStatisticsAfterInsertAndDelete() {
+        RedBlackTree<Long> tree = new RedBlackTree<>();
+        List<Long> reference = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(20000);
+            if (!reference.contains(value)) {
+                tree.insertNode(value);
+                reference.add(value);
+            }
+
+            // Delete every third value to exercise the rotations of both repair procedures
+            if (i % 3 == 0 && !reference.isEmpty()) {
+                Long deleted = reference.remove(random.nextInt(reference.size()));
+                tree.deleteNode(tree.findValue(deleted).getData());
+            }
+        }
+
+        Collections.sort(reference);
+        validateOrderStatistics(tree, reference);
+
+        List<Long> descending = new ArrayList<>();
+        tree.descendingIterator().forEachRemaining(descending::add);
+        Collections.reverse(descending);
+        assertEquals(reference, descending);
+
+        while (!reference.isEmpty()) {
+            assertEquals(reference.remove(reference.size() - 1), tree.pollMaximum());
+            assertEquals(reference.size(), tree.size());
+        }
+        assertNull(tree.select(0));
+    }
+
+    @Test
+    public void testTraversals() {
+        RedBlackTree<Long> tree = new RedBlackTree<>();
+        assertEquals(List.of(), tree.buildNodeList());
+        assertArrayEquals(new Long[0], tree.toArray(Long[]::new));
+        assertFalse(tree.iterator().hasNext());
+        assertThrows(NoSuchElementException.class, () -> tree.descendingIterator().next());
+
+        List<Long> reference = new Random(42).longs(10_000).distinct().boxed().collect(Collectors.toList());
+        reference.forEach(tree::insertNode);
+        Collections.sort(reference);
+
+        assertEquals(reference, tree.buildNodeList());
+        assertArrayEquals(reference.toArray(new Long[0]), tree.toArray(Long[]::new));
+        assertEquals(reference, StreamSupport.stream(tree.spliterator(), false).collect(Collectors.toList()));
+        assertEquals(reference.size(), tree.spliterator().getExactSizeIfKnown());
+
+        List<Long> iterated = new ArrayList<>();
+        for (Long value : tree) {
+            iterated.add(value);
+        }
+        assertEquals(reference, iterated);
+    }
+
+    @Test
+    public void testCountTail() {
+        RedBlackTree<Long> tree = new RedBlackTree<>();
+        for (long value = 1; value <= 100; value++) {
+            tree.insertNode(value);
+        }
+
+        assertEquals(0, tree.countTail(value -> value > 100));
+        assertEquals(10, tree.countTail(value -> value > 90));
+        assertEquals(100, tree.countTail(value -> value > 0));
+    }
+
+    @Test
+    public void testInsertAll() {
+        Random random = new Random(42);
+        for (int size : new int[] {0, 1, 2, 3, 7, 8, 100, 1000}) {
+            for (int batchSize : new int[] {1, 2, 5, 100, 2000}) {
+                RedBlackTree<Long> tree = new RedBlackTree<>();
+                List<Long> reference = new ArrayList<>();
+
+                // Odd values are already in the tree, even ones are inserted in bulk
+                for (int i = 0; i < size; i++) {
+                    long value = 2L * random.nextInt(10 * (size + batchSize)) + 1;
+                    if (!reference.contains(value)) {
+                        tree.insertNode(value);
+                        reference.add(value);
+                    }
+                }
+
+                List<Long> batch = random.longs(batchSize, 0, 10L * (size + batchSize))
+                                         .map(value -> 2 * value).distinct().sorted().boxed().toList();
+                tree.insertAll(batch);
+                reference.addAll(batch);
+
+                Collections.sort(reference);
+                validateRedBlackProperties(tree);
+                validateOrderStatistics(tree, reference);
+
+                // The tree must stay valid for the following modifications
+                for (int i = 0; i < reference.size() / 2; i++) {
+                    Long deleted = reference.remove(random.nextInt(reference.size()));
+                    tree.deleteNode(tree.findValue(deleted).getData());
+                }
+                validateRedBlackProperties(tree);
+                validateOrderStatistics(tree, reference);
+            }
+        }
+    }
+
+    @Test
+    public void testInsertAllRejectsExistingValue() {
+        RedBlackTree<Long> tree = new RedBlackTree<>();
+        tree.insertNode(5L);
+
+        assertThrows(IllegalArgumentException.class, () -> tree.insertAll(List.of(9L, 1L)));
+        assertEquals(1, tree.size());
+        assertThrows(IllegalArgumentException.class, () -> tree.insertAll(List.of(1L, 5L, 9L)));
+        assertEquals(1, tree.size());
+    }
+
+    // Check that the root is BLACK, no RED node has a RED child and all paths have the same number of BLACK nodes
+    private void validateRedBlackProperties(RedBlackTree<Long> tree) {
+        Node<Long> root = tree.findMaximum();
+        while (root != null && root.parent != null) {
+            root = root.parent;
+        }
+
+        if (root != null) {
+            assertEquals(Node.Color.BLACK, root.color);
+        }
+        // The leaves count in the reference black height
+        assertEquals(blackHeight(root) - 1, tree.blackHeight());
+        assertTrue(tree.height() <= 2 * tree.blackHeight());
+    }
+
+    private int blackHeight(Node<Long> node) {
+        if (node == null) {
+            return 1;
+        }
+
+        if (node.color == Node.Color.RED) {
+            assertTrue(node.left == null || node.left.color == Node.Color.BLACK);
+            assertTrue(node.right == null || node.right.color == Node.Color.BLACK);
+        }
+
+        int leftHeight = blackHeight(node.left);
+        assertEquals(leftHeight, blackHeight(node.right));
+        return leftHeight + (node.color == Node.Color.BLACK ? 1 : 0);
+    }
+
+    private void validateOrderStatistics(RedBlackTree<Long> tree, List<Long> sortedReference) {
+        assertEquals(sortedReference.size(), tree.size());
+        for (int k = 0; k < sortedReference.size(); k++) {
+            Long value = sortedReference.get(k);
+            assertEquals(value, tree.select(k));
+            assertEquals(k, tree.rank(value));
+            // The value does not need to be in the tree to be ranked
+            assertEquals(k + 1, tree.rank(value + 1));
+        }
+        assertNull(tree.select(sortedReference.size()));
+    }
+}
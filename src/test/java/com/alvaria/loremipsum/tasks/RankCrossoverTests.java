@@ -0,0 +1,70 @@
+package com.alvaria.loremipsum.tasks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RankCrossoverTests {
+
+    private static final RankedTask.TaskClass[] RANKED_CLASSES = {
+            RankedTask.TaskClass.VIP, RankedTask.TaskClass.PRIORITY, RankedTask.TaskClass.NORMAL};
+
+    @Test
+    public void testSameResultsAsRanksOfYoungTasks() {
+        for (RankedTask.TaskClass taskClass : RANKED_CLASSES) {
+            for (RankedTask.TaskClass otherClass : RANKED_CLASSES) {
+                for (long age = -2; age < 400; age++) {
+                    for (long otherAge = -2; otherAge < 400; otherAge++) {
+                        assertOutranks(taskClass, age, otherClass, otherAge);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameResultsAsRanksAroundTableEnd() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000_000; i++) {
+            RankedTask.TaskClass taskClass = RANKED_CLASSES[random.nextInt(RANKED_CLASSES.length)];
+            RankedTask.TaskClass otherClass = RANKED_CLASSES[random.nextInt(RANKED_CLASSES.length)];
+            long age = RankCrossover.TABLE_SIZE - 1000 + random.nextInt(2000);
+            // The ages of the other task are spread around the ones of the equal ranks
+            long otherAge = random.nextBoolean() ? age + random.nextInt(2000) - 1000 : random.nextInt(3_000_000);
+            assertOutranks(taskClass, age, otherClass, otherAge);
+            assertOutranks(otherClass, otherAge, taskClass, age);
+        }
+    }
+
+    @Test
+    public void testSameResultsAsRanksOfOldTasks() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000_000; i++) {
+            RankedTask.TaskClass taskClass = RANKED_CLASSES[random.nextInt(RANKED_CLASSES.length)];
+            RankedTask.TaskClass otherClass = RANKED_CLASSES[random.nextInt(RANKED_CLASSES.length)];
+            assertOutranks(taskClass, random.nextInt(1 << 30), otherClass, random.nextInt(1 << 30));
+        }
+    }
+
+    @Test
+    public void testManagementOverrideGoesFirst() {
+        for (RankedTask.TaskClass taskClass : RANKED_CLASSES) {
+            assertTrue(RankCrossover.outranks(RankedTask.TaskClass.MANAGEMENT_OVERRIDE, 0L, taskClass, 1_000_000L));
+            assertFalse(RankCrossover.outranks(taskClass, 1_000_000L, RankedTask.TaskClass.MANAGEMENT_OVERRIDE, 0L));
+        }
+        assertTrue(RankCrossover.outranks(RankedTask.TaskClass.MANAGEMENT_OVERRIDE, 10L, RankedTask.TaskClass.MANAGEMENT_OVERRIDE, 5L));
+    }
+
+    private static void assertOutranks(RankedTask.TaskClass taskClass, long age, RankedTask.TaskClass otherClass, long otherAge) {
+        double rank = RankedTask.rankAt(taskClass, 0L, age);
+        double otherRank = RankedTask.rankAt(otherClass, 0L, otherAge);
+        boolean expected = taskClass == otherClass ? age > otherAge :
+                           rank > otherRank || (rank == otherRank && taskClass.compareTo(otherClass) > 0);
+        assertEquals(expected, RankCrossover.outranks(taskClass, age, otherClass, otherAge),
+                     () -> taskClass + " " + age + " vs " + otherClass + " " + otherAge);
+    }
+}